@@ -18,3 +18,4 @@ require 'data_objects/error/data_error'
 require 'data_objects/error/integrity_error'
 require 'data_objects/error/syntax_error'
 require 'data_objects/error/transaction_error'
+require 'data_objects/error/query_cancelled_error'
@@ -65,7 +65,16 @@ module DataObjects
           end
         end
       end
-      clazz.new(conn_uri)
+
+      # With pool=true the JDBC connections are pooled by the driver itself
+      if RUBY_PLATFORM =~ /java/ && uri.query.is_a?(Hash) && uri.query['pool'] == 'true' &&
+          clazz.respond_to?(:__new)
+        connection = clazz.__new(conn_uri)
+        connection.instance_variable_set(:@__pool, Pooling::Unpooled)
+        connection
+      else
+        clazz.new(conn_uri)
+      end
     end
 
     # Ensure that all Connection subclasses handle pooling and logging uniformly.
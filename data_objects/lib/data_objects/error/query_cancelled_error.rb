@@ -0,0 +1,5 @@
+module DataObjects
+  # Raised when a query is cancelled, or runs longer than its timeout
+  class QueryCancelledError < SQLError
+  end
+end
@@ -141,6 +141,18 @@ module DataObjects
       @__pool.delete(self) unless @__pool.nil?
     end
 
+    # Stands in for the Pool of connections which are pooled by their
+    # driver: releasing one returns its JDBC connection to the driver's pool.
+    module Unpooled
+      def self.release(instance)
+        instance.dispose
+      end
+
+      def self.delete(instance)
+        instance.instance_variable_set(:@__pool, nil)
+      end
+    end
+
     class Pool
       attr_reader :available
       attr_reader :used
@@ -29,12 +29,31 @@ module DataObjects
       raise NotImplementedError.new
     end
 
+    # Read up to +limit+ rows at once, returning an array of their values (empty once all rows have been read).
+    def next_batch(limit)
+      rows = []
+      while rows.size < limit && next!
+        rows << values
+      end
+      rows
+    end
+
+    # Read all remaining rows, returning an array of their values, and close the reader.
+    def to_a
+      rows = []
+      rows << values while next!
+      rows
+    ensure
+      close
+    end
+
     # Yield each row to the given block as a Hash
     def each
       begin
+        names = fields
         while next!
           row = {}
-          fields.each_with_index { |field, index| row[field] = values[index] }
+          names.each_with_index { |field, index| row[field] = values[index] }
           yield row
         end
       ensure
@@ -5,6 +5,12 @@ module DataObjects
     attr_accessor :insert_id
     # The number of rows affected by the Command
     attr_accessor :affected_rows
+    # The number of rows affected by each row of a batch, if known
+    attr_reader :update_counts
+    # The IDs of all rows inserted by the Command (or by a batch)
+    attr_reader :insert_ids
+    # The warnings reported by the database, for drivers which collect them
+    attr_reader :warnings
 
     # Create a new Result. Used internally in the adapters.
     def initialize(command, affected_rows, insert_id = nil)
@@ -1,3 +1,8 @@
+# The URI of the spec database with the given query options added
+def uri_with_options(options)
+  "#{CONFIG.uri}#{CONFIG.uri.include?('?') ? '&' : '?'}#{options}"
+end
+
 RSpec::Matchers.define :be_array_case_insensitively_equal_to do |attribute|
   match do |model|
     model.map { |f| f.downcase } == attribute
@@ -242,3 +242,274 @@ shared_examples_for 'a Command with async' do
 
   end
 end
+
+shared_examples_for 'a Command with prepare' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @prepared   = @connection.prepare("SELECT code FROM widgets WHERE id = ?")
+  end
+
+  after do
+    @prepared.close
+    @connection.close
+  end
+
+  it { @prepared.should be_kind_of(DataObjects::Command) }
+
+  it 'should execute repeatedly with different arguments' do
+    [1, 2, 1].map do |id|
+      reader = @prepared.execute_reader(id)
+      reader.next!
+      value = reader.values.first
+      reader.close
+      value
+    end.should == ["W0000001", "W0000002", "W0000001"]
+  end
+
+  it 'should execute non queries repeatedly' do
+    command = @connection.prepare("INSERT INTO users (name) VALUES (?)")
+    begin
+      command.execute_non_query('Alice').affected_rows.should == 1
+      command.execute_non_query('Bob').affected_rows.should == 1
+    ensure
+      command.close
+    end
+  end
+
+  it 'should not accept Arrays as arguments' do
+    expect { @prepared.execute_reader([1, 2]) }.to raise_error(ArgumentError)
+  end
+
+  describe 'close' do
+
+    it 'should return true, then false' do
+      @prepared.close.should be_true
+      @prepared.close.should be_false
+      @prepared.should be_closed
+    end
+
+    it 'should make further executions raise an error' do
+      @prepared.close
+      expect { @prepared.execute_reader(1) }.to raise_error(DataObjects::SQLError)
+    end
+
+    it 'should leave open readers readable' do
+      reader = @prepared.execute_reader(1)
+      @prepared.close
+      reader.next!.should be_true
+      reader.close
+    end
+
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Command with batches' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("INSERT INTO users (name) VALUES (?)")
+  end
+
+  after do
+    @connection.close
+  end
+
+  def user_count
+    reader = @connection.create_command("SELECT COUNT(*) FROM users").execute_reader
+    reader.next!
+    count = reader.values.first
+    reader.close
+    count
+  end
+
+  it 'should execute the command once per row' do
+    count = user_count
+    result = @command.execute_batch([['Alice'], ['Bob'], ['Carol']])
+    result.affected_rows.should == 3
+    result.update_counts.size.should == 3
+    result.update_counts.compact.each { |c| c.should == 1 }
+    user_count.should == count + 3
+  end
+
+  it 'should send the rows in batches of the given size' do
+    result = @command.execute_batch([['Alice'], ['Bob'], ['Carol']], 2)
+    result.update_counts.size.should == 3
+  end
+
+  it 'should report one insert id per row, or none' do
+    result = @command.execute_batch([['Alice'], ['Bob']])
+    [0, 2].should include(result.insert_ids.size)
+    result.insert_ids.uniq.size.should == result.insert_ids.size
+  end
+
+  it 'should accept an empty batch' do
+    result = @command.execute_batch([])
+    result.affected_rows.should == 0
+    result.update_counts.should == []
+    result.insert_ids.should == []
+  end
+
+  it 'should raise an error for a row with too many values' do
+    expect { @command.execute_batch([['Alice', 'Bob']]) }.to raise_error(ArgumentError,
+      /Binding mismatch: 2 for 1/)
+  end
+
+  it 'should raise an error for an invalid batch size' do
+    expect { @command.execute_batch([['Alice']], 0) }.to raise_error(ArgumentError)
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Command with futures' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+  end
+
+  after do
+    @connection.close
+  end
+
+  it 'should return the reader of an asynchronous query' do
+    future = @connection.create_command("SELECT code FROM widgets WHERE id = ?").execute_reader_async(1)
+    reader = future.value
+    reader.next!.should be_true
+    reader.values.should == ["W0000001"]
+    reader.close
+    future.should be_done
+  end
+
+  it 'should return the result of an asynchronous non query' do
+    future = @connection.create_command("INSERT INTO users (name) VALUES (?)").execute_non_query_async('Alice')
+    future.wait.should be_true
+    future.value.affected_rows.should == 1
+  end
+
+  it 'should raise the error of a failed command from value' do
+    future = @connection.create_command("INSERT INTO non_existent_table (tester) VALUES (1)").execute_non_query_async
+    expect { future.value }.to raise_error(DataObjects::SQLError)
+  end
+
+  it 'should run commands of a connection in the order they were submitted' do
+    name    = "Future #{rand(100000)}"
+    command = @connection.create_command("INSERT INTO users (name) VALUES (?)")
+    futures = (1..3).map { command.execute_non_query_async(name) }
+    reader  = @connection.create_command("SELECT COUNT(*) FROM users WHERE name = ?").execute_reader(name)
+    reader.next!
+    reader.values.first.should == 3
+    reader.close
+    futures.each { |future| future.should be_done }
+  end
+
+  it 'should wait for all given futures' do
+    command = @connection.create_command("SELECT code FROM widgets WHERE id = ?")
+    futures = [command.execute_reader_async(1), command.execute_reader_async(2)]
+    readers = futures.first.class.all(*futures)
+    readers.map do |reader|
+      reader.next!
+      value = reader.values.first
+      reader.close
+      value
+    end.should == ["W0000001", "W0000002"]
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Command with timeouts' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command(CONFIG.sleep)
+  end
+
+  after do
+    @connection.close
+  end
+
+  def run_sleep(command)
+    reader = command.execute_reader
+    reader.next!
+    reader.close
+  end
+
+  describe 'timeout' do
+
+    it 'should have no timeout by default' do
+      @command.timeout.should == 0
+    end
+
+    it 'should take its default from the connection' do
+      connection = DataObjects::Connection.new(uri_with_options('query_timeout=7'))
+      begin
+        command = connection.create_command(CONFIG.sleep)
+        command.timeout.should == 7
+        command.timeout = 3
+        command.timeout.should == 3
+        command.timeout = nil
+        command.timeout.should == 7
+      ensure
+        connection.close
+      end
+    end
+
+    it 'should not accept negative timeouts' do
+      expect { @command.timeout = -1 }.to raise_error(ArgumentError)
+    end
+
+    it 'should let commands finish within the timeout' do
+      @command.timeout = 5
+      expect { run_sleep(@command) }.not_to raise_error
+    end
+
+  end
+
+  describe 'cancel' do
+
+    it 'should return false when nothing is running' do
+      @command.cancel.should be_false
+    end
+
+    it 'should cancel a running execution from another thread' do
+      error  = nil
+      thread = Thread.new do
+        begin
+          run_sleep(@command)
+        rescue DataObjects::SQLError => e
+          error = e
+        end
+      end
+      sleep 0.1 until @command.cancel || !thread.alive?
+      thread.join
+      error.should be_kind_of(DataObjects::QueryCancelledError)
+    end
+
+    it 'should leave the connection usable' do
+      thread = Thread.new { run_sleep(@command) rescue nil }
+      sleep 0.1 until @command.cancel || !thread.alive?
+      thread.join
+      reader = @connection.create_command("SELECT code FROM widgets WHERE id = ?").execute_reader(1)
+      reader.next!.should be_true
+      reader.close
+    end
+
+  end
+
+end if defined? JRUBY_VERSION
@@ -151,6 +151,51 @@ shared_examples_for 'a Connection with JDBC URL support' do
 
 end if defined? JRUBY_VERSION
 
+shared_examples_for 'a Connection with a statement cache' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+  end
+
+  after do
+    @connection.close
+  end
+
+  def cache_counts(connection)
+    stats = connection.statement_cache_stats
+    [stats[:hits], stats[:misses]]
+  end
+
+  it 'should reuse the statement of an earlier execution' do
+    command = @connection.create_command("SELECT code FROM widgets WHERE id = ?")
+    command.execute_reader(1).close
+    hits, misses = cache_counts(@connection)
+    command.execute_reader(2).close
+    cache_counts(@connection).should == [hits + 1, misses]
+  end
+
+  it 'should keep at most statement_cache_size statements' do
+    @connection.statement_cache_stats[:size].should <= @connection.statement_cache_stats[:max_size]
+  end
+
+  it 'should not keep statements with a statement_cache_size of 0' do
+    connection = DataObjects::Connection.new(uri_with_options('statement_cache_size=0'))
+    begin
+      command = connection.create_command("SELECT code FROM widgets WHERE id = ?")
+      2.times { |i| command.execute_reader(i + 1).close }
+      connection.statement_cache_stats[:hits].should == 0
+      connection.statement_cache_stats[:size].should == 0
+    ensure
+      connection.close
+    end
+  end
+
+end if defined? JRUBY_VERSION
+
 shared_examples_for 'a Connection with SSL support' do
 
   if DataObjectsSpecHelpers.test_environment_supports_ssl?
@@ -238,3 +283,250 @@ shared_examples_for 'a Connection via JDNI' do
     end
   end
 end
+
+shared_examples_for 'a Connection with pipelines' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+  end
+
+  after do
+    @connection.close
+  end
+
+  def first_value(reader)
+    reader.next!
+    value = reader.values.first
+    reader.close
+    value
+  end
+
+  it 'should return a Reader or Result per statement, in order' do
+    name    = "Pipeline #{rand(100000)}"
+    results = @connection.execute_pipeline([
+      "INSERT INTO users (name) VALUES ('#{name}')",
+      "UPDATE users SET fired_at = NULL WHERE name = '#{name}'",
+      "SELECT COUNT(*) FROM users WHERE name = '#{name}'"
+    ])
+    results.size.should == 3
+    results[0].affected_rows.should == 1
+    results[1].affected_rows.should == 1
+    first_value(results[2]).should == 1
+  end
+
+  it 'should bind the values given with a statement' do
+    results = @connection.execute_pipeline([
+      ["SELECT code FROM widgets WHERE id = ?", 1],
+      "SELECT code FROM widgets WHERE id = 2",
+      ["SELECT code FROM widgets WHERE id = ?", 3]
+    ])
+    results.map { |reader| first_value(reader) }.should == ["W0000001", "W0000002", "W0000003"]
+  end
+
+  it 'should accept statements with trailing semicolons' do
+    results = @connection.execute_pipeline([
+      "SELECT code FROM widgets WHERE id = 1;",
+      "SELECT code FROM widgets WHERE id = 2 ; "
+    ])
+    results.map { |reader| first_value(reader) }.should == ["W0000001", "W0000002"]
+  end
+
+  it 'should accept statements ending in a line comment' do
+    results = @connection.execute_pipeline([
+      "SELECT code FROM widgets WHERE id = 1 -- the first widget",
+      "SELECT code FROM widgets WHERE id = 2"
+    ])
+    results.map { |reader| first_value(reader) }.should == ["W0000001", "W0000002"]
+  end
+
+  it 'should read the rows of queries sent together' do
+    results = @connection.execute_pipeline([
+      "SELECT code FROM widgets WHERE ad_description = 'Buy this product now!' ORDER BY id",
+      "SELECT name FROM widgets WHERE id = 1"
+    ])
+    results[0].to_a.size.should == 15
+    first_value(results[1]).should == "Widget 1"
+  end
+
+  it 'should raise an error for a failing statement' do
+    expect {
+      @connection.execute_pipeline(["SELECT code FROM widgets", "INSERT INTO non_existent_table (tester) VALUES (1)"])
+    }.to raise_error(DataObjects::SQLError)
+  end
+
+  it 'should not accept empty statements' do
+    expect { @connection.execute_pipeline([[]]) }.to raise_error(ArgumentError)
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Connection with a pool' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  def code_of(connection, id)
+    reader = connection.create_command("SELECT code FROM widgets WHERE id = ?").execute_reader(id)
+    reader.next!
+    value = reader.values.first
+    reader.close
+    value
+  end
+
+  it 'should run commands on pooled connections' do
+    connection = DataObjects::Connection.new(uri_with_options('pool=true&pool_size=2'))
+    begin
+      code_of(connection, 1).should == "W0000001"
+    ensure
+      connection.close
+    end
+  end
+
+  it 'should hand a closed connection to the next one' do
+    uri = uri_with_options('pool=true&pool_size=1&pool_checkout_timeout=5')
+    2.times do |i|
+      connection = DataObjects::Connection.new(uri)
+      begin
+        code_of(connection, i + 1).should == "W000000#{i + 1}"
+      ensure
+        connection.close
+      end
+    end
+  end
+
+  it 'should serve threads concurrently up to its size' do
+    uri     = uri_with_options('pool=true&pool_size=2&pool_checkout_timeout=10')
+    threads = (1..4).map do |id|
+      Thread.new do
+        connection = DataObjects::Connection.new(uri)
+        begin
+          code_of(connection, id)
+        ensure
+          connection.close
+        end
+      end
+    end
+    threads.map { |thread| thread.value }.should == ["W0000001", "W0000002", "W0000003", "W0000004"]
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Connection with validation' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  def run_query(connection)
+    reader = connection.create_command("SELECT code FROM widgets WHERE id = ?").execute_reader(1)
+    reader.next!
+    reader.close
+  end
+
+  def stats_delta(connection)
+    before = connection.connection_stats
+    yield
+    after = connection.connection_stats
+    Hash[after.map { |name, count| [name, count - before[name]] }]
+  end
+
+  it 'should report its counters' do
+    connection = DataObjects::Connection.new(CONFIG.uri)
+    begin
+      connection.connection_stats.keys.sort_by { |name| name.to_s }.should ==
+        [:reconnect_failures, :reconnects, :validation_failures, :validations]
+    ensure
+      connection.close
+    end
+  end
+
+  it 'should not validate a connection used a moment ago' do
+    connection = DataObjects::Connection.new(CONFIG.uri)
+    begin
+      run_query(connection)
+      stats_delta(connection) { 2.times { run_query(connection) } }[:validations].should == 0
+    ensure
+      connection.close
+    end
+  end
+
+  it 'should validate before every command without a validation interval' do
+    connection = DataObjects::Connection.new(uri_with_options('validation_interval=0'))
+    begin
+      delta = stats_delta(connection) { 2.times { run_query(connection) } }
+      delta[:validations].should == 2
+      delta[:validation_failures].should == 0
+      delta[:reconnects].should == 0
+    ensure
+      connection.close
+    end
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Connection with savepoints' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @connection.create_command('DELETE FROM users').execute_non_query
+    @transaction = new_transaction
+    @insert = @connection.create_command('INSERT INTO users (name) VALUES (?)')
+  end
+
+  after do
+    @connection.close
+  end
+
+  def new_transaction
+    DataObjects.const_get(CONFIG.scheme.capitalize)::Transaction.new(CONFIG.uri, @connection)
+  end
+
+  def user_names
+    @connection.create_command('SELECT name FROM users ORDER BY name').execute_reader.map { |row| row['name'] }
+  end
+
+  it 'should roll back to a savepoint' do
+    @transaction.begin
+    @insert.execute_non_query('Alice')
+    savepoint = @transaction.savepoint
+    @insert.execute_non_query('Bob')
+    @transaction.rollback_to(savepoint)
+    @transaction.release(savepoint)
+    @transaction.commit
+    user_names.should == ['Alice']
+  end
+
+  it 'should use a savepoint for a nested transaction' do
+    @transaction.begin
+    @insert.execute_non_query('Alice')
+    nested = new_transaction
+    nested.begin
+    @insert.execute_non_query('Bob')
+    nested.rollback
+    @transaction.commit
+    user_names.should == ['Alice']
+  end
+
+  it 'should raise an error for an unknown savepoint' do
+    @transaction.begin
+    lambda { @transaction.rollback_to('unknown') }.should raise_error(ArgumentError)
+    @transaction.rollback
+  end
+
+  it 'should accept an isolation level' do
+    @transaction.begin(:isolation => :serializable)
+    @insert.execute_non_query('Alice')
+    @transaction.commit
+    user_names.should == ['Alice']
+  end
+
+end if defined? JRUBY_VERSION
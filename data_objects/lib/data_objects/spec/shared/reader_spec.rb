@@ -204,3 +204,299 @@ shared_examples_for 'a Reader' do
   end
 
 end
+
+shared_examples_for 'a Reader with streaming' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code FROM widgets WHERE ad_description = ? order by id")
+  end
+
+  after do
+    @connection.close
+  end
+
+  it 'should not stream by default' do
+    @command.should_not be_stream_results
+  end
+
+  it 'should read every row when streaming' do
+    @command.stream_results = true
+    @command.fetch_size = 2
+    reader = @command.execute_reader('Buy this product now!')
+    codes = []
+    while reader.next!
+      codes << reader.values.first
+    end
+    reader.close
+    codes.size.should == 15
+    codes.first.should == "W0000001"
+    codes.last.should  == "W0000015"
+  end
+
+  it 'should take its defaults from the connection' do
+    connection = DataObjects::Connection.new(uri_with_options('stream_results=true&fetch_size=5'))
+    begin
+      command = connection.create_command("SELECT code FROM widgets")
+      command.should be_stream_results
+      command.fetch_size.should == 5
+      command.stream_results = false
+      command.should_not be_stream_results
+    ensure
+      connection.close
+    end
+  end
+
+  it 'should not accept a fetch size below 1' do
+    expect { @command.fetch_size = 0 }.to raise_error(ArgumentError)
+  end
+
+  it 'should leave the connection usable after a partly read stream' do
+    @command.stream_results = true
+    reader = @command.execute_reader('Buy this product now!')
+    reader.next!
+    reader.close
+    reader = @connection.create_command("SELECT COUNT(*) FROM widgets").execute_reader
+    reader.next!.should be_true
+    reader.values.first.should == 16
+    reader.close
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Reader with batches' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @reader     = @connection.create_command("SELECT code, name FROM widgets WHERE ad_description = ? order by id").execute_reader('Buy this product now!')
+  end
+
+  after do
+    @reader.close
+    @connection.close
+  end
+
+  describe 'next_batch' do
+
+    it 'should return up to the given number of rows' do
+      @reader.next_batch(2).should == [["W0000001", "Widget 1"], ["W0000002", "Widget 2"]]
+      @reader.next_batch(1).should == [["W0000003", "Widget 3"]]
+    end
+
+    it 'should move the cursor to the last row read' do
+      @reader.next_batch(2)
+      @reader.values.should == ["W0000002", "Widget 2"]
+      @reader.next!
+      @reader.values.should == ["W0000003", "Widget 3"]
+    end
+
+    it 'should return the remaining rows, then an empty Array' do
+      @reader.next_batch(10).size.should == 10
+      @reader.next_batch(10).size.should == 5
+      @reader.next_batch(10).should == []
+    end
+
+    it 'should not accept a negative size' do
+      expect { @reader.next_batch(-1) }.to raise_error(ArgumentError)
+    end
+
+  end
+
+  describe 'to_a' do
+
+    it 'should return all remaining rows and close the reader' do
+      @reader.next!
+      rows = @reader.to_a
+      rows.size.should == 14
+      rows.first.should == ["W0000002", "Widget 2"]
+      @reader.close.should be_false
+    end
+
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Reader with rows' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @reader     = @connection.create_command("SELECT code, name FROM widgets WHERE ad_description = ? order by id").execute_reader('Buy this product now!')
+    @rows       = []
+    @reader.each { |row| @rows << row }
+    @row        = @rows.first
+  end
+
+  after do
+    @reader.close
+    @connection.close
+  end
+
+  it 'should look up values by field name, Symbol and index' do
+    @row['code'].should == "W0000001"
+    @row[:name].should  == "Widget 1"
+    @row[0].should      == "W0000001"
+    @row[-1].should     == "Widget 1"
+  end
+
+  it 'should return nil for unknown fields' do
+    @row['unknown'].should be_nil
+    @row[2].should be_nil
+  end
+
+  it 'should know its fields' do
+    @row.fields.should == ['code', 'name']
+    @row.should have_key('code')
+    @row.should_not have_key('unknown')
+    @row.size.should == 2
+  end
+
+  it 'should convert to an Array and a Hash' do
+    @row.to_a.should == ["W0000001", "Widget 1"]
+    @row.to_h.should == { 'code' => "W0000001", 'name' => "Widget 1" }
+  end
+
+  it 'should be equal to rows and Hashes with the same contents' do
+    @row.should == @row.to_h
+    @row.should_not == @rows[1]
+  end
+
+  it 'should be compared by identity as a Hash key' do
+    @row.should_not be_eql(@row.to_h)
+    { @row => 1 }.should have_key(@row)
+  end
+
+  it 'should yield field names and values' do
+    pairs = []
+    @row.each { |name, value| pairs << [name, value] }
+    pairs.should == [['code', "W0000001"], ['name', "Widget 1"]]
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Reader with columns' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    command     = @connection.create_command("SELECT id, code, cost1 FROM widgets WHERE id < ? order by id")
+    command.set_types(Integer, String, Float)
+    @reader     = command.execute_reader(7)
+    @columns    = @reader.columns
+  end
+
+  after do
+    @reader.close
+    @connection.close
+  end
+
+  it 'should return one column per field and close the reader' do
+    @columns.map { |column| column.name }.should == ['id', 'code', 'cost1']
+    @reader.close.should be_false
+  end
+
+  it 'should hold all values of a column' do
+    @columns[0].size.should == 6
+    @columns[0].to_a.should == [1, 2, 3, 4, 5, 6]
+    @columns[1][0].should == "W0000001"
+    @columns[1][-1].should == "W0000006"
+    @columns[1][6].should be_nil
+  end
+
+  it 'should keep nils in primitive storage' do
+    @columns[2][4].should be_nil
+    @columns[2][0].should == 10.23
+  end
+
+  it 'should store numbers and strings compactly' do
+    @columns.map { |column| column.storage }.should == [:long, :dictionary, :double]
+  end
+
+  it 'should yield its values' do
+    values = []
+    @columns[0].each { |value| values << value }
+    values.should == [1, 2, 3, 4, 5, 6]
+  end
+
+end if defined? JRUBY_VERSION
+
+shared_examples_for 'a Reader with lazy rows' do
+
+  before :all do
+    setup_test_environment
+  end
+
+  before do
+    @connection = DataObjects::Connection.new(CONFIG.uri)
+    @command    = @connection.create_command("SELECT code, release_datetime, cost1 FROM widgets WHERE id < ? order by id")
+    @command.set_types(String, DateTime, Float)
+  end
+
+  after do
+    @connection.close
+  end
+
+  def read_rows(command)
+    rows = []
+    command.execute_reader(11).each { |row| rows << row }
+    rows
+  end
+
+  it 'should not be lazy by default' do
+    @command.should_not be_lazy_rows
+  end
+
+  it 'should take its default from the connection' do
+    connection = DataObjects::Connection.new(uri_with_options('lazy_rows=true'))
+    begin
+      command = connection.create_command("SELECT code FROM widgets")
+      command.should be_lazy_rows
+      command.lazy_rows = nil
+      command.should be_lazy_rows
+      command.lazy_rows = false
+      command.should_not be_lazy_rows
+    ensure
+      connection.close
+    end
+  end
+
+  it 'should read the same values as eager rows' do
+    eager = read_rows(@command)
+    @command.lazy_rows = true
+    lazy  = read_rows(@command)
+    lazy.map { |row| row.to_a }.should == eager.map { |row| row.to_a }
+  end
+
+  it 'should convert values once they are read' do
+    @command.lazy_rows = true
+    rows = read_rows(@command)
+    rows[0]['code'].should == "W0000001"
+    rows[0]['release_datetime'].should be_kind_of(DateTime)
+    rows[0]['release_datetime'].should equal(rows[0]['release_datetime'])
+    rows[4]['cost1'].should be_nil
+    rows[7]['release_datetime'].should be_nil
+  end
+
+  it 'should convert the remaining values of a partly read row' do
+    @command.lazy_rows = true
+    row = read_rows(@command).first
+    row['code']
+    row.to_h.keys.should == ['code', 'release_datetime', 'cost1']
+    row.to_h['cost1'].should == 10.23
+  end
+
+end if defined? JRUBY_VERSION
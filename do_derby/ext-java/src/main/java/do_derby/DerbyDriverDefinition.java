@@ -11,6 +11,7 @@ import org.jruby.util.ByteList;
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.ColumnDecoder;
 
 public class DerbyDriverDefinition extends AbstractDriverDefinition {
     public final static String URI_SCHEME = "derby";
@@ -26,20 +27,21 @@ public class DerbyDriverDefinition extends AbstractDriverDefinition {
 
     /**
      *
-     * @param runtime
-     * @param rs
-     * @param col
      * @param type
+     * @param jdbcType
      * @return
-     * @throws SQLException
-     * @throws IOException
      */
     @Override
-    public IRubyObject getTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        switch (type) {
-        case BYTE_ARRAY:
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType) {
+        if (type == RubyType.BYTE_ARRAY) {
+            return derbyByteArrayDecoder;
+        }
+        return super.getColumnDecoder(type, jdbcType);
+    }
+
+    private final ColumnDecoder derbyByteArrayDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException, IOException {
             InputStream binaryStream = rs.getBinaryStream(col);
             // TODO there are NullPointerExceptions without that.
             // returning NIL fixes the spec but don't know why
@@ -59,9 +61,28 @@ public class DerbyDriverDefinition extends AbstractDriverDefinition {
             }
             return API.callMethod(runtime.fastGetModule("Extlib").fastGetClass(
             "ByteArray"), "new", runtime.newString(bytes));
-        default:
-            return super.getTypecastResultSetValue(runtime, rs, col, type);
         }
+    };
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String getValidationQuery() {
+        return "VALUES 1";
+    }
+
+    /**
+     * A timeout raises XCL52 (the statement has been cancelled or timed
+     * out).
+     *
+     * @param sqle
+     * @return
+     */
+    @Override
+    public boolean isQueryTimeout(SQLException sqle) {
+        return "XCL52".equals(sqle.getSQLState()) || super.isQueryTimeout(sqle);
     }
 
     /**
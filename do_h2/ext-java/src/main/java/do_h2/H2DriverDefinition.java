@@ -34,4 +34,14 @@ public class H2DriverDefinition extends AbstractDriverDefinition {
         return true;
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public boolean supportsBatchGeneratedKeys()
+    {
+        return true;
+    }
+
 }
@@ -13,8 +13,8 @@ import java.sql.Types;
 
 import org.jruby.runtime.builtin.IRubyObject;
 
-import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.BindPlan;
 
 public class HsqldbDriverDefinition extends AbstractDriverDefinition {
 
@@ -34,20 +34,30 @@ public class HsqldbDriverDefinition extends AbstractDriverDefinition {
      * @param ps
      * @param arg
      * @param idx
+     * @param plan
      * @throws SQLException
      */
     @Override
     public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.inferRubyType(arg)) {
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
+        switch (inferRubyType(arg)) {
         case NIL:
             ps.setNull(idx, Types.NULL);
             break;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            super.setPreparedStatementParam(ps, arg, idx, plan);
         }
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String getValidationQuery() {
+        return "CALL 1";
+    }
+
     /**
      *
      * @return
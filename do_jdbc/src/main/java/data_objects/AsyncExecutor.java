@@ -0,0 +1,169 @@
+package data_objects;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pool running the asynchronous commands of all connections.
+ *
+ * The pool is bounded: it has at most THREADS threads (the
+ * data_objects.async_threads system property, by default twice the number
+ * of processors) and a queue of QUEUE_SIZE tasks. Each connection occupies
+ * at most one slot of the queue, however many commands it has pending; when
+ * the queue is full anyway, submitting blocks until there is room. Threads
+ * are daemon threads, started as tasks come in.
+ */
+final class AsyncExecutor {
+
+    private static final int THREADS = Integer.getInteger("data_objects.async_threads",
+            Runtime.getRuntime().availableProcessors() * 2).intValue();
+
+    private static final int QUEUE_SIZE = 1024;
+
+    private static final ThreadPoolExecutor POOL;
+
+    static {
+        POOL = new ThreadPoolExecutor(THREADS, THREADS,
+                0L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task,
+                                "DataObjects async " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    // the queue only fills up once all threads are started,
+                    // so waiting for room in the queue is safe
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The executor is shut down");
+                        }
+                        boolean interrupted = false;
+                        try {
+                            while (true) {
+                                try {
+                                    executor.getQueue().put(task);
+                                    return;
+                                } catch (InterruptedException ie) {
+                                    interrupted = true;
+                                }
+                            }
+                        } finally {
+                            if (interrupted) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                });
+    }
+
+    private AsyncExecutor() {
+    }
+
+    /**
+     * Returns an executor which runs its tasks on the shared pool one at a
+     * time, in the order they were submitted. A JDBC connection can only
+     * run one statement at a time, so each connection gets its own.
+     *
+     * @return
+     */
+    static SerialExecutor newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    static final class SerialExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        private Thread runner;
+        private boolean scheduled;
+
+        /**
+         * Runs the queued tasks one after the other on a single pool thread,
+         * until the queue is empty.
+         */
+        private final Runnable drain = new Runnable() {
+            public void run() {
+                boolean drained = false;
+                try {
+                    Runnable task;
+                    while ((task = next()) != null) {
+                        task.run();
+                    }
+                    drained = true;
+                } finally {
+                    // a failing task must not strand the ones behind it
+                    if (!drained) {
+                        POOL.execute(this);
+                    }
+                }
+            }
+        };
+
+        public void execute(Runnable task) {
+            synchronized (this) {
+                tasks.offer(task);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            // outside the lock: this may wait for room in the queue
+            POOL.execute(drain);
+        }
+
+        /**
+         * Whether tasks are queued or running which the current thread would
+         * have to wait for to keep the order of commands.
+         *
+         * @return
+         */
+        synchronized boolean isBusy() {
+            return scheduled && runner != Thread.currentThread();
+        }
+
+        /**
+         * Waits until no task is queued or running any more (see isBusy), at
+         * most for the given number of milliseconds.
+         *
+         * @param millis
+         * @return whether the executor is idle
+         * @throws InterruptedException
+         */
+        synchronized boolean awaitIdle(long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (isBusy() && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return !isBusy();
+        }
+
+        private synchronized Runnable next() {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                scheduled = false;
+                runner = null;
+                notifyAll();
+            } else {
+                runner = Thread.currentThread();
+            }
+            return task;
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyEnumerator;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * One column of a result read by Reader#columns.
+ *
+ * Behaves like a read-only Array of the column values, while keeping them
+ * in compact column storage (see ColumnStorage).
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "Column")
+public class Column extends RubyObject {
+
+    public final static String RUBY_CLASS_NAME = "Column";
+
+    private final IRubyObject name;
+    private final ColumnStorage storage;
+
+    /**
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static RubyClass createColumnClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+
+        IRubyObject columnConstant = driverModule.getConstantAt(RUBY_CLASS_NAME);
+        if (columnConstant instanceof RubyClass) {
+            return (RubyClass) columnConstant;
+        }
+
+        RubyClass columnClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                runtime.getObject(), ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+        columnClass.includeModule(runtime.getEnumerable());
+        columnClass.defineAnnotatedMethods(Column.class);
+        return columnClass;
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param klass
+     * @param name
+     * @param storage
+     */
+    Column(Ruby runtime, RubyClass klass, IRubyObject name, ColumnStorage storage) {
+        super(runtime, klass);
+        this.name = name;
+        this.storage = storage;
+    }
+
+    /**
+     *
+     * @return the field name of the column
+     */
+    @JRubyMethod
+    public IRubyObject name() {
+        return name;
+    }
+
+    /**
+     *
+     * @return how the values are stored: :long, :double, :dictionary or
+     * :object
+     */
+    @JRubyMethod
+    public IRubyObject storage() {
+        return getRuntime().newSymbol(storage.kind());
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod(name = {"size", "length"})
+    public IRubyObject size() {
+        return getRuntime().newFixnum(storage.size);
+    }
+
+    /**
+     *
+     * @param index
+     * @return the value at the given row index, or nil if out of range
+     */
+    @JRubyMethod(name = {"[]", "at"}, required = 1)
+    public IRubyObject op_aref(IRubyObject index) {
+        int i = RubyNumeric.fix2int(index);
+        if (i < 0) {
+            i += storage.size;
+        }
+        if (i < 0 || i >= storage.size) {
+            return getRuntime().getNil();
+        }
+        return storage.get(getRuntime(), i);
+    }
+
+    /**
+     *
+     * @return the values of the column
+     */
+    @JRubyMethod(name = {"to_a", "to_ary"})
+    public IRubyObject to_a() {
+        Ruby runtime = getRuntime();
+        RubyArray values = runtime.newArray(storage.size);
+        for (int i = 0; i < storage.size; i++) {
+            values.append(storage.get(runtime, i));
+        }
+        return values;
+    }
+
+    /**
+     *
+     * @param context
+     * @param block
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject each(ThreadContext context, Block block) {
+        Ruby runtime = getRuntime();
+        if (!block.isGiven()) {
+            return RubyEnumerator.enumeratorize(runtime, this, "each");
+        }
+        for (int i = 0; i < storage.size; i++) {
+            block.yield(context, storage.get(runtime, i));
+        }
+        return this;
+    }
+
+    /**
+     * @{@inheritDoc}
+     */
+    @JRubyMethod
+    @Override
+    public IRubyObject inspect() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#<").append(getMetaClass().getRealClass().getName());
+        sb.append(" name=").append(name.inspect().asJavaString());
+        sb.append(", storage=").append(storage.kind());
+        sb.append(", size=").append(storage.size);
+        sb.append(">");
+        return getRuntime().newString(sb.toString());
+    }
+
+}
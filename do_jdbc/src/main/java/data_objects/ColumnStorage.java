@@ -0,0 +1,371 @@
+package data_objects;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jruby.Ruby;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyString;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.ColumnDecoder;
+import data_objects.drivers.DeferredColumnDecoder;
+import data_objects.drivers.DoubleColumnDecoder;
+import data_objects.drivers.LongColumnDecoder;
+
+/**
+ * The values of one result column, stored column-wise.
+ *
+ * Integer and float columns keep their values in primitive arrays with a
+ * bitmap of nulls, string columns keep a dictionary of distinct values and
+ * one code per row. Whenever a value does not fit the storage (say, a Bignum
+ * in an integer column, or too many distinct strings) the column falls back
+ * to storing Ruby objects.
+ *
+ * Values read straight from the result set (see #read) skip the Ruby
+ * object where the storage does not need one.
+ */
+abstract class ColumnStorage {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Number of distinct strings after which a dictionary is only kept if it
+     * is at most half the size of the column.
+     */
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    int size;
+
+    /**
+     *
+     * @param type the Ruby type of the column
+     * @return empty storage suitable for the given type
+     */
+    static ColumnStorage forType(RubyType type) {
+        switch (type) {
+        case FIXNUM:
+        case INTEGER:
+        case BIGNUM:
+            return new LongStorage();
+        case FLOAT:
+            return new DoubleStorage();
+        case STRING:
+            return new DictionaryStorage();
+        default:
+            return new ObjectStorage(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Appends a value.
+     *
+     * @param runtime
+     * @param value
+     * @return this storage, or the storage that replaces it
+     */
+    abstract ColumnStorage add(Ruby runtime, IRubyObject value);
+
+    /**
+     * Appends the value of a column of the current row.
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @param decoder the decoder of the column
+     * @return this storage, or the storage that replaces it
+     * @throws SQLException
+     * @throws IOException
+     */
+    ColumnStorage read(Ruby runtime, ResultSet rs, int col, ColumnDecoder decoder)
+            throws SQLException, IOException {
+        return add(runtime, decoder.decode(runtime, rs, col));
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param index between 0 and size - 1
+     * @return
+     */
+    abstract IRubyObject get(Ruby runtime, int index);
+
+    /**
+     *
+     * @return a short description of the storage, as a symbol name
+     */
+    abstract String kind();
+
+    /**
+     * Copies all values into object storage, for a value this storage can
+     * not hold.
+     *
+     * @param runtime
+     * @param value the value to append after the copied ones
+     * @return
+     */
+    ColumnStorage fallBack(Ruby runtime, IRubyObject value) {
+        ObjectStorage objects = new ObjectStorage(Math.max(size * 2, INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            objects.add(runtime, get(runtime, i));
+        }
+        return objects.add(runtime, value);
+    }
+
+    /**
+     *
+     * @param length the current capacity
+     * @param index the index that has to fit
+     * @return the new capacity
+     */
+    static int grow(int length, int index) {
+        return Math.max(length + (length >> 1) + 1, index + 1);
+    }
+
+    static final class LongStorage extends ColumnStorage {
+
+        private long[] values = new long[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        ColumnStorage add(Ruby runtime, IRubyObject value) {
+            if (value.isNil()) {
+                nulls.set(size++);
+            } else if (value instanceof RubyFixnum) {
+                append(((RubyFixnum) value).getLongValue());
+            } else {
+                return fallBack(runtime, value);
+            }
+            return this;
+        }
+
+        @Override
+        ColumnStorage read(Ruby runtime, ResultSet rs, int col, ColumnDecoder decoder)
+                throws SQLException, IOException {
+            if (!(decoder instanceof LongColumnDecoder)) {
+                return super.read(runtime, rs, col, decoder);
+            }
+            long value;
+            try {
+                value = rs.getLong(col);
+            } catch (SQLException sqle) {
+                // too large for a long, the decoder makes it a Bignum
+                return super.read(runtime, rs, col, decoder);
+            }
+            if (rs.wasNull()) {
+                nulls.set(size++);
+            } else {
+                append(value);
+            }
+            return this;
+        }
+
+        private void append(long value) {
+            if (size >= values.length) {
+                long[] grown = new long[grow(values.length, size)];
+                System.arraycopy(values, 0, grown, 0, values.length);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        IRubyObject get(Ruby runtime, int index) {
+            if (nulls.get(index)) {
+                return runtime.getNil();
+            }
+            return RubyFixnum.newFixnum(runtime, values[index]);
+        }
+
+        String kind() {
+            return "long";
+        }
+
+    }
+
+    static final class DoubleStorage extends ColumnStorage {
+
+        private double[] values = new double[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        ColumnStorage add(Ruby runtime, IRubyObject value) {
+            if (value.isNil()) {
+                nulls.set(size++);
+            } else if (value instanceof RubyFloat) {
+                append(((RubyFloat) value).getDoubleValue());
+            } else {
+                return fallBack(runtime, value);
+            }
+            return this;
+        }
+
+        @Override
+        ColumnStorage read(Ruby runtime, ResultSet rs, int col, ColumnDecoder decoder)
+                throws SQLException, IOException {
+            if (!(decoder instanceof DoubleColumnDecoder)) {
+                return super.read(runtime, rs, col, decoder);
+            }
+            double value = rs.getDouble(col);
+            if (rs.wasNull()) {
+                nulls.set(size++);
+            } else {
+                append(value);
+            }
+            return this;
+        }
+
+        private void append(double value) {
+            if (size >= values.length) {
+                double[] grown = new double[grow(values.length, size)];
+                System.arraycopy(values, 0, grown, 0, values.length);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        IRubyObject get(Ruby runtime, int index) {
+            if (nulls.get(index)) {
+                return runtime.getNil();
+            }
+            return RubyFloat.newFloat(runtime, values[index]);
+        }
+
+        String kind() {
+            return "double";
+        }
+
+    }
+
+    /**
+     * Strings are kept once per distinct value; the values handed out are
+     * frozen, as they are shared by all rows with the same value.
+     *
+     * Values read with a deferred decoder are looked up by their JDBC value,
+     * so that only the first occurrence of a string is converted.
+     */
+    static final class DictionaryStorage extends ColumnStorage {
+
+        private static final int NULL_CODE = -1;
+
+        private int[] codes = new int[INITIAL_CAPACITY];
+        private final Map<Object, Integer> codesByValue = new HashMap<Object, Integer>();
+        private RubyString[] dictionary = new RubyString[INITIAL_CAPACITY];
+
+        ColumnStorage add(Ruby runtime, IRubyObject value) {
+            if (value.isNil()) {
+                append(NULL_CODE);
+            } else if (value instanceof RubyString) {
+                Integer known = codesByValue.get(value);
+                if (known != null) {
+                    append(known.intValue());
+                } else if (!define(value, (RubyString) value)) {
+                    return fallBack(runtime, value);
+                }
+            } else {
+                return fallBack(runtime, value);
+            }
+            return this;
+        }
+
+        @Override
+        ColumnStorage read(Ruby runtime, ResultSet rs, int col, ColumnDecoder decoder)
+                throws SQLException, IOException {
+            if (!(decoder instanceof DeferredColumnDecoder)) {
+                return super.read(runtime, rs, col, decoder);
+            }
+            Object fetched = ((DeferredColumnDecoder) decoder).fetch(rs, col);
+            if (fetched == null) {
+                append(NULL_CODE);
+                return this;
+            }
+            Integer known = codesByValue.get(fetched);
+            if (known != null) {
+                append(known.intValue());
+                return this;
+            }
+            IRubyObject value = ((DeferredColumnDecoder) decoder).convert(runtime, fetched);
+            if (!(value instanceof RubyString) || !define(fetched, (RubyString) value)) {
+                return fallBack(runtime, value);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a new value to the dictionary and appends its code.
+         *
+         * @param key what the value is looked up by
+         * @param value
+         * @return false if the dictionary is too large to grow
+         */
+        private boolean define(Object key, RubyString value) {
+            int code = codesByValue.size();
+            if (code >= MAX_DICTIONARY_SIZE && code > size / 2) {
+                return false;
+            }
+            value.setFrozen(true);
+            if (code == dictionary.length) {
+                RubyString[] grown = new RubyString[grow(dictionary.length, code)];
+                System.arraycopy(dictionary, 0, grown, 0, dictionary.length);
+                dictionary = grown;
+            }
+            dictionary[code] = value;
+            codesByValue.put(key, Integer.valueOf(code));
+            append(code);
+            return true;
+        }
+
+        private void append(int code) {
+            if (size == codes.length) {
+                int[] grown = new int[grow(codes.length, size)];
+                System.arraycopy(codes, 0, grown, 0, codes.length);
+                codes = grown;
+            }
+            codes[size++] = code;
+        }
+
+        IRubyObject get(Ruby runtime, int index) {
+            int code = codes[index];
+            if (code == NULL_CODE) {
+                return runtime.getNil();
+            }
+            return dictionary[code];
+        }
+
+        String kind() {
+            return "dictionary";
+        }
+
+    }
+
+    static final class ObjectStorage extends ColumnStorage {
+
+        private IRubyObject[] values;
+
+        ObjectStorage(int capacity) {
+            values = new IRubyObject[capacity];
+        }
+
+        ColumnStorage add(Ruby runtime, IRubyObject value) {
+            if (size == values.length) {
+                IRubyObject[] grown = new IRubyObject[grow(values.length, size)];
+                System.arraycopy(values, 0, grown, 0, values.length);
+                values = grown;
+            }
+            values[size++] = value;
+            return this;
+        }
+
+        IRubyObject get(Ruby runtime, int index) {
+            return values[index];
+        }
+
+        String kind() {
+            return "object";
+        }
+
+    }
+
+}
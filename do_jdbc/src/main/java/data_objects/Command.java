@@ -2,14 +2,20 @@ package data_objects;
 
 import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
 
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +25,7 @@ import org.jruby.RubyClass;
 import org.jruby.RubyModule;
 import org.jruby.RubyNumeric;
 import org.jruby.RubyRange;
+import org.jruby.RubyThread;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.exceptions.RaiseException;
@@ -27,9 +34,12 @@ import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.builtin.IRubyObject;
 
+import data_objects.drivers.BindPlan;
+import data_objects.drivers.ColumnDecoder;
 import data_objects.drivers.DriverDefinition;
 import data_objects.errors.Errors;
 import data_objects.util.JDBCUtil;
+import data_objects.util.SqlTemplate;
 
 
 /**
@@ -46,6 +56,20 @@ public class Command extends DORubyObject {
 
     private List<RubyType> fieldTypes;
 
+    // null and 0 mean the defaults of the connection
+    private Boolean streamResults;
+    private int fetchSize;
+    private Boolean lazyRows;
+    // -1 means the default of the connection
+    private int timeout = -1;
+
+    // statements whose result set holds the keys of all affected rows
+    private static final Pattern RETURNING = Pattern.compile(
+            "\\bRETURNING\\b|\\bOUTPUT\\s+INSERTED\\.", Pattern.CASE_INSENSITIVE);
+
+    // the executions in progress, for #cancel
+    private final List<RunningExecution> running = new CopyOnWriteArrayList<RunningExecution>();
+
     private final static ObjectAllocator COMMAND_ALLOCATOR = new ObjectAllocator() {
         public IRubyObject allocate(Ruby runtime, RubyClass klass) {
             return new Command(runtime, klass);
@@ -78,7 +102,7 @@ public class Command extends DORubyObject {
      * @param runtime
      * @param klass
      */
-    private Command(Ruby runtime, RubyClass klass) {
+    Command(Ruby runtime, RubyClass klass) {
         super(runtime, klass);
     }
 
@@ -96,19 +120,26 @@ public class Command extends DORubyObject {
         Ruby runtime = getRuntime();
         Connection connection_instance = (Connection) api.getInstanceVariable(this,
                 "@connection");
-        checkConnectionNotClosed(connection_instance);
+        connection_instance.beforeStatement();
         java.sql.Connection conn = connection_instance.getInternalConnection();
 
         IRubyObject insert_key = runtime.getNil();
+        RubyArray insertIds = runtime.newArray();
         RubyClass resultClass = Result.createResultClass(runtime, driver);
-        // affectedCount == 1 means 1 updated row
-        // or 1 row in result set that represents returned key (insert...returning),
-        // other values represents number of updated rows
+        // the update count, or the number of rows an INSERT ... RETURNING
+        // returned, or 1 for a single key the driver looked up
         int affectedCount = 0;
         PreparedStatement sqlStatement = null;
+        StatementCache statementCache = getStatementCache(connection_instance);
+        // a statement is only returned to the cache after a successful execution
+        boolean reusable = false;
         // if usePreparedStatement returns false
         Statement sqlSimpleStatement = null;
         java.sql.ResultSet keys = null;
+        // whether keys holds one key per affected row, rather than a single
+        // key
+        boolean keySet = false;
+        boolean hasResult = false;
 
         // String sqlText = prepareSqlTextForPs(api.getInstanceVariable(recv,
         // "@text").asJavaString(), recv, args);
@@ -124,37 +155,38 @@ public class Command extends DORubyObject {
 
         try {
             if (usePS) {
-                if (driver.supportsConnectionPrepareStatementMethodWithGKFlag()) {
-                    sqlStatement = conn.prepareStatement(sqlText,
-                    driver.supportsJdbcGeneratedKeys() ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
-                } else {
-                    // If java.sql.PreparedStatement#getGeneratedKeys() is not supported,
-                    // then it is important to call java.sql.Connection#prepareStatement(String)
-                    // -- with just a single parameter -- rather java.sql.Connection#
-                    // prepareStatement(String, int) (and passing in Statement.NO_GENERATED_KEYS).
-                    // Some less-than-complete JDBC drivers do not implement all of
-                    // the overloaded prepareStatement methods: the main culprit
-                    // being SQLiteJDBC which currently throws an ugly (and cryptic)
-                    // "NYI" SQLException if Connection#prepareStatement(String, int)
-                    // is called.
-                    sqlStatement = conn.prepareStatement(sqlText);
-                }
+                sqlStatement = statementCache.checkout(conn,
+                        StatementCache.Key.forUpdate(sqlText, autoGeneratedKeysFlag()));
 
-                hasReturnParam = prepareStatementFromArgs(sqlText, sqlStatement, args);
+                hasReturnParam = prepareStatementFromArgs(sqlText, sqlStatement,
+                        statementCache.getBindPlan(sqlText), args);
             } else {
                 sqlSimpleStatement = conn.createStatement();
             }
 
             long startTime = System.currentTimeMillis();
             if (usePS) {
-                boolean hasResult = sqlStatement.execute();
+                final PreparedStatement ps = sqlStatement;
+                hasResult = executeCancellable(connection_instance, ps,
+                        new Execution<Boolean>() {
+                            public Boolean execute() throws SQLException {
+                                return Boolean.valueOf(ps.execute());
+                            }
+                        }).booleanValue();
                 if (hasResult) {
                     keys = sqlStatement.getResultSet();
+                    keySet = RETURNING.matcher(sqlText).find();
                 } else {
                     affectedCount = sqlStatement.getUpdateCount();
                 }
             } else {
-                sqlSimpleStatement.execute(sqlText);
+                final Statement st = sqlSimpleStatement;
+                final String sql = sqlText;
+                executeCancellable(connection_instance, st, new Execution<Boolean>() {
+                    public Boolean execute() throws SQLException {
+                        return Boolean.valueOf(st.execute(sql));
+                    }
+                });
             }
             long endTime = System.currentTimeMillis();
 
@@ -184,10 +216,16 @@ public class Command extends DORubyObject {
                     // apparently the prepared statements always provide the
                     // generated keys
                     keys = sqlStatement.getGeneratedKeys();
+                    keySet = true;
 
                 } else if (hasReturnParam) {
                     // Used in Oracle for INSERT ... RETURNING ... INTO ... statements
-                    insert_key = runtime.newFixnum(driver.getPreparedStatementReturnParam(sqlStatement));
+                    keys = driver.getPreparedStatementReturnResultSet(sqlStatement);
+                    keySet = true;
+                    if (keys == null) {
+                        insert_key = runtime.newFixnum(driver.getPreparedStatementReturnParam(sqlStatement));
+                        insertIds.append(insert_key);
+                    }
                 } else {
                     // If there is no support, then a custom method can be defined
                     // to return a ResultSet with keys
@@ -197,17 +235,37 @@ public class Command extends DORubyObject {
                         keys = driver.getGeneratedKeys(conn, sqlStatement, sqlText);
                 }
             }
-            if (usePS && keys != null) {
+            if (usePS && keys != null && keySet) {
+                unmarshal_id_results(keys, insertIds);
+                keys = null;
+                if (hasResult) {
+                    // there is no update count, one row was returned per
+                    // affected row
+                    affectedCount = insertIds.getLength();
+                }
+                if (insertIds.getLength() > 0) {
+                    // the first key, like LAST_INSERT_ID() after a multi-row INSERT
+                    insert_key = insertIds.eltInternal(0);
+                }
+            } else if (usePS && keys != null) {
+                // a key the driver looked up, or whatever other result the
+                // statement returned: only its first value is a key
                 insert_key = unmarshal_id_result(keys);
-                if (insert_key != runtime.getNil())
+                keys = null;
+                if (!insert_key.isNil()) {
+                    insertIds.append(insert_key);
                     affectedCount = (affectedCount > 0) ? affectedCount : 1;
+                }
             }
 
+            // statements with a registered return parameter are not reused
+            reusable = !hasReturnParam;
         } catch (SQLException sqle) {
             throw Errors.newQueryError(runtime, driver, sqle, usePS ? sqlStatement : sqlSimpleStatement);
         } finally {
             if (usePS) {
-                JDBCUtil.close(keys,sqlStatement);
+                JDBCUtil.close(keys);
+                statementCache.release(sqlStatement, reusable);
             } else {
                 JDBCUtil.close(keys,sqlSimpleStatement);
             }
@@ -218,8 +276,10 @@ public class Command extends DORubyObject {
 
         IRubyObject affected_rows = runtime.newFixnum(affectedCount);
 
-        return api.callMethod(resultClass, "new",
+        IRubyObject result = api.callMethod(resultClass, "new",
                 new IRubyObject[] {this, affected_rows, insert_key });
+        api.setInstanceVariable(result, "@insert_ids", insertIds);
+        return result;
     }
 
     /**
@@ -232,12 +292,12 @@ public class Command extends DORubyObject {
         Ruby runtime = getRuntime();
         Connection connection_instance = (Connection) api.getInstanceVariable(this,
                 "@connection");
-        checkConnectionNotClosed(connection_instance);
+        connection_instance.beforeStatement();
 
         java.sql.Connection conn = connection_instance.getInternalConnection();
+        StatementCache statementCache = getStatementCache(connection_instance);
 
         RubyClass readerClass = Reader.createReaderClass(runtime, driver);
-        boolean inferTypes = false;
         int columnCount = 0;
         PreparedStatement sqlStatement = null;
         ResultSet resultSet = null;
@@ -253,70 +313,84 @@ public class Command extends DORubyObject {
                     api.getInstanceVariable(this, "@text")).getUnicodeValue();
             String sqlText = prepareSqlTextForPs(doSqlText, args);
 
-            sqlStatement = conn.prepareStatement(
-                           sqlText,
-                           driver.supportsJdbcScrollableResultSets() ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
-                           ResultSet.CONCUR_READ_ONLY);
+            boolean streaming = (streamResults != null) ? streamResults.booleanValue()
+                    : connection_instance.isStreamResults();
+            if (streaming) {
+                int rows = (fetchSize > 0) ? fetchSize : connection_instance.getFetchSize();
+                SessionState session = connection_instance.getSessionState();
+                if (driver.requiresTransactionForStreaming() && session.getAutoCommit()) {
+                    // the reader turns autocommit back on when it is closed
+                    reader.autoCommitToken = session.beginStreaming();
+                    reader.autoCommitSession = session;
+                }
+                sqlStatement = statementCache.checkout(conn,
+                        StatementCache.Key.forStreamingQuery(sqlText, rows));
+                driver.setStreamingFetchSize(sqlStatement, rows);
+            } else {
+                sqlStatement = statementCache.checkout(conn, StatementCache.Key.forQuery(
+                               sqlText,
+                               driver.supportsJdbcScrollableResultSets() ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY));
+            }
 
-            prepareStatementFromArgs(sqlText, sqlStatement, args);
+            prepareStatementFromArgs(sqlText, sqlStatement,
+                    statementCache.getBindPlan(sqlText), args);
 
             long startTime = System.currentTimeMillis();
-            resultSet = sqlStatement.executeQuery();
+            final PreparedStatement ps = sqlStatement;
+            resultSet = executeCancellable(connection_instance, ps,
+                    new Execution<ResultSet>() {
+                        public ResultSet execute() throws SQLException {
+                            return ps.executeQuery();
+                        }
+                    });
             long endTime = System.currentTimeMillis();
  
             if (isDebug()) {
                  debug(driver.statementToString(sqlStatement), Long.valueOf(endTime - startTime));
             }
 
+            // describe the columns, unless there is a plan from an earlier
+            // execution of the same statement
             metaData = resultSet.getMetaData();
-            columnCount = metaData.getColumnCount();
-
-            // reduce columnCount by 1 if RAW_RNUM_ is present as last column
-            // (generated by DataMapper Oracle adapter to simulate LIMIT and OFFSET)
-            if (metaData.getColumnName(columnCount).equals("RAW_RNUM_"))
-                columnCount--;
+            ResultPlan plan = statementCache.getResultPlan(sqlText);
+            if (plan == null || !plan.matches(metaData)) {
+                plan = ResultPlan.describe(driver, metaData);
+                statementCache.putResultPlan(sqlText, plan);
+            }
+            columnCount = plan.fieldCount;
 
             // pass the response to the Reader
             reader.resultSet = resultSet;
 
-            // pass reference to the Statement object and close it later in the Reader
+            // pass reference to the Statement object and release it later in the Reader
             reader.statement = sqlStatement;
+            reader.statementCache = statementCache;
+            reader.lazyRows = (lazyRows != null) ? lazyRows.booleanValue()
+                    : connection_instance.isLazyRows();
 
             // save the field count in Reader
             reader.fieldCount = columnCount;
 
-            // get the field types
-            List<String> fieldNames = new ArrayList<String>(columnCount);
-
-            // If no types are passed in, infer them
-            if (fieldTypes == null || fieldTypes.isEmpty()) {
-                fieldTypes = new ArrayList<RubyType>();
-                inferTypes = true;
-            } else if (fieldTypes.size() != columnCount) {
+            // If no types are passed in, use the inferred ones
+            List<RubyType> types = fieldTypes;
+            ColumnDecoder[] decoders;
+            if (types == null || types.isEmpty()) {
+                types = plan.fieldTypes;
+                decoders = plan.decoders;
+            } else if (types.size() != columnCount) {
                 // Wrong number of fields passed to set_types. Close the reader
                 // and raise an error.
                 api.callMethod(reader, "close");
                 throw runtime.newArgumentError(String.format("Field-count mismatch. Expected %1$d fields, but the query yielded %2$d",
-                        fieldTypes.size(), columnCount));
-            }
-
-            // for each field
-            for (int i = 0; i < columnCount; i++) {
-                int col = i + 1;
-                // downcase the field name
-                fieldNames.add(metaData.getColumnLabel(col));
-
-                if (inferTypes) {
-                    // infer the type if no types passed
-                    fieldTypes.add(
-                            driver.jdbcTypeToRubyType(metaData.getColumnType(col),
-                            metaData.getPrecision(col), metaData.getScale(col)));
-                }
+                        types.size(), columnCount));
+            } else {
+                decoders = plan.decodersFor(driver, types);
             }
 
-            // set the reader field names and types (guessed or otherwise)
-            reader.fieldNames = fieldNames;
-            reader.fieldTypes = fieldTypes;
+            // set the reader field names, types (guessed or otherwise) and decoders
+            reader.fieldNames = plan.fieldNames;
+            reader.fieldTypes = types;
+            reader.decoders = decoders;
 
         } catch (SQLException sqle) {
             // XXX sqlite3 jdbc driver happily throws an exception if the result set is empty :P
@@ -326,8 +400,9 @@ public class Command extends DORubyObject {
                 // pass the response to the Reader
                 reader.resultSet = resultSet;
 
-                // pass reference to the Statement object and close it later in the Reader
+                // pass reference to the Statement object and release it later in the Reader
                 reader.statement = sqlStatement;
+                reader.statementCache = statementCache;
 
                 // get the field types
                 List<String> fieldNames = new ArrayList<String>();
@@ -354,13 +429,258 @@ public class Command extends DORubyObject {
             }
 
             api.callMethod(reader, "close");
+            if (reader.statement == null) {
+                // the statement never made it to the reader
+                statementCache.release(sqlStatement, false);
+            }
             throw Errors.newQueryError(runtime, driver, sqle, sqlStatement);
+        } catch (RaiseException re) {
+            // cancelled or timed out, or interrupted by Thread#raise
+            api.callMethod(reader, "close");
+            if (reader.statement == null) {
+                statementCache.release(sqlStatement, false);
+            }
+            throw re;
         }
 
         // return the reader
         return reader;
     }
 
+    /**
+     * Executes this command once for every row of arguments, sending the rows
+     * to the database in batches.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param args an Array of argument Arrays, and optionally the number of
+     * rows to send per batch
+     * @return a Result whose update_counts and insert_ids hold the values of
+     * all rows; insert_ids is empty unless the driver reports one generated
+     * key per batched row
+     */
+    @JRubyMethod(required = 1, optional = 1)
+    public IRubyObject execute_batch(IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                "@connection");
+        connection_instance.beforeStatement();
+        java.sql.Connection conn = connection_instance.getInternalConnection();
+
+        RubyArray rows = args[0].convertToArray();
+        int batchSize = connection_instance.getBatchSize();
+        if (args.length > 1 && !args[1].isNil()) {
+            batchSize = RubyNumeric.fix2int(args[1]);
+            if (batchSize < 1) {
+                throw runtime.newArgumentError("Invalid batch size: " + batchSize);
+            }
+        }
+
+        RubyArray updateCounts = runtime.newArray(rows.getLength());
+        RubyArray insertIds = runtime.newArray();
+        long affectedCount = 0;
+
+        String sqlText = api.convertToRubyString(
+                api.getInstanceVariable(this, "@text")).getUnicodeValue();
+        if (rows.getLength() > 0 && driver.isReturningStatement(sqlText)) {
+            return executeReturningBatch(connection_instance, sqlText, rows, batchSize);
+        }
+        StatementCache statementCache = getStatementCache(connection_instance);
+        PreparedStatement sqlStatement = null;
+        boolean reusable = false;
+
+        try {
+            if (rows.getLength() > 0) {
+                sqlStatement = statementCache.checkout(conn,
+                        StatementCache.Key.forUpdate(sqlText, autoGeneratedKeysFlag()));
+                BindPlan plan = statementCache.getBindPlan(sqlText);
+                int psCount = plan.getParameterCount(sqlStatement);
+                int batched = 0;
+
+                for (int i = 0; i < rows.getLength(); i++) {
+                    RubyArray row = rows.eltInternal(i).convertToArray();
+                    if (psCount != BindPlan.UNKNOWN_COUNT && row.getLength() != psCount) {
+                        throw runtime.newArgumentError(
+                                "Binding mismatch: " + row.getLength() + " for " + psCount);
+                    }
+                    for (int j = 0; j < row.getLength(); j++) {
+                        IRubyObject arg = row.eltInternal(j);
+                        if (arg instanceof RubyArray || arg instanceof RubyRange) {
+                            throw runtime.newArgumentError(
+                                    "Arrays and Ranges can not be bound in a batch");
+                        }
+                        driver.setPreparedStatementParam(sqlStatement, arg, j + 1, plan);
+                    }
+                    sqlStatement.addBatch();
+
+                    if (++batched == batchSize || i == rows.getLength() - 1) {
+                        long startTime = System.currentTimeMillis();
+                        final PreparedStatement ps = sqlStatement;
+                        int[] counts = executeCancellable(connection_instance, ps,
+                                new Execution<int[]>() {
+                                    public int[] execute() throws SQLException {
+                                        return ps.executeBatch();
+                                    }
+                                });
+                        long endTime = System.currentTimeMillis();
+
+                        if (isDebug()) {
+                            debug(sqlText + " (batch of " + batched + ")",
+                                  Long.valueOf(endTime - startTime));
+                        }
+
+                        for (int count : counts) {
+                            // Statement.SUCCESS_NO_INFO: the row count is unknown
+                            if (count >= 0) {
+                                affectedCount += count;
+                                updateCounts.append(runtime.newFixnum(count));
+                            } else {
+                                updateCounts.append(runtime.getNil());
+                            }
+                        }
+                        // only where the driver hands out one key per row,
+                        // otherwise insert_ids stays empty
+                        if (driver.supportsJdbcGeneratedKeys()
+                                && driver.supportsBatchGeneratedKeys()) {
+                            unmarshal_id_results(sqlStatement.getGeneratedKeys(), insertIds);
+                        }
+                        batched = 0;
+                    }
+                }
+                reusable = true;
+            }
+        } catch (SQLException sqle) {
+            throw Errors.newQueryError(runtime, driver, sqle, sqlStatement);
+        } finally {
+            statementCache.release(sqlStatement, reusable);
+        }
+
+        return newBatchResult(affectedCount, updateCounts, insertIds);
+    }
+
+    /**
+     * Executes a batch of a statement with a RETURNING ... INTO ... output
+     * parameter, which JDBC batches do not support: in a single round trip
+     * per batch if the driver can bind the rows as arrays, otherwise row by
+     * row.
+     *
+     * @param connection_instance
+     * @param sqlText
+     * @param rows
+     * @param batchSize
+     * @return
+     */
+    private IRubyObject executeReturningBatch(Connection connection_instance,
+            String sqlText, RubyArray rows, int batchSize) {
+        Ruby runtime = getRuntime();
+        java.sql.Connection conn = connection_instance.getInternalConnection();
+        RubyArray updateCounts = runtime.newArray(rows.getLength());
+        RubyArray insertIds = runtime.newArray();
+        long affectedCount = 0;
+
+        for (int from = 0; from < rows.getLength(); from += batchSize) {
+            int to = Math.min(from + batchSize, rows.getLength());
+            List<IRubyObject[]> batch = new ArrayList<IRubyObject[]>(to - from);
+            for (int i = from; i < to; i++) {
+                batch.add(rows.eltInternal(i).convertToArray().toJavaArray());
+            }
+
+            PreparedStatement sqlStatement = null;
+            try {
+                sqlStatement = driver.prepareReturningBatch(conn, sqlText, batch);
+                if (sqlStatement == null) {
+                    for (IRubyObject[] row : batch) {
+                        IRubyObject result = api.callMethod(this, "execute_non_query", row);
+                        IRubyObject count = api.callMethod(result, "affected_rows");
+                        affectedCount += RubyNumeric.num2long(count);
+                        updateCounts.append(count);
+                        insertIds.append(api.callMethod(result, "insert_id"));
+                    }
+                    continue;
+                }
+
+                long startTime = System.currentTimeMillis();
+                final PreparedStatement ps = sqlStatement;
+                executeCancellable(connection_instance, ps, new Execution<Boolean>() {
+                    public Boolean execute() throws SQLException {
+                        return Boolean.valueOf(ps.execute());
+                    }
+                });
+                long endTime = System.currentTimeMillis();
+
+                if (isDebug()) {
+                    debug(sqlText + " (batch of " + batch.size() + ")",
+                          Long.valueOf(endTime - startTime));
+                }
+
+                ResultSet values = driver.getReturningBatchValues(sqlStatement);
+                int returned = insertIds.getLength();
+                if (values != null) {
+                    unmarshal_id_results(values, insertIds, values.getMetaData().getColumnCount());
+                }
+                returned = insertIds.getLength() - returned;
+                affectedCount += returned;
+                for (int i = 0; i < batch.size(); i++) {
+                    // one row is inserted per row of arguments, unless the
+                    // database did not report them all
+                    updateCounts.append(returned == batch.size()
+                            ? runtime.newFixnum(1) : runtime.getNil());
+                }
+            } catch (SQLException sqle) {
+                throw Errors.newQueryError(runtime, driver, sqle, sqlStatement);
+            } finally {
+                JDBCUtil.close(sqlStatement);
+            }
+        }
+        return newBatchResult(affectedCount, updateCounts, insertIds);
+    }
+
+    /**
+     *
+     * @param affectedCount
+     * @param updateCounts
+     * @param insertIds
+     * @return a Result whose insert_id is the last of the insert_ids
+     */
+    private IRubyObject newBatchResult(long affectedCount, RubyArray updateCounts,
+            RubyArray insertIds) {
+        Ruby runtime = getRuntime();
+        RubyClass resultClass = Result.createResultClass(runtime, driver);
+        IRubyObject insert_key = insertIds.getLength() > 0
+                ? insertIds.eltInternal(insertIds.getLength() - 1) : runtime.getNil();
+        IRubyObject result = api.callMethod(resultClass, "new",
+                new IRubyObject[] {this, runtime.newFixnum(affectedCount), insert_key });
+        api.setInstanceVariable(result, "@update_counts", updateCounts);
+        api.setInstanceVariable(result, "@insert_ids", insertIds);
+        return result;
+    }
+
+    /**
+     * Runs execute_non_query in the background.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param args
+     * @return a Future for the Result
+     */
+    @JRubyMethod(optional = 1, rest = true)
+    public IRubyObject execute_non_query_async(IRubyObject[] args) {
+        return submit("execute_non_query", args);
+    }
+
+    /**
+     * Runs execute_reader in the background.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param args
+     * @return a Future for the Reader
+     */
+    @JRubyMethod(optional = 1, rest = true)
+    public IRubyObject execute_reader_async(IRubyObject[] args) {
+        return submit("execute_reader", args);
+    }
+
     /**
      *
      * @param args
@@ -391,31 +711,298 @@ public class Command extends DORubyObject {
         return types;
     }
 
-    // ---------------------------------------------------------- HELPER METHODS
+    /**
+     * Whether readers of this command stream their results instead of
+     * reading them into memory at once.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param value true, false, or nil for the default of the connection
+     * @return
+     */
+    @JRubyMethod(name = "stream_results=", required = 1)
+    public IRubyObject set_stream_results(IRubyObject value) {
+        streamResults = value.isNil() ? null : Boolean.valueOf(value.isTrue());
+        return value;
+    }
 
     /**
      *
-     * @param conn
+     * @return
      */
-    private void checkConnectionNotClosed(Connection conn) {
-        try {
-            java.sql.Connection internal_connection = conn.getInternalConnection();
-            if (internal_connection == null) {
-                throw Errors.newConnectionError(getRuntime(), "This connection has already been closed.");
+    @JRubyMethod(name = "stream_results?")
+    public IRubyObject stream_results_p() {
+        Ruby runtime = getRuntime();
+        if (streamResults == null) {
+            Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                    "@connection");
+            return runtime.newBoolean(connection_instance.isStreamResults());
+        }
+        return runtime.newBoolean(streamResults.booleanValue());
+    }
+
+    /**
+     * Sets the number of rows streaming readers of this command fetch per
+     * round trip.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param value a positive Integer, or nil for the default of the
+     * connection
+     * @return
+     */
+    @JRubyMethod(name = "fetch_size=", required = 1)
+    public IRubyObject set_fetch_size(IRubyObject value) {
+        if (value.isNil()) {
+            fetchSize = 0;
+        } else {
+            int size = RubyNumeric.fix2int(value);
+            if (size < 1) {
+                throw getRuntime().newArgumentError("Invalid fetch size: " + size);
             }
-            if(internal_connection.isClosed()) {
-                /*
-                 * Try reconnecting here if the connection has failed without
-                 * us asking for it to be closed.
-                 */
-                conn.connect();
-                internal_connection = conn.getInternalConnection();
-                if (internal_connection == null || internal_connection.isClosed()) {
-                    throw Errors.newConnectionError(getRuntime(), "This connection has already been closed.");
-                }
+            fetchSize = size;
+        }
+        return value;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject fetch_size() {
+        if (fetchSize == 0) {
+            Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                    "@connection");
+            return getRuntime().newFixnum(connection_instance.getFetchSize());
+        }
+        return getRuntime().newFixnum(fetchSize);
+    }
+
+    /**
+     * Whether readers of this command yield rows which only convert their
+     * values to Ruby objects once they are read.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param value true, false, or nil for the default of the connection
+     * @return
+     */
+    @JRubyMethod(name = "lazy_rows=", required = 1)
+    public IRubyObject set_lazy_rows(IRubyObject value) {
+        lazyRows = value.isNil() ? null : Boolean.valueOf(value.isTrue());
+        return value;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod(name = "lazy_rows?")
+    public IRubyObject lazy_rows_p() {
+        Ruby runtime = getRuntime();
+        if (lazyRows == null) {
+            Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                    "@connection");
+            return runtime.newBoolean(connection_instance.isLazyRows());
+        }
+        return runtime.newBoolean(lazyRows.booleanValue());
+    }
+
+    /**
+     * Sets the number of seconds after which executions of this command are
+     * cancelled and raise a QueryCancelledError.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param value seconds, 0 for no timeout, or nil for the default of the
+     * connection
+     * @return
+     */
+    @JRubyMethod(name = "timeout=", required = 1)
+    public IRubyObject set_timeout(IRubyObject value) {
+        if (value.isNil()) {
+            timeout = -1;
+        } else {
+            int seconds = RubyNumeric.fix2int(value);
+            if (seconds < 0) {
+                throw getRuntime().newArgumentError("Invalid timeout: " + seconds);
             }
-        } catch (SQLException ignored) {
+            timeout = seconds;
         }
+        return value;
+    }
+
+    /**
+     *
+     * @return the query timeout in seconds, 0 for none
+     */
+    @JRubyMethod
+    public IRubyObject timeout() {
+        Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                "@connection");
+        return getRuntime().newFixnum(queryTimeout(connection_instance));
+    }
+
+    /**
+     * Cancels the running executions of this command, from another thread.
+     * The executions raise a QueryCancelledError.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @return whether there was an execution to cancel
+     */
+    @JRubyMethod
+    public IRubyObject cancel() {
+        boolean found = false;
+        for (RunningExecution execution : running) {
+            found = true;
+            try {
+                execution.cancel();
+            } catch (SQLException sqle) {
+                throw Errors.newSqlError(getRuntime(), driver, sqle);
+            }
+        }
+        return getRuntime().newBoolean(found);
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    /**
+     * A blocking JDBC call
+     */
+    private interface Execution<T> {
+        T execute() throws SQLException;
+    }
+
+    /**
+     * A statement being executed, and whether it was asked to stop. Each
+     * execution has its own, so that executions of the same command on
+     * several threads do not see each other's cancellation.
+     */
+    private static final class RunningExecution {
+        private final Statement statement;
+        private volatile boolean cancelled;
+
+        RunningExecution(Statement statement) {
+            this.statement = statement;
+        }
+
+        void cancel() throws SQLException {
+            cancelled = true;
+            statement.cancel();
+        }
+    }
+
+    /**
+     * Runs a JDBC call as a blocking task of the current Ruby thread, after
+     * applying the query timeout. Interrupting the thread (Thread#raise,
+     * Thread#kill, Timeout) or calling #cancel cancels the statement.
+     *
+     * @param connection_instance
+     * @param statement
+     * @param execution
+     * @return the result of the call
+     * @throws SQLException if the call failed for other reasons than a
+     * timeout or cancellation
+     */
+    private <T> T executeCancellable(Connection connection_instance,
+            final Statement statement, final Execution<T> execution) throws SQLException {
+        Ruby runtime = getRuntime();
+        int seconds = queryTimeout(connection_instance);
+        // statements are reused, so an earlier timeout must be reset
+        if (seconds > 0 || statement.getQueryTimeout() != 0) {
+            statement.setQueryTimeout(seconds);
+        }
+
+        final List<T> result = new ArrayList<T>(1);
+        final SQLException[] failure = new SQLException[1];
+        final RunningExecution current = new RunningExecution(statement);
+        running.add(current);
+        try {
+            runtime.getCurrentContext().getThread().executeBlockingTask(
+                    new RubyThread.BlockingTask() {
+                        public void run() {
+                            try {
+                                result.add(execution.execute());
+                            } catch (SQLException sqle) {
+                                failure[0] = sqle;
+                            }
+                        }
+
+                        public void wakeup() {
+                            try {
+                                current.cancel();
+                            } catch (SQLException ignored) {
+                            }
+                        }
+                    });
+        } catch (InterruptedException ie) {
+            current.cancelled = true;
+        } finally {
+            running.remove(current);
+        }
+
+        if (!result.isEmpty()) {
+            return result.get(0);
+        }
+        if (current.cancelled || failure[0] == null) {
+            throw Errors.newQueryCancelledError(runtime, driver,
+                    "The query was cancelled", failure[0], statement);
+        }
+        if (seconds > 0 && driver.isQueryTimeout(failure[0])) {
+            throw Errors.newQueryCancelledError(runtime, driver,
+                    "The query timed out after " + seconds + " seconds", failure[0], statement);
+        }
+        throw failure[0];
+    }
+
+    /**
+     *
+     * @param connection_instance
+     * @return the query timeout of this command in seconds
+     */
+    private int queryTimeout(Connection connection_instance) {
+        return (timeout >= 0) ? timeout : connection_instance.getQueryTimeout();
+    }
+
+    /**
+     * Calls the given method on the executor of the connection. Asynchronous
+     * commands of one connection run one after the other, and synchronous
+     * commands and everything else using the connection wait for them (see
+     * Connection#awaitAsyncCommands); independent queries run concurrently when
+     * they are issued on different connections.
+     *
+     * @param method
+     * @param args
+     * @return a Future for the return value of the method
+     */
+    private IRubyObject submit(final String method, IRubyObject[] args) {
+        Ruby runtime = getRuntime();
+        Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                "@connection");
+        final IRubyObject[] arguments = args.clone();
+        FutureTask<IRubyObject> task = new FutureTask<IRubyObject>(new Callable<IRubyObject>() {
+            public IRubyObject call() {
+                return api.callMethod(Command.this, method, arguments);
+            }
+        });
+        connection_instance.getAsyncExecutor().execute(task);
+
+        RubyModule driverModule = (RubyModule) runtime.getModule(DATA_OBJECTS_MODULE_NAME)
+                .getConstant(driver.getModuleName());
+        return new QueryFuture(runtime, driverModule.getClass(QueryFuture.RUBY_CLASS_NAME),
+                driver, task);
+    }
+
+    /**
+     * Returns the cache statements for this command are checked out of.
+     *
+     * @param connection
+     * @return
+     */
+    StatementCache getStatementCache(Connection connection) {
+        return connection.getStatementCache();
     }
 
     /**
@@ -430,17 +1017,101 @@ public class Command extends DORubyObject {
         try {
             if (rs.next()) {
                 if (rs.getMetaData().getColumnCount() > 0) {
-                    // TODO: Need to do check for other types here, as keys could be
-                    // of type Integer, Long or String
-                    return getRuntime().newFixnum(rs.getLong(1));
+                    return idDecoder(rs, 1).decode(getRuntime(), rs, 1);
                 }
             }
             return getRuntime().getNil();
+        } catch (IOException ioe) {
+            throw Errors.newSqlError(getRuntime(), driver, ioe.getLocalizedMessage());
+        } finally {
+            JDBCUtil.close(rs);
+        }
+    }
+
+    /**
+     * Unmarshal a java.sql.Resultset containing generated keys, appending
+     * every key to the given Ruby Array.
+     *
+     * @param rs
+     * @param ids
+     * @throws java.sql.SQLException
+     */
+    private void unmarshal_id_results(ResultSet rs, RubyArray ids) throws SQLException {
+        unmarshal_id_results(rs, ids, 1);
+    }
+
+    /**
+     *
+     * @param rs
+     * @param ids the Array to append the keys to
+     * @param column the column of the keys
+     * @throws SQLException
+     */
+    private void unmarshal_id_results(ResultSet rs, RubyArray ids, int column) throws SQLException {
+        if (rs == null) {
+            return;
+        }
+        try {
+            if (rs.getMetaData().getColumnCount() > 0) {
+                ColumnDecoder decoder = idDecoder(rs, column);
+                while (rs.next()) {
+                    ids.append(decoder.decode(getRuntime(), rs, column));
+                }
+            }
+        } catch (IOException ioe) {
+            throw Errors.newSqlError(getRuntime(), driver, ioe.getLocalizedMessage());
         } finally {
             JDBCUtil.close(rs);
         }
     }
 
+    /**
+     * Returns the decoder for the column of a result set of keys: numeric
+     * keys become Integers (Bignums if need be), all others, such as UUIDs
+     * or Oracle ROWIDs, become Strings.
+     *
+     * @param rs
+     * @param column
+     * @return
+     * @throws SQLException
+     */
+    private ColumnDecoder idDecoder(ResultSet rs, int column) throws SQLException {
+        int jdbcType = rs.getMetaData().getColumnType(column);
+        switch (jdbcType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return driver.getColumnDecoder(RubyType.INTEGER, jdbcType);
+        default:
+            return driver.getColumnDecoder(RubyType.STRING, jdbcType);
+        }
+    }
+
+    /**
+     * Returns the generated keys flag to prepare update statements with.
+     *
+     * If java.sql.PreparedStatement#getGeneratedKeys() is not supported,
+     * then it is important to call java.sql.Connection#prepareStatement(String)
+     * -- with just a single parameter -- rather java.sql.Connection#
+     * prepareStatement(String, int) (and passing in Statement.NO_GENERATED_KEYS).
+     * Some less-than-complete JDBC drivers do not implement all of
+     * the overloaded prepareStatement methods: the main culprit
+     * being SQLiteJDBC which currently throws an ugly (and cryptic)
+     * "NYI" SQLException if Connection#prepareStatement(String, int)
+     * is called.
+     *
+     * @return the flag, or StatementCache.UNSPECIFIED
+     */
+    private int autoGeneratedKeysFlag() {
+        if (!driver.supportsConnectionPrepareStatementMethodWithGKFlag()) {
+            return StatementCache.UNSPECIFIED;
+        }
+        return driver.supportsJdbcGeneratedKeys() ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS;
+    }
+
     /**
      * Assist with the formatting of SQL Text Strings for PreparedStatements.
      *
@@ -458,71 +1129,28 @@ public class Command extends DORubyObject {
      * @return a SQL Text java.lang.String formatted for preparing a PreparedStatement
      */
     private String prepareSqlTextForPs(String doSqlText, IRubyObject[] args) {
-
-        if (args.length == 0) return doSqlText;
-        // long timeStamp = System.currentTimeMillis(); // XXX for debug
-        // System.out.println(""+timeStamp+" SQL before replacements @: " + doSqlText); // XXX for debug
-        String psSqlText = doSqlText;
-        int addedSymbols=0;
-
+        int[] arities = null;
         for (int i = 0; i < args.length; i++) {
-
+            int arity;
             if (args[i] instanceof RubyArray) {
-                // replace "?" with "(?,?)"
-                // calculate replacement string, depending on the length of the
-                // RubyArray - i.e. should it be "(?)" or "(?,?,?)
-                // System.out.println(""+timeStamp+" RubyArray @: " + args[i]); // XXX for debug
-                StringBuilder replaceSb = new StringBuilder("(");
-                int arrayLength = args[i].convertToArray().getLength();
-
-                for (int j = 0; j < arrayLength; j++) {
-                    replaceSb.append("?");
-                    if (j < arrayLength - 1) replaceSb.append(",");
-                }
-                replaceSb.append(")");
-
-                Pattern pp = Pattern.compile("\\?");
-                Matcher pm = pp.matcher(psSqlText);
-                StringBuffer sb = new StringBuffer();
-
-                int count = 0;
-                lbWhile:
-                while (pm.find()) {
-                    if (count == (i+addedSymbols)){
-                        pm.appendReplacement(sb, replaceSb.toString());
-                        addedSymbols += arrayLength-1;
-                        break lbWhile;
-                    }
-                    count++;
-                }
-                pm.appendTail(sb);
-                psSqlText = sb.toString();
+                // "?" becomes "(?,?,?)", depending on the length of the RubyArray
+                arity = args[i].convertToArray().getLength();
             } else if (args[i] instanceof RubyRange) {
-                // replace "?" with "(?,?)"
-                // System.out.println(""+timeStamp+" RubyRange @: " + args[i]); // XXX for debug
-                Pattern pp = Pattern.compile("\\?");
-                Matcher pm = pp.matcher(psSqlText);
-                StringBuffer sb = new StringBuffer();
-
-                int count = 0;
-                lbWhile:
-                while (pm.find()) {
-                    if (count ==(i+addedSymbols)){
-                        pm.appendReplacement(sb, "? AND ?"); // XXX was (? AND ?)
-                        addedSymbols += 1;
-                        break lbWhile;
-                    }
-                    count++;
-                }
-                pm.appendTail(sb);
-                psSqlText = sb.toString();
+                arity = SqlTemplate.RANGE;
             } else {
-                // System.out.println(""+timeStamp+" Nothing @: " + args[i]); // XXX for debug
-                // do nothing
+                continue;
+            }
+            if (arities == null) {
+                arities = new int[args.length];
+                Arrays.fill(arities, SqlTemplate.SCALAR);
             }
+            arities[i] = arity;
         }
-        // System.out.println(""+timeStamp+" SQL after replacements @: " + psSqlText); // XXX for debug
-        return psSqlText;
+        // nothing to expand, so there is no need to parse the SQL
+        if (arities == null) return doSqlText;
+        IRubyObject connection_instance = api.getInstanceVariable(this, "@connection");
+        return SqlTemplate.compile(doSqlText, driver.usesBackslashEscapes(connection_instance))
+                .expand(arities);
     }
 
     /**
@@ -548,18 +1176,22 @@ public class Command extends DORubyObject {
      *
      * @param sqlText
      * @param ps the PreparedStatement for which parameters should be set
+     * @param plan the bind plan for the SQL text
      * @param args an array of parameter values
      *
      * @return true if there is return parameter, false if there is not
      */
     private boolean prepareStatementFromArgs(String sqlText, PreparedStatement ps,
-            IRubyObject[] args) {
+            BindPlan plan, IRubyObject[] args) {
         int index = 1;
         boolean hasReturnParam = false;
         try {
-            int psCount = ps.getParameterMetaData().getParameterCount();
+            // drivers which can not describe their parameters report
+            // mismatches themselves
+            int psCount = plan.getParameterCount(ps);
+            boolean checkCount = psCount != BindPlan.UNKNOWN_COUNT;
             // fail fast
-            if (args.length > psCount) {
+            if (checkCount && args.length > psCount) {
                 throw getRuntime().newArgumentError(
                         "Binding mismatch: " + args.length + " for " + psCount);
             }
@@ -583,7 +1215,7 @@ public class Command extends DORubyObject {
 
                     for (int j = 0; j < arrayValues.getLength(); j++) {
                         driver.setPreparedStatementParam(ps, arrayValues
-                                .eltInternal(j), index++);
+                                .eltInternal(j), index++, plan);
                     }
                 } else if (arg instanceof RubyRange) {
                     // Handle a RubyRange passed into a query
@@ -593,12 +1225,12 @@ public class Command extends DORubyObject {
 
                     RubyRange range_value = (RubyRange) arg;
 
-                    driver.setPreparedStatementParam(ps, range_value.first(getRuntime().getCurrentContext()), index++);
-                    driver.setPreparedStatementParam(ps, range_value.last(getRuntime().getCurrentContext()), index++);
+                    driver.setPreparedStatementParam(ps, range_value.first(getRuntime().getCurrentContext()), index++, plan);
+                    driver.setPreparedStatementParam(ps, range_value.last(getRuntime().getCurrentContext()), index++, plan);
 
                 } else {
                     // Otherwise, handle each argument
-                    driver.setPreparedStatementParam(ps, arg, index++);
+                    driver.setPreparedStatementParam(ps, arg, index++, plan);
                 }
             }
 
@@ -608,7 +1240,7 @@ public class Command extends DORubyObject {
                 hasReturnParam = true;
             }
 
-            if ((index - 1) < psCount) {
+            if (checkCount && (index - 1) < psCount) {
                 throw getRuntime().newArgumentError(
                         "Binding mismatch: " + (index - 1) + " for " + psCount);
             }
@@ -642,7 +1274,7 @@ public class Command extends DORubyObject {
      * @param logMessage
      * @param executionTime
      */
-    private void debug(String logMessage, Long executionTime) {
+    void debug(String logMessage, Long executionTime) {
       Ruby runtime = getRuntime();
       Connection connection_instance = (Connection) api.getInstanceVariable(this,
           "@connection");
@@ -662,7 +1294,7 @@ public class Command extends DORubyObject {
     /**
      * returns if the debug mode is turned on.
      */
-    private boolean isDebug() {
+    boolean isDebug() {
         RubyModule driverModule = (RubyModule) getRuntime().getModule(
                 DATA_OBJECTS_MODULE_NAME).getConstant(driver.getModuleName());
         IRubyObject logger = api.callMethod(driverModule, "logger");
@@ -6,23 +6,25 @@ import static data_objects.util.StringUtil.appendQuoted;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
-import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.sql.DataSource;
 
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
+import org.jruby.RubyHash;
 import org.jruby.RubyModule;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
 import org.jruby.runtime.Arity;
 import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.Visibility;
 import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.runtime.callback.Callback;
@@ -44,10 +46,63 @@ public final class Connection extends DORubyObject {
 
     private static final String UTF8_ENCODING = "UTF-8";
 
+    private static final String STATEMENT_CACHE_SIZE = "statement_cache_size";
+
+    private static final String BATCH_SIZE = "batch_size";
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String STREAM_RESULTS = "stream_results";
+
+    private static final String FETCH_SIZE = "fetch_size";
+
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final String LAZY_ROWS = "lazy_rows";
+
+    private static final String QUERY_TIMEOUT = "query_timeout";
+
+    private static final String VALIDATION_INTERVAL = "validation_interval";
+
+    /**
+     * Milliseconds a connection may be idle before it is validated before
+     * its next use
+     */
+    private static final int DEFAULT_VALIDATION_INTERVAL = 30 * 1000;
+
+    /** Seconds to wait for the validation query */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    private static final long MIN_RECONNECT_BACKOFF = 100;
+
+    private static final long MAX_RECONNECT_BACKOFF = 30 * 1000;
+
+    /** Milliseconds between checks for Thread#raise while waiting for asynchronous commands */
+    private static final long ASYNC_POLL_MILLIS = 100;
+
     private java.sql.Connection sqlConnection;
     private java.net.URI connectionUri;
     private Map<String, String> query;
     private String encoding;
+    private StatementCache statementCache;
+    private int batchSize;
+    private boolean streamResults;
+    private int fetchSize;
+    private boolean lazyRows;
+    private int queryTimeout;
+    private AsyncExecutor.SerialExecutor asyncExecutor;
+    private ConnectionPool pool;
+    private ConnectionPool.Entry pooled;
+    private ConnectionRecipe recipe;
+    private SessionState session;
+    private int validationInterval;
+    private long lastUsed;
+    private long reconnectBackoff;
+    private long nextReconnect;
+    private long validations;
+    private long validationFailures;
+    private long reconnects;
+    private long reconnectFailures;
 
     private static final ObjectAllocator CONNECTION_ALLOCATOR = new ObjectAllocator() {
 
@@ -97,8 +152,75 @@ public final class Connection extends DORubyObject {
         // System.out.println("============== initialize called " + uri);
         Ruby runtime = getRuntime();
 
+        String recipeKey = recipeKey(uri);
+        recipe = ConnectionRecipe.get(driver, recipeKey);
+        if (recipe == null) {
+            recipe = ConnectionRecipe.put(driver, createRecipe(recipeKey, uri));
+        }
+        connectionUri = recipe.connectionUri;
+        query = recipe.query;
+        encoding = recipe.getEncoding();
+
+        if (driver.supportsConnectionEncodings()) {
+            api.setInstanceVariable(this, "@encoding", runtime.newString(encoding));
+        }
+
+        statementCache = new StatementCache(intOption(STATEMENT_CACHE_SIZE,
+                driver.getDefaultStatementCacheSize()));
+        batchSize = intOption(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        if (batchSize == 0) {
+            throw runtime.newArgumentError("Invalid value for " + BATCH_SIZE + ": 0");
+        }
+        streamResults = booleanOption(STREAM_RESULTS, false);
+        fetchSize = intOption(FETCH_SIZE, DEFAULT_FETCH_SIZE);
+        if (fetchSize == 0) {
+            throw runtime.newArgumentError("Invalid value for " + FETCH_SIZE + ": 0");
+        }
+        lazyRows = booleanOption(LAZY_ROWS, false);
+        queryTimeout = intOption(QUERY_TIMEOUT, 0);
+        validationInterval = intOption(VALIDATION_INTERVAL, DEFAULT_VALIDATION_INTERVAL);
+
+        if (booleanOption(ConnectionPool.POOL, false)) {
+            pool = createPool(recipeKey);
+        }
+
+        // #to_s implemented in Ruby relies on this @uri ivar
+        api.setInstanceVariable(this, "@uri", uri);
+
+        connect();
+        return runtime.getTrue();
+    }
+
+    /**
+     *
+     * @param uri a DataObjects::URI or a String
+     * @return a String identifying the URI, including the password
+     */
+    private String recipeKey(IRubyObject uri) {
+        if (!"DataObjects::URI".equals(uri.getType().getName())) {
+            return uri.asJavaString();
+        }
+        // DataObjects::URI#to_s leaves out the password
+        IRubyObject password = api.callMethod(uri, "password");
+        return api.callMethod(uri, "to_s").asJavaString()
+                + (password.isNil() ? "" : " " + password.asJavaString());
+    }
+
+    /**
+     * Works out how to connect for a URI not seen before.
+     *
+     * @param key
+     * @param uri
+     * @return
+     */
+    private ConnectionRecipe createRecipe(String key, IRubyObject uri) {
+        Ruby runtime = getRuntime();
+        java.net.URI parsedUri;
+        Map<String, String> parsedQuery = null;
+        String parsedEncoding = null;
+
         try {
-            connectionUri = driver.parseConnectionURI(uri);
+            parsedUri = driver.parseConnectionURI(uri);
         } catch (URISyntaxException ex) {
             //XXX Nothing to close
             throw runtime.newArgumentError("Malformed URI: " + ex);
@@ -107,78 +229,113 @@ public final class Connection extends DORubyObject {
             throw runtime.newArgumentError("Unsupported Encoding in Query Parameters" + ex);
         }
 
-        if (connectionUri.getQuery() != null) {
+        if (parsedUri.getQuery() != null) {
             try {
-                query = parseQueryString(connectionUri.getQuery());
+                parsedQuery = Collections.unmodifiableMap(parseQueryString(parsedUri.getQuery()));
             } catch (UnsupportedEncodingException ex) {
                 //XXX Nothing to close
                 throw runtime.newArgumentError("Unsupported Encoding in Query Parameters" + ex);
             }
 
             if (driver.supportsConnectionEncodings()) {
-                encoding = query.get("encoding");
-                if (encoding == null) {
-                    encoding = query.get("charset");
+                parsedEncoding = parsedQuery.get("encoding");
+                if (parsedEncoding == null) {
+                    parsedEncoding = parsedQuery.get("charset");
                 }
             }
         }
 
         if (driver.supportsConnectionEncodings()) {
             // default encoding to UTF-8, if not specified
-            if (encoding == null) {
-                encoding = UTF8_ENCODING;
+            if (parsedEncoding == null) {
+                parsedEncoding = UTF8_ENCODING;
             }
-            api.setInstanceVariable(this, "@encoding", runtime.newString(encoding));
         }
 
-        // #to_s implemented in Ruby relies on this @uri ivar
-        api.setInstanceVariable(this, "@uri", uri);
+        if (parsedUri.getSchemeSpecificPart() != null && parsedUri.getScheme().equals("java")) {
+            return new ConnectionRecipe(key, parsedUri, parsedQuery, parsedEncoding, null, null);
+        }
 
-        connect();
-        return runtime.getTrue();
+        Properties props = driver.getDefaultConnectionProperties();
+
+        String jdbcUri = driver.getJdbcUri(parsedUri);
+
+        String userInfo = parsedUri.getUserInfo();
+        if (userInfo != null) {
+          if (!userInfo.contains(":")) {
+              userInfo += ":";
+          }
+          String username = userInfo.substring(0, userInfo.indexOf(":"));
+          String password = userInfo.substring(userInfo.indexOf(":") + 1);
+          props.put("user", username);
+          props.put("password", password);
+        }
+
+        if (driver.supportsConnectionEncodings()) {
+            driver.setEncodingProperty(props, parsedEncoding);
+        }
+
+        return new ConnectionRecipe(key, parsedUri, parsedQuery, parsedEncoding, jdbcUri, props);
     }
 
     public void connect() {
-        Ruby runtime = getRuntime();
+        if (pool != null) {
+            borrow();
+        } else {
+            // statements prepared on a previous physical connection are useless
+            if (statementCache != null) {
+                statementCache.clear();
+            }
+            // the connection being replaced failed validation, but may still
+            // hold a socket or server session; the reference is kept, so a
+            // failed open leaves a closed connection for the next validation
+            JDBCUtil.close(sqlConnection);
+
+            this.sqlConnection = openConnection(getRuntime(), driver, recipe, this);
+            this.session = new SessionState(sqlConnection, driver);
+        }
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens a JDBC connection, through JNDI or the DriverManager.
+     *
+     * @param runtime
+     * @param driver
+     * @param recipe
+     * @param doConn the object the driver keeps state about the connection in
+     * @return
+     */
+    private static java.sql.Connection openConnection(Ruby runtime, DriverDefinition driver,
+            ConnectionRecipe recipe, IRubyObject doConn) {
+        java.net.URI connectionUri = recipe.connectionUri;
 
         java.sql.Connection conn = null;
 
         try {
-            if (connectionUri.getSchemeSpecificPart() != null && connectionUri.getScheme().equals("java")) {
-                String jndiName = connectionUri.toString();
-
+            if (recipe.jdbcUri == null) {
                 try {
-                    InitialContext context = new InitialContext();
-                    DataSource dataSource = (DataSource) context.lookup(jndiName);
-                    conn = dataSource.getConnection();
+                    conn = recipe.getDataSource().getConnection();
                 } catch (NamingException ex) {
                     JDBCUtil.close(conn);
                     throw Errors.newConnectionError(runtime, "Can't lookup datasource: "
                                                   + connectionUri.toString() + "\n\t" + ex.getLocalizedMessage());
+                } catch (SQLException ex) {
+                    recipe.forgetDataSource();
+                    throw ex;
                 }
             } else {
-                Properties props = driver.getDefaultConnectionProperties();
-
-                String jdbcUri = driver.getJdbcUri(connectionUri);
-
-                String userInfo = connectionUri.getUserInfo();
-                if (userInfo != null) {
-                  if (!userInfo.contains(":")) {
-                      userInfo += ":";
-                  }
-                  String username = userInfo.substring(0, userInfo.indexOf(":"));
-                  String password = userInfo.substring(userInfo.indexOf(":") + 1);
-                  props.put("user", username);
-                  props.put("password", password);
-                }
+                Properties props = recipe.newProperties();
 
                 if (driver.supportsConnectionEncodings()) {
-                    // we set encoding properties, and retry on failure
-                    driver.setEncodingProperty(props, encoding);
-                    conn = driver.getConnectionWithEncoding(runtime, this, jdbcUri, props);
+                    // the driver retries with other encoding properties on failure
+                    conn = driver.getConnectionWithEncoding(runtime, doConn, recipe.jdbcUri, props);
+                    IRubyObject resolvedEncoding = driver.getObjectAdapter().getInstanceVariable(doConn, "@encoding");
+                    recipe.resolved(props, (resolvedEncoding == null || resolvedEncoding.isNil())
+                            ? recipe.getEncoding() : resolvedEncoding.asJavaString());
                 } else {
                     // if the driver does not use encoding, connect normally
-                    conn = driver.getConnection(jdbcUri, props);
+                    conn = driver.getConnection(recipe.jdbcUri, props);
                 }
             }
 
@@ -197,14 +354,216 @@ public final class Connection extends DORubyObject {
 
         // Callback for setting connection properties after connection is established
         try {
-            driver.afterConnectionCallback(this, conn, query);
+            driver.afterConnectionCallback(doConn, conn, recipe.query);
         } catch (SQLException ex) {
             JDBCUtil.close(conn);
             throw Errors.newSqlError(runtime, driver, "Connection initialization error:"
                                      + "\n\t" + ex.getLocalizedMessage());
         }
 
-        this.sqlConnection = conn;
+        return conn;
+    }
+
+    /**
+     *
+     * @param uri identifies the connection URI, and so the pool
+     * @return
+     */
+    private ConnectionPool createPool(String uri) {
+        int poolSize = intOption(ConnectionPool.POOL_SIZE, ConnectionPool.DEFAULT_SIZE);
+        if (poolSize == 0) {
+            throw getRuntime().newArgumentError("Invalid value for " + ConnectionPool.POOL_SIZE + ": 0");
+        }
+        ConnectionPool.Factory factory = new PoolFactory(getRuntime(), driver, recipe);
+        return ConnectionPool.getPool(getRuntime(), uri, factory, poolSize,
+                intOption(ConnectionPool.POOL_MIN_IDLE, 0), validationInterval,
+                intOption(ConnectionPool.POOL_IDLE_TIMEOUT, ConnectionPool.DEFAULT_IDLE_TIMEOUT),
+                intOption(ConnectionPool.POOL_MAX_LIFETIME, ConnectionPool.DEFAULT_MAX_LIFETIME),
+                intOption(ConnectionPool.POOL_CHECKOUT_TIMEOUT, 0),
+                statementCache.getMaxSize());
+    }
+
+    /**
+     * Opens the connections of a pool from the recipe of its URI, without
+     * holding on to the Connection which created the pool.
+     */
+    private static final class PoolFactory implements ConnectionPool.Factory {
+
+        private final Ruby runtime;
+        private final DriverDefinition driver;
+        private final ConnectionRecipe recipe;
+
+        PoolFactory(Ruby runtime, DriverDefinition driver, ConnectionRecipe recipe) {
+            this.runtime = runtime;
+            this.driver = driver;
+            this.recipe = recipe;
+        }
+
+        public java.sql.Connection open(IRubyObject state) {
+            return openConnection(runtime, driver, recipe, state);
+        }
+
+        public boolean validate(java.sql.Connection conn) {
+            return isValid(driver, conn);
+        }
+    }
+
+    /**
+     * Pings the database with the validation query of the driver.
+     *
+     * @param driver
+     * @param conn
+     * @return whether the connection is still usable
+     */
+    private static boolean isValid(DriverDefinition driver, java.sql.Connection conn) {
+        java.sql.Statement statement = null;
+        try {
+            if (conn.isClosed()) {
+                return false;
+            }
+            statement = conn.createStatement();
+            statement.setQueryTimeout(VALIDATION_TIMEOUT);
+            statement.execute(driver.getValidationQuery());
+            return true;
+        } catch (SQLException sqle) {
+            return false;
+        } finally {
+            JDBCUtil.close(statement);
+        }
+    }
+
+    /**
+     * Makes sure the JDBC connection can be used for the next statement.
+     *
+     * A connection used within the last validation_interval milliseconds is
+     * taken to be fine; others are validated first. A broken connection is
+     * only replaced if reconnect is true and no transaction is open, which
+     * would be lost, and not more often than the reconnect backoff allows.
+     *
+     * Everything using the JDBC connection comes through here, and so first
+     * waits for the asynchronous commands submitted before (see
+     * awaitAsyncCommands).
+     *
+     * @param reconnect
+     */
+    void ensureUsable(boolean reconnect) {
+        Ruby runtime = getRuntime();
+        awaitAsyncCommands();
+        if (sqlConnection == null) {
+            throw Errors.newConnectionError(runtime, "This connection has already been closed.");
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastUsed < validationInterval) {
+            lastUsed = now;
+            return;
+        }
+        validations++;
+        if (isValid(driver, sqlConnection)) {
+            lastUsed = now;
+            return;
+        }
+        validationFailures++;
+
+        if (!reconnect || inTransaction()) {
+            throw Errors.newConnectionError(runtime, "The connection to the database was lost: "
+                                            + connectionUri.toString());
+        }
+        if (now < nextReconnect) {
+            throw Errors.newConnectionError(runtime, "The connection to the database was lost, not reconnecting for another "
+                                            + (nextReconnect - now) + " ms: " + connectionUri.toString());
+        }
+        reconnects++;
+        try {
+            connect();
+        } catch (RuntimeException e) {
+            reconnectFailures++;
+            reconnectBackoff = (reconnectBackoff == 0) ? MIN_RECONNECT_BACKOFF
+                    : Math.min(reconnectBackoff * 2, MAX_RECONNECT_BACKOFF);
+            nextReconnect = System.currentTimeMillis() + reconnectBackoff;
+            throw e;
+        }
+        reconnectBackoff = 0;
+        nextReconnect = 0;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the connection ready to run a statement: validates it (see
+     * ensureUsable), and turns autocommit back on if a transaction ended
+     * since the last statement (see SessionState).
+     *
+     * Called by everything running statements outside of Transaction,
+     * before getInternalConnection.
+     */
+    public void beforeStatement() {
+        ensureUsable(true);
+        try {
+            session.restoreAutoCommit();
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(getRuntime(), driver, sqle);
+        }
+    }
+
+    /**
+     * Makes the next ensureUsable validate the connection, after an error
+     * which may have broken it.
+     */
+    void invalidateLastUse() {
+        lastUsed = 0;
+    }
+
+    /**
+     *
+     * @return whether a transaction is open on the JDBC connection
+     */
+    private boolean inTransaction() {
+        return session != null && session.inTransaction();
+    }
+
+    /**
+     * Borrows a JDBC connection from the pool, giving back the one held
+     * before, which is presumed broken.
+     */
+    private void borrow() {
+        if (pooled != null) {
+            pool.invalidate(pooled);
+            pooled = null;
+            sqlConnection = null;
+        }
+        ConnectionPool.Entry entry;
+        try {
+            entry = pool.borrow(getRuntime().getCurrentContext());
+        } catch (InterruptedException ie) {
+            throw Errors.newConnectionError(getRuntime(), "Interrupted while waiting for a connection from the pool: "
+                                            + connectionUri.toString());
+        }
+        if (entry == null) {
+            throw Errors.newConnectionError(getRuntime(), "Timed out waiting for a connection from the pool: "
+                                            + connectionUri.toString());
+        }
+        entry.copyStateTo(this);
+        if (entry.session == null) {
+            entry.session = new SessionState(entry.connection, driver);
+        }
+        pooled = entry;
+        session = entry.session;
+        statementCache = entry.statementCache;
+        sqlConnection = entry.connection;
+    }
+
+    /**
+     * Returns the JDBC connection to the pool, ending any transaction left
+     * open.
+     */
+    private void release() {
+        try {
+            session.reset();
+            pool.release(pooled);
+        } catch (SQLException sqle) {
+            pool.invalidate(pooled);
+        }
+        pooled = null;
+        sqlConnection = null;
     }
 
     /**
@@ -219,6 +578,8 @@ public final class Connection extends DORubyObject {
         if (sqlConnection == null) {
             return runtime.getFalse();
         }
+        // the pending commands still need the connection
+        awaitAsyncCommands();
 
         try {
             if (sqlConnection.isClosed()) {
@@ -227,6 +588,12 @@ public final class Connection extends DORubyObject {
         } catch (SQLException ignored) {
         }
 
+        if (pooled != null) {
+            release();
+            return runtime.getTrue();
+        }
+
+        statementCache.clear();
         JDBCUtil.close(sqlConnection);
         sqlConnection = null;
         return runtime.getTrue();
@@ -297,6 +664,84 @@ public final class Connection extends DORubyObject {
         return getRuntime().newString(sb.toString());
     }
 
+    /**
+     * Creates a command which holds on to its prepared statement, so that it
+     * can be executed repeatedly without being prepared again.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param text
+     * @return a PreparedCommand for the given SQL text
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject prepare(final IRubyObject text) {
+        Ruby runtime = getRuntime();
+        RubyClass preparedCommandClass = PreparedCommand.createPreparedCommandClass(runtime, driver);
+        return preparedCommandClass.newInstance(runtime.getCurrentContext(),
+                new IRubyObject[] { this, text }, Block.NULL_BLOCK);
+    }
+
+    /**
+     * Executes several statements with as few round trips as the driver
+     * allows. Consecutive statements without bind values are sent together,
+     * as one multi-statement string where supported (MySQL with
+     * allowMultiQueries=true, SQL Server) or else as a batch of updates.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param statements an Array of SQL strings, or of Arrays with a SQL
+     * string and its bind values
+     * @return an Array with a Reader or Result for each statement; readers
+     * of statements sent together have their rows read into memory
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject execute_pipeline(final IRubyObject statements) {
+        beforeStatement();
+        return new Pipeline(this, driver, statements.convertToArray()).execute();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters and the current size of the
+     * prepared statement cache of this connection.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @return a Hash of counters
+     */
+    @JRubyMethod
+    public IRubyObject statement_cache_stats() {
+        Ruby runtime = getRuntime();
+        ThreadContext context = runtime.getCurrentContext();
+        RubyHash stats = RubyHash.newHash(runtime);
+        stats.op_aset(context, runtime.newSymbol("hits"), runtime.newFixnum(statementCache.getHits()));
+        stats.op_aset(context, runtime.newSymbol("misses"), runtime.newFixnum(statementCache.getMisses()));
+        stats.op_aset(context, runtime.newSymbol("evictions"), runtime.newFixnum(statementCache.getEvictions()));
+        stats.op_aset(context, runtime.newSymbol("size"), runtime.newFixnum(statementCache.size()));
+        stats.op_aset(context, runtime.newSymbol("max_size"), runtime.newFixnum(statementCache.getMaxSize()));
+        return stats;
+    }
+
+    /**
+     * Returns how often the connection was validated before use, how often
+     * it turned out to be broken, and how often reconnecting was attempted
+     * and failed.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @return a Hash of counters
+     */
+    @JRubyMethod
+    public IRubyObject connection_stats() {
+        Ruby runtime = getRuntime();
+        ThreadContext context = runtime.getCurrentContext();
+        RubyHash stats = RubyHash.newHash(runtime);
+        stats.op_aset(context, runtime.newSymbol("validations"), runtime.newFixnum(validations));
+        stats.op_aset(context, runtime.newSymbol("validation_failures"), runtime.newFixnum(validationFailures));
+        stats.op_aset(context, runtime.newSymbol("reconnects"), runtime.newFixnum(reconnects));
+        stats.op_aset(context, runtime.newSymbol("reconnect_failures"), runtime.newFixnum(reconnectFailures));
+        return stats;
+    }
+
     /**
      * Returns the JDBC URI used internally.
      *
@@ -320,8 +765,150 @@ public final class Connection extends DORubyObject {
         return sqlConnection;
     }
 
+    /**
+     *
+     * @return the transaction state of the JDBC connection
+     */
+    SessionState getSessionState() {
+        return session;
+    }
+
+    /**
+     *
+     * @return the prepared statement cache of the internal connection
+     */
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     *
+     * @return the number of rows Command#execute_batch sends per round trip
+     * by default
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     *
+     * @return whether readers stream their results by default
+     */
+    boolean isStreamResults() {
+        return streamResults;
+    }
+
+    /**
+     *
+     * @return the number of rows streaming readers fetch per round trip by
+     * default
+     */
+    int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     *
+     * @return whether readers yield lazy rows by default
+     */
+    boolean isLazyRows() {
+        return lazyRows;
+    }
+
+    /**
+     *
+     * @return the default query timeout of commands in seconds, 0 for none
+     */
+    int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     *
+     * @return the executor running the asynchronous commands of this
+     * connection, one at a time
+     */
+    synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = AsyncExecutor.newSerialExecutor();
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Waits until the asynchronous commands of this connection queued or
+     * running have finished, so that they are not overtaken by what the
+     * calling thread does next, nor share the JDBC connection with it.
+     * Returns at once when called by one of these commands.
+     */
+    void awaitAsyncCommands() {
+        AsyncExecutor.SerialExecutor executor;
+        synchronized (this) {
+            executor = asyncExecutor;
+        }
+        if (executor == null) {
+            return;
+        }
+        ThreadContext context = getRuntime().getCurrentContext();
+        while (true) {
+            try {
+                if (executor.awaitIdle(ASYNC_POLL_MILLIS)) {
+                    return;
+                }
+            } catch (InterruptedException ie) {
+                // fall through to Thread#raise and Thread#kill
+            }
+            context.pollThreadEvents();
+        }
+    }
+
     // -------------------------------------------------- PRIVATE HELPER METHODS
 
+    /**
+     * Reads a boolean option (true/false) from the query string of the
+     * connection URI.
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    private boolean booleanOption(final String name, final boolean defaultValue) {
+        String value = (query != null) ? query.get(name) : null;
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim();
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw getRuntime().newArgumentError("Invalid value for " + name + ": " + value);
+    }
+
+    /**
+     * Reads a non-negative integer option from the query string of the
+     * connection URI.
+     *
+     * @param name
+     * @param defaultValue
+     * @return
+     */
+    private int intOption(final String name, final int defaultValue) {
+        String value = (query != null) ? query.get(name) : null;
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.trim());
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw getRuntime().newArgumentError("Invalid value for " + name + ": " + value);
+    }
+
     /**
      * Convert a query string (e.g.
      * driver=org.postgresql.Driver&protocol=postgresql) to a Map of values.
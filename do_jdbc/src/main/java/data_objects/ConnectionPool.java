@@ -0,0 +1,562 @@
+package data_objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jruby.Finalizable;
+import org.jruby.Ruby;
+import org.jruby.RubyObject;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.util.JDBCUtil;
+
+/**
+ * A pool of JDBC connections, shared by all Connections of a driver with
+ * the same URI. Used instead of DataObjects::Pooling when the pool URI
+ * option is set.
+ *
+ * Borrowing does not lock: a thread first tries the connection it returned
+ * last, then claims any idle connection with a compare-and-set, and only
+ * blocks when pool_size connections are in use. Connections idle for
+ * longer than the validation_interval of the Connection are validated before
+ * they are handed out. A housekeeping task closes connections idle for
+ * longer than pool_idle_timeout or older than pool_max_lifetime.
+ *
+ * The connections missing to keep pool_min_idle of them idle are opened on
+ * the housekeeping thread, so that no thread borrowing or returning a
+ * connection waits for them. The driver's Ruby side is called on that
+ * thread too, which JRuby adopts for it.
+ *
+ * A pool lives as long as its runtime; it is shut down when the runtime
+ * tears down.
+ */
+final class ConnectionPool {
+
+    static final String POOL = "pool";
+    static final String POOL_SIZE = "pool_size";
+    static final String POOL_MIN_IDLE = "pool_min_idle";
+    static final String POOL_IDLE_TIMEOUT = "pool_idle_timeout";
+    static final String POOL_MAX_LIFETIME = "pool_max_lifetime";
+    static final String POOL_CHECKOUT_TIMEOUT = "pool_checkout_timeout";
+
+    /** The size of the pools of DataObjects::Pooling */
+    static final int DEFAULT_SIZE = 8;
+    /** The scavenger interval of DataObjects::Pooling */
+    static final int DEFAULT_IDLE_TIMEOUT = 60;
+    static final int DEFAULT_MAX_LIFETIME = 30 * 60;
+
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 30 * 1000;
+    private static final long POLL_MILLIS = 100;
+    /**
+     * How long a borrower holding a permit waits for the connection it
+     * stands for to become visible (see borrow)
+     */
+    private static final long SLOT_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ConcurrentHashMap<Key, ConnectionPool> POOLS =
+            new ConcurrentHashMap<Key, ConnectionPool>();
+
+    private static final ScheduledExecutorService HOUSEKEEPER =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "DataObjects pool housekeeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Opens the connections of a pool, on the threads borrowing connections
+     * and on the housekeeping thread.
+     */
+    interface Factory {
+
+        /**
+         *
+         * @param state the object the driver keeps state about the
+         * connection in (as instance variables), instead of a Connection
+         * @return
+         */
+        java.sql.Connection open(IRubyObject state);
+
+        /**
+         *
+         * @param conn
+         * @return whether the connection is still usable
+         */
+        boolean validate(java.sql.Connection conn);
+    }
+
+    /**
+     * A pooled JDBC connection, with the state the driver keeps about it
+     * and its prepared statements.
+     */
+    static final class Entry {
+
+        final java.sql.Connection connection;
+        final RubyObject state;
+        final StatementCache statementCache;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsed = createdAt;
+        final AtomicBoolean inUse = new AtomicBoolean(true);
+        /** Set by the first Connection borrowing the entry */
+        SessionState session;
+
+        Entry(java.sql.Connection connection, RubyObject state, StatementCache statementCache) {
+            this.connection = connection;
+            this.state = state;
+            this.statementCache = statementCache;
+        }
+
+        /**
+         * Copies the state the driver keeps about this connection to the
+         * Connection borrowing it.
+         *
+         * @param connection
+         */
+        void copyStateTo(IRubyObject connection) {
+            for (String name : state.getInstanceVariableNameList()) {
+                connection.setInstanceVariable(name, state.getInstanceVariable(name));
+            }
+        }
+    }
+
+    private final Ruby runtime;
+    private final Key key;
+    private final Factory factory;
+    private final int maxSize;
+    private final int minIdle;
+    private final long validationInterval;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final long checkoutTimeout;
+    private final int statementCacheSize;
+
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<Entry>();
+    /** The number of entries, including the ones being opened */
+    private final AtomicInteger size = new AtomicInteger();
+    /** One per connection that can be borrowed */
+    private final Semaphore permits;
+    private final ThreadLocal<Entry> lastReturned = new ThreadLocal<Entry>();
+    /** Set while a fill is scheduled or running */
+    private final AtomicBoolean filling = new AtomicBoolean();
+    private volatile boolean shutdown;
+    private ScheduledFuture<?> housekeeping;
+
+    /**
+     *
+     * @param runtime
+     * @param key
+     * @param factory
+     * @param maxSize
+     * @param minIdle
+     * @param validationInterval in milliseconds, the idle time after which
+     * a connection is validated before it is handed out
+     * @param idleTimeout in seconds, or 0 to keep idle connections
+     * @param maxLifetime in seconds, or 0 for no limit
+     * @param checkoutTimeout in seconds, or 0 to wait for a connection for as
+     * long as it takes
+     * @param statementCacheSize
+     */
+    private ConnectionPool(Ruby runtime, Key key, Factory factory, int maxSize, int minIdle,
+            int validationInterval, int idleTimeout, int maxLifetime, int checkoutTimeout,
+            int statementCacheSize) {
+        this.runtime = runtime;
+        this.key = key;
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.validationInterval = validationInterval;
+        this.idleTimeout = idleTimeout * 1000L;
+        this.maxLifetime = maxLifetime * 1000L;
+        this.checkoutTimeout = checkoutTimeout * 1000L;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize);
+    }
+
+    /**
+     * Returns the pool for the given URI, creating it with the given settings
+     * if there is none yet.
+     *
+     * @param runtime
+     * @param uri the connection URI, which identifies the pool
+     * @param factory
+     * @param maxSize
+     * @param minIdle
+     * @param validationInterval
+     * @param idleTimeout
+     * @param maxLifetime
+     * @param checkoutTimeout
+     * @param statementCacheSize
+     * @return
+     */
+    static ConnectionPool getPool(Ruby runtime, String uri, Factory factory,
+            int maxSize, int minIdle, int validationInterval, int idleTimeout,
+            int maxLifetime, int checkoutTimeout, int statementCacheSize) {
+        Key key = new Key(runtime, uri);
+        ConnectionPool pool = POOLS.get(key);
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (POOLS) {
+            pool = POOLS.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(runtime, key, factory, maxSize, minIdle,
+                        validationInterval, idleTimeout, maxLifetime, checkoutTimeout,
+                        statementCacheSize);
+                POOLS.put(key, pool);
+                pool.start();
+            }
+        }
+        return pool;
+    }
+
+    private void start() {
+        housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                housekeep();
+            }
+        }, HOUSEKEEPING_INTERVAL_MILLIS, HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        runtime.addInternalFinalizer(new Finalizable() {
+            public void finalize() {
+                shutdown();
+            }
+        });
+        requestFill();
+    }
+
+    /**
+     * Stops housekeeping, closes all connections, in use or not, and forgets
+     * the pool. Called when the runtime tears down.
+     */
+    void shutdown() {
+        shutdown = true;
+        housekeeping.cancel(false);
+        POOLS.remove(key, this);
+        for (Entry entry : entries) {
+            retire(entry);
+        }
+    }
+
+    /**
+     * Borrows a connection, opening one if none is idle and the pool is not
+     * full.
+     *
+     * @param context the context of the waiting thread, which stays
+     * responsive to Thread#raise and Thread#kill
+     * @return the connection, or null if none became available within the
+     * checkout timeout
+     * @throws InterruptedException if the thread was interrupted while
+     * waiting; its interrupt status is set again
+     */
+    Entry borrow(ThreadContext context) throws InterruptedException {
+        if (shutdown) {
+            throw new IllegalStateException("The connection pool has been shut down");
+        }
+        long deadline = System.currentTimeMillis() + checkoutTimeout;
+        if (!acquirePermit(context, deadline)) {
+            return null;
+        }
+        boolean borrowed = false;
+        try {
+            Entry entry = lastReturned.get();
+            if (entry != null && entry.inUse.compareAndSet(false, true) && isUsable(entry)) {
+                borrowed = true;
+                return entry;
+            }
+            while (true) {
+                for (Entry idle : entries) {
+                    if (idle.inUse.compareAndSet(false, true) && isUsable(idle)) {
+                        borrowed = true;
+                        return idle;
+                    }
+                }
+                int current = size.get();
+                if (current < maxSize && size.compareAndSet(current, current + 1)) {
+                    entry = open();
+                    borrowed = true;
+                    return entry;
+                }
+                // the permit stands for a connection the housekeeper is
+                // looking at, or one about to be retired
+                if (!awaitSlot(context, deadline)) {
+                    return null;
+                }
+            }
+        } finally {
+            if (!borrowed) {
+                permits.release();
+            } else {
+                requestFill();
+            }
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool.
+     *
+     * @param entry
+     */
+    void release(Entry entry) {
+        long now = System.currentTimeMillis();
+        entry.lastUsed = now;
+        if (shutdown || (maxLifetime > 0 && now - entry.createdAt > maxLifetime)) {
+            retire(entry);
+            requestFill();
+        } else {
+            lastReturned.set(entry);
+            entry.inUse.set(false);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes a borrowed connection which turned out to be broken.
+     *
+     * @param entry
+     */
+    void invalidate(Entry entry) {
+        retire(entry);
+        permits.release();
+        requestFill();
+    }
+
+    /**
+     *
+     * @param context
+     * @param deadline
+     * @return whether a permit was acquired before the deadline
+     * @throws InterruptedException
+     */
+    private boolean acquirePermit(ThreadContext context, long deadline)
+            throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        while (true) {
+            long wait = POLL_MILLIS;
+            if (checkoutTimeout > 0) {
+                wait = Math.min(wait, deadline - System.currentTimeMillis());
+                if (wait <= 0) {
+                    return false;
+                }
+            }
+            try {
+                if (permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException ie) {
+                interrupted(context, ie);
+            }
+            context.pollThreadEvents();
+        }
+    }
+
+    /**
+     * Waits a little for another thread to finish with an entry.
+     *
+     * @param context
+     * @param deadline
+     * @return false if the checkout timeout passed
+     * @throws InterruptedException
+     */
+    private boolean awaitSlot(ThreadContext context, long deadline)
+            throws InterruptedException {
+        if (checkoutTimeout > 0 && System.currentTimeMillis() >= deadline) {
+            return false;
+        }
+        LockSupport.parkNanos(SLOT_WAIT_NANOS);
+        if (Thread.interrupted()) {
+            interrupted(context, new InterruptedException());
+        }
+        context.pollThreadEvents();
+        return true;
+    }
+
+    /**
+     * Lets a Thread#raise or Thread#kill behind the interrupt take effect,
+     * and otherwise passes the interrupt on.
+     *
+     * @param context
+     * @param ie
+     * @throws InterruptedException
+     */
+    private void interrupted(ThreadContext context, InterruptedException ie)
+            throws InterruptedException {
+        context.pollThreadEvents();
+        Thread.currentThread().interrupt();
+        throw ie;
+    }
+
+    /**
+     * Checks a claimed idle entry, retiring it if it expired or broke.
+     *
+     * @param entry
+     * @return whether the entry can be handed out
+     */
+    private boolean isUsable(Entry entry) {
+        long now = System.currentTimeMillis();
+        if ((maxLifetime > 0 && now - entry.createdAt > maxLifetime)
+                || (now - entry.lastUsed > validationInterval
+                    && !factory.validate(entry.connection))) {
+            retire(entry);
+            requestFill();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Opens a connection for a slot already counted in size.
+     *
+     * @return the new entry, in use
+     */
+    private Entry open() {
+        try {
+            RubyObject state = new RubyObject(runtime, runtime.getObject());
+            java.sql.Connection conn = factory.open(state);
+            Entry entry = new Entry(conn, state, new StatementCache(statementCacheSize));
+            entries.add(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes a claimed entry and frees its slot.
+     *
+     * @param entry
+     */
+    private void retire(Entry entry) {
+        if (entries.remove(entry)) {
+            size.decrementAndGet();
+        }
+        entry.statementCache.clear();
+        JDBCUtil.close(entry.connection);
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        int idle = countIdle();
+        for (Entry entry : entries) {
+            if (!entry.inUse.compareAndSet(false, true)) {
+                continue;
+            }
+            boolean expired = maxLifetime > 0 && now - entry.createdAt > maxLifetime;
+            boolean stale = idleTimeout > 0 && now - entry.lastUsed > idleTimeout
+                    && idle > minIdle;
+            if (expired || stale) {
+                retire(entry);
+                idle--;
+            } else {
+                entry.inUse.set(false);
+            }
+        }
+        requestFill();
+    }
+
+    /**
+     * Schedules a fill on the housekeeping thread if fewer than minIdle
+     * connections are idle, unless one is pending.
+     */
+    private void requestFill() {
+        if (minIdle == 0 || shutdown || countIdle() >= minIdle
+                || !filling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            HOUSEKEEPER.execute(new Runnable() {
+                public void run() {
+                    try {
+                        fill();
+                    } finally {
+                        filling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            filling.set(false);
+        }
+    }
+
+    /**
+     * Opens connections until minIdle of them are idle, or the pool is full.
+     * A connection which fails to open is tried again at the next
+     * housekeeping.
+     */
+    private void fill() {
+        while (!shutdown && countIdle() < minIdle) {
+            int current = size.get();
+            if (current >= maxSize) {
+                return;
+            }
+            if (!size.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Entry entry;
+            try {
+                entry = open();
+            } catch (RuntimeException e) {
+                // the next borrower reports the error
+                return;
+            }
+            if (shutdown) {
+                retire(entry);
+                return;
+            }
+            entry.inUse.set(false);
+        }
+    }
+
+    private int countIdle() {
+        int idle = 0;
+        for (Entry entry : entries) {
+            if (!entry.inUse.get()) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Pools are per Ruby runtime, as the state of their connections is.
+     */
+    private static final class Key {
+
+        private final Ruby runtime;
+        private final String uri;
+
+        Key(Ruby runtime, String uri) {
+            this.runtime = runtime;
+            this.uri = uri;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return runtime == other.runtime && uri.equals(other.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(runtime) + uri.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package data_objects;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * Everything needed to open a JDBC connection for a DataObjects URI, worked
+ * out once per distinct URI: the parsed URI and query options, the JDBC URL,
+ * the connection properties, the encoding the driver settled on, and for
+ * JNDI URIs the DataSource.
+ */
+final class ConnectionRecipe {
+
+    /**
+     * Upper bound for the number of recipes kept, in case an application
+     * keeps making up new URIs
+     */
+    private static final int MAX_RECIPES = 1000;
+
+    private static final ConcurrentHashMap<String, ConnectionRecipe> RECIPES =
+            new ConcurrentHashMap<String, ConnectionRecipe>();
+
+    final String key;
+    final java.net.URI connectionUri;
+    final Map<String, String> query;
+    /** null for JNDI URIs */
+    final String jdbcUri;
+    private volatile String encoding;
+    private volatile Properties properties;
+    private volatile DataSource dataSource;
+
+    /**
+     *
+     * @param key
+     * @param connectionUri
+     * @param query the query options, not to be modified any more
+     * @param encoding
+     * @param jdbcUri
+     * @param properties
+     */
+    ConnectionRecipe(String key, java.net.URI connectionUri, Map<String, String> query,
+            String encoding, String jdbcUri, Properties properties) {
+        this.key = key;
+        this.connectionUri = connectionUri;
+        this.query = query;
+        this.encoding = encoding;
+        this.jdbcUri = jdbcUri;
+        this.properties = properties;
+    }
+
+    /**
+     *
+     * @param driver
+     * @param key identifies the URI
+     * @return the recipe, or null if there is none yet
+     */
+    static ConnectionRecipe get(DriverDefinition driver, String key) {
+        return RECIPES.get(driver.getModuleName() + " " + key);
+    }
+
+    /**
+     *
+     * @param driver
+     * @param recipe
+     * @return the recipe to use, which is the one of another thread if it
+     * was first
+     */
+    static ConnectionRecipe put(DriverDefinition driver, ConnectionRecipe recipe) {
+        if (RECIPES.size() >= MAX_RECIPES) {
+            RECIPES.clear();
+        }
+        ConnectionRecipe existing = RECIPES.putIfAbsent(driver.getModuleName() + " " + recipe.key, recipe);
+        return (existing != null) ? existing : recipe;
+    }
+
+    /**
+     *
+     * @return the encoding to ask the driver for
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     *
+     * @return a copy of the connection properties, for the driver to modify
+     */
+    Properties newProperties() {
+        return (Properties) properties.clone();
+    }
+
+    /**
+     * Remembers the properties and the encoding the driver fell back to, so
+     * that later connections get them right the first time.
+     *
+     * @param properties the properties a connection was opened with
+     * @param encoding
+     */
+    void resolved(Properties properties, String encoding) {
+        if (!properties.equals(this.properties)) {
+            this.properties = properties;
+            this.encoding = encoding;
+        }
+    }
+
+    /**
+     *
+     * @return the DataSource of a JNDI URI, looked up on first use
+     * @throws NamingException
+     */
+    DataSource getDataSource() throws NamingException {
+        DataSource ds = dataSource;
+        if (ds == null) {
+            InitialContext context = new InitialContext();
+            ds = (DataSource) context.lookup(connectionUri.toString());
+            dataSource = ds;
+        }
+        return ds;
+    }
+
+    /**
+     * Drops the DataSource, which is looked up again for the next
+     * connection, in case it was rebound.
+     */
+    void forgetDataSource() {
+        dataSource = null;
+    }
+
+}
@@ -0,0 +1,295 @@
+package data_objects;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.errors.Errors;
+import data_objects.util.JDBCUtil;
+
+/**
+ * Executes a list of SQL statements with as few round trips as the driver
+ * allows (see Connection#execute_pipeline).
+ *
+ * Consecutive statements without bind values are sent together: as one
+ * multi-statement string if the driver supports it, in which case each
+ * statement's result tells whether it returned rows, otherwise as a JDBC
+ * batch if none of them returns rows. All other statements are executed one
+ * by one through their Command.
+ */
+final class Pipeline {
+
+    /**
+     * Statements which return rows, when there is no multi-statement result
+     * to tell
+     */
+    private static final Pattern QUERY = Pattern.compile(
+            "\\A\\s*(SELECT|VALUES|TABLE|SHOW|EXPLAIN|DESCRIBE|PRAGMA)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Data modifying statements returning the affected rows
+     */
+    private static final Pattern RETURNING = Pattern.compile(
+            "\\bRETURNING\\b|\\bOUTPUT\\s+INSERTED\\.", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WITH = Pattern.compile("\\A\\s*WITH\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[\\s;]+\\z");
+
+    private final Connection connection;
+    private final DriverDefinition driver;
+    private final Ruby runtime;
+    private final List<Command> commands = new ArrayList<Command>();
+    private final List<IRubyObject[]> args = new ArrayList<IRubyObject[]>();
+    private final List<String> sql = new ArrayList<String>();
+
+    /**
+     *
+     * @param connection
+     * @param driver
+     * @param statements SQL strings, or Arrays of a SQL string and its bind
+     * values
+     */
+    Pipeline(Connection connection, DriverDefinition driver, RubyArray statements) {
+        this.connection = connection;
+        this.driver = driver;
+        this.runtime = connection.getRuntime();
+        for (int i = 0; i < statements.getLength(); i++) {
+            IRubyObject statement = statements.eltInternal(i);
+            IRubyObject text;
+            IRubyObject[] values;
+            if (statement instanceof RubyArray) {
+                IRubyObject[] parts = ((RubyArray) statement).toJavaArray();
+                if (parts.length == 0) {
+                    throw runtime.newArgumentError("Empty statement in pipeline");
+                }
+                text = parts[0];
+                values = new IRubyObject[parts.length - 1];
+                System.arraycopy(parts, 1, values, 0, values.length);
+            } else {
+                text = statement;
+                values = new IRubyObject[0];
+            }
+            Command command = (Command) connection.callMethod(
+                    runtime.getCurrentContext(), "create_command", text.asString());
+            commands.add(command);
+            args.add(values);
+            // statements are joined with semicolons
+            sql.add(TRAILING_SEMICOLONS.matcher(text.asJavaString()).replaceFirst(""));
+        }
+    }
+
+    /**
+     *
+     * @return one Reader or Result per statement
+     */
+    RubyArray execute() {
+        IRubyObject[] results = new IRubyObject[commands.size()];
+        int groupStart = 0;
+        for (int i = 0; i <= commands.size(); i++) {
+            if (i < commands.size() && args.get(i).length == 0) {
+                continue;
+            }
+            // statements groupStart ... i - 1 have no bind values
+            executeGroup(groupStart, i, results);
+            if (i < commands.size()) {
+                results[i] = executeOne(i);
+            }
+            groupStart = i + 1;
+        }
+        return RubyArray.newArrayNoCopy(runtime, results);
+    }
+
+    private void executeGroup(int from, int to, IRubyObject[] results) {
+        if (to - from == 0) {
+            return;
+        }
+        if (to - from == 1) {
+            results[from] = executeOne(from);
+            return;
+        }
+        java.sql.Connection conn = connection.getInternalConnection();
+        try {
+            if (driver.supportsMultipleStatements(conn)) {
+                executeMultiStatement(conn, from, to, results);
+                return;
+            }
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle);
+        }
+        for (int i = from; i < to; i++) {
+            if (isQuery(i)) {
+                for (int j = from; j < to; j++) {
+                    results[j] = executeOne(j);
+                }
+                return;
+            }
+        }
+        executeBatch(conn, from, to, results);
+    }
+
+    private IRubyObject executeOne(int index) {
+        String method = isQuery(index) ? "execute_reader" : "execute_non_query";
+        return commands.get(index).callMethod(runtime.getCurrentContext(), method,
+                args.get(index));
+    }
+
+    private boolean isQuery(int index) {
+        String text = sql.get(index);
+        Matcher with = WITH.matcher(text);
+        if (with.find()) {
+            text = mainStatement(text, with.end());
+        }
+        return QUERY.matcher(text).find() || RETURNING.matcher(text).find();
+    }
+
+    /**
+     * Returns the statement following the common table expressions of a
+     * WITH query, i.e. the text from the first word outside of parentheses
+     * which is not part of a table expression's name or column list.
+     */
+    private static String mainStatement(String text, int from) {
+        int depth = 0;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '\'' || c == '"') {
+                int end = text.indexOf(c, i + 1);
+                i = (end < 0) ? text.length() : end;
+            } else if (depth == 0 && isWordChar(c)) {
+                int end = i;
+                while (end < text.length() && isWordChar(text.charAt(end))) {
+                    end++;
+                }
+                String word = text.substring(i, end).toUpperCase();
+                if (word.equals("SELECT") || word.equals("VALUES") || word.equals("TABLE")
+                        || word.equals("INSERT") || word.equals("UPDATE")
+                        || word.equals("DELETE") || word.equals("MERGE")) {
+                    return text.substring(i);
+                }
+                i = end - 1;
+            }
+        }
+        return "";
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private void executeMultiStatement(java.sql.Connection conn, int from, int to,
+            IRubyObject[] results) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                // the line break ends a trailing -- comment before the semicolon
+                text.append("\n;\n");
+            }
+            text.append(sql.get(i));
+        }
+        Statement statement = null;
+        try {
+            statement = conn.createStatement();
+            applyQueryTimeout(statement);
+            long startTime = System.currentTimeMillis();
+            boolean isResultSet = statement.execute(text.toString());
+            long endTime = System.currentTimeMillis();
+            debug(from, text.toString(), endTime - startTime);
+
+            for (int i = from; i < to; i++) {
+                if (isResultSet) {
+                    results[i] = newBufferedReader(statement.getResultSet());
+                } else {
+                    int count = statement.getUpdateCount();
+                    if (count == -1) {
+                        throw Errors.newSqlError(runtime, driver, "Expected " + (to - from)
+                                + " results, but the statements returned " + (i - from));
+                    }
+                    results[i] = newResult(i, count);
+                }
+                isResultSet = statement.getMoreResults();
+            }
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle, statement);
+        } finally {
+            JDBCUtil.close(statement);
+        }
+    }
+
+    private void executeBatch(java.sql.Connection conn, int from, int to,
+            IRubyObject[] results) {
+        Statement statement = null;
+        try {
+            statement = conn.createStatement();
+            applyQueryTimeout(statement);
+            for (int i = from; i < to; i++) {
+                statement.addBatch(sql.get(i));
+            }
+            long startTime = System.currentTimeMillis();
+            int[] counts = statement.executeBatch();
+            long endTime = System.currentTimeMillis();
+            debug(from, sql.get(from) + " (batch of " + (to - from) + ")", endTime - startTime);
+
+            for (int i = from; i < to; i++) {
+                int count = (i - from < counts.length) ? counts[i - from] : Statement.SUCCESS_NO_INFO;
+                results[i] = newResult(i, count);
+            }
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle, statement);
+        } finally {
+            JDBCUtil.close(statement);
+        }
+    }
+
+    private void applyQueryTimeout(Statement statement) throws SQLException {
+        if (connection.getQueryTimeout() > 0) {
+            statement.setQueryTimeout(connection.getQueryTimeout());
+        }
+    }
+
+    private IRubyObject newBufferedReader(ResultSet resultSet) throws SQLException {
+        RubyClass readerClass = Reader.createReaderClass(runtime, driver);
+        Reader reader = (Reader) readerClass.newInstance(runtime.getCurrentContext(),
+                new IRubyObject[] { }, Block.NULL_BLOCK);
+        ResultPlan plan = ResultPlan.describe(driver, resultSet.getMetaData());
+        reader.resultSet = resultSet;
+        reader.fieldCount = plan.fieldCount;
+        reader.fieldNames = plan.fieldNames;
+        reader.fieldTypes = plan.fieldTypes;
+        reader.decoders = plan.decoders;
+        reader.bufferRows();
+        return reader;
+    }
+
+    private IRubyObject newResult(int index, int count) {
+        RubyClass resultClass = Result.createResultClass(runtime, driver);
+        // Statement.SUCCESS_NO_INFO: the row count is unknown
+        IRubyObject affected = (count >= 0) ? runtime.newFixnum(count) : runtime.getNil();
+        return resultClass.callMethod(runtime.getCurrentContext(), "new",
+                new IRubyObject[] { commands.get(index), affected, runtime.getNil() });
+    }
+
+    private void debug(int index, String text, long millis) {
+        Command command = commands.get(index);
+        if (command.isDebug()) {
+            command.debug(text, Long.valueOf(millis));
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyRange;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.errors.Errors;
+
+/**
+ * PreparedCommand Class
+ *
+ * A Command which keeps its PreparedStatement (and the bind plan of it) for
+ * its whole lifetime, so that executing it again only costs binding the
+ * new arguments. Created by Connection#prepare.
+ *
+ * As the SQL text of a prepared command can not change, Arrays and Ranges
+ * (which expand the bind parameters of a regular Command) are not accepted as
+ * arguments.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "PreparedCommand")
+public class PreparedCommand extends Command {
+
+    public final static String RUBY_CLASS_NAME = "PreparedCommand";
+
+    /**
+     * Room for one statement prepared for execute_reader and one prepared for
+     * execute_non_query.
+     */
+    private static final int MAX_STATEMENTS = 2;
+
+    private final StatementCache statements = new StatementCache(MAX_STATEMENTS);
+    private java.sql.Connection preparedOn;
+    private boolean closed = false;
+
+    private final static ObjectAllocator PREPARED_COMMAND_ALLOCATOR = new ObjectAllocator() {
+        public IRubyObject allocate(Ruby runtime, RubyClass klass) {
+            return new PreparedCommand(runtime, klass);
+        }
+    };
+
+    /**
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static RubyClass createPreparedCommandClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+
+        IRubyObject preparedCommandConstant = driverModule.getConstantAt(RUBY_CLASS_NAME);
+        if (preparedCommandConstant instanceof RubyClass) {
+            return (RubyClass) preparedCommandConstant;
+        }
+
+        RubyClass superClass = driverModule.getClass(Command.RUBY_CLASS_NAME);
+        RubyClass preparedCommandClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                superClass, PREPARED_COMMAND_ALLOCATOR);
+        preparedCommandClass.defineAnnotatedMethods(PreparedCommand.class);
+        setDriverDefinition(preparedCommandClass, runtime, driver);
+        return preparedCommandClass;
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param klass
+     */
+    private PreparedCommand(Ruby runtime, RubyClass klass) {
+        super(runtime, klass);
+    }
+
+    // -------------------------------------------------- DATAOBJECTS PUBLIC API
+
+    // inherit initialize
+
+    /**
+     *
+     * @param args
+     * @return
+     */
+    @Override
+    public IRubyObject execute_non_query(IRubyObject[] args) {
+        checkExecutable(args);
+        return super.execute_non_query(args);
+    }
+
+    /**
+     *
+     * @param args
+     * @return
+     */
+    @Override
+    public IRubyObject execute_reader(IRubyObject[] args) {
+        checkExecutable(args);
+        return super.execute_reader(args);
+    }
+
+    /**
+     *
+     * @param args
+     * @return
+     */
+    @Override
+    public IRubyObject execute_batch(IRubyObject[] args) {
+        checkNotClosed();
+        return super.execute_batch(args);
+    }
+
+    /**
+     * Closes the statements held by this command. Readers which are still
+     * open close their statement themselves.
+     *
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject close() {
+        Ruby runtime = getRuntime();
+        synchronized (this) {
+            if (closed) {
+                return runtime.getFalse();
+            }
+            closed = true;
+            preparedOn = null;
+        }
+        statements.clear();
+        return runtime.getTrue();
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod(name = "closed?")
+    public synchronized IRubyObject closed_p() {
+        return getRuntime().newBoolean(closed);
+    }
+
+    // ---------------------------------------------------------- HELPER METHODS
+
+    /**
+     * Hands out the statements of this command, dropping them first if the
+     * connection has been re-established since they were prepared.
+     *
+     * @param connection
+     * @return
+     */
+    @Override
+    StatementCache getStatementCache(Connection connection) {
+        java.sql.Connection conn = connection.getInternalConnection();
+        boolean stale;
+        synchronized (this) {
+            stale = preparedOn != conn;
+            if (stale) {
+                preparedOn = conn;
+            }
+        }
+        if (stale) {
+            statements.clear();
+        }
+        return statements;
+    }
+
+    /**
+     *
+     */
+    private synchronized void checkNotClosed() {
+        if (closed) {
+            throw Errors.newSqlError(getRuntime(), driver,
+                    "This command has already been closed.");
+        }
+    }
+
+    /**
+     *
+     * @param args
+     */
+    private void checkExecutable(IRubyObject[] args) {
+        checkNotClosed();
+        for (IRubyObject arg : args) {
+            if (arg instanceof RubyArray || arg instanceof RubyRange) {
+                throw getRuntime().newArgumentError(
+                        "Arrays and Ranges can not be bound to a prepared command");
+            }
+        }
+    }
+
+}
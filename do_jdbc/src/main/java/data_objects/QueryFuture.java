@@ -0,0 +1,205 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DriverDefinition;
+import data_objects.errors.Errors;
+
+/**
+ * The pending result of Command#execute_reader_async or
+ * Command#execute_non_query_async.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "Future")
+public class QueryFuture extends RubyObject {
+
+    public final static String RUBY_CLASS_NAME = "Future";
+
+    /**
+     * How often a waiting Ruby thread checks for Thread#raise and
+     * Thread#kill
+     */
+    private final static long POLL_MILLIS = 100;
+
+    private final DriverDefinition driver;
+    private final Future<IRubyObject> future;
+
+    /**
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static RubyClass createFutureClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+
+        IRubyObject futureConstant = driverModule.getConstantAt(RUBY_CLASS_NAME);
+        if (futureConstant instanceof RubyClass) {
+            return (RubyClass) futureConstant;
+        }
+
+        RubyClass futureClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                runtime.getObject(), ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+        futureClass.defineAnnotatedMethods(QueryFuture.class);
+        return futureClass;
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param klass
+     * @param driver
+     * @param future
+     */
+    QueryFuture(Ruby runtime, RubyClass klass, DriverDefinition driver,
+            Future<IRubyObject> future) {
+        super(runtime, klass);
+        this.driver = driver;
+        this.future = future;
+    }
+
+    /**
+     * Waits for the command to finish.
+     *
+     * @param context
+     * @return the result of the command; raises its error if it failed
+     */
+    @JRubyMethod
+    public IRubyObject value(ThreadContext context) {
+        awaitDone(context);
+        try {
+            return future.get();
+        } catch (CancellationException ce) {
+            throw Errors.newSqlError(getRuntime(), driver, "The command was cancelled.");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RaiseException) {
+                throw (RaiseException) cause;
+            }
+            throw Errors.newSqlError(getRuntime(), driver, String.valueOf(cause));
+        } catch (InterruptedException ie) {
+            throw Errors.newSqlError(getRuntime(), driver, "Interrupted while waiting for the command.");
+        }
+    }
+
+    /**
+     * Waits for the command to finish, at most for the given number of
+     * seconds.
+     *
+     * @param context
+     * @param args an optional timeout in seconds
+     * @return whether the command has finished
+     */
+    @JRubyMethod(name = "wait", optional = 1)
+    public IRubyObject wait_for(ThreadContext context, IRubyObject[] args) {
+        if (args.length == 0 || args[0].isNil()) {
+            awaitDone(context);
+            return getRuntime().getTrue();
+        }
+        long deadline = System.currentTimeMillis()
+                + (long) (RubyNumeric.num2dbl(args[0]) * 1000);
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            if (await(context, Math.min(remaining, POLL_MILLIS))) {
+                return getRuntime().getTrue();
+            }
+        }
+        return getRuntime().newBoolean(future.isDone());
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod(name = {"done?", "completed?"})
+    public IRubyObject done_p() {
+        return getRuntime().newBoolean(future.isDone());
+    }
+
+    /**
+     * Cancels the command if it has not started yet.
+     *
+     * @return whether the command was cancelled
+     */
+    @JRubyMethod
+    public IRubyObject cancel() {
+        return getRuntime().newBoolean(future.cancel(false));
+    }
+
+    /**
+     * Waits for all given futures.
+     *
+     * @param context
+     * @param recv
+     * @param futures
+     * @return the values of the futures, in order
+     */
+    @JRubyMethod(meta = true, rest = true)
+    public static IRubyObject all(ThreadContext context, IRubyObject recv,
+            IRubyObject[] futures) {
+        Ruby runtime = context.getRuntime();
+        RubyArray values = runtime.newArray(futures.length);
+        for (IRubyObject future : futures) {
+            if (!(future instanceof QueryFuture)) {
+                throw runtime.newTypeError("expected a " + ((RubyClass) recv).getName()
+                        + ", got " + future.getMetaClass().getName());
+            }
+            values.append(((QueryFuture) future).value(context));
+        }
+        return values;
+    }
+
+    private void awaitDone(ThreadContext context) {
+        while (!await(context, POLL_MILLIS)) {
+            // keep polling
+        }
+    }
+
+    /**
+     * Waits for the command a little while, keeping the waiting Ruby thread
+     * responsive to Thread#raise and Thread#kill.
+     *
+     * @param context
+     * @param millis
+     * @return whether the command has finished
+     */
+    private boolean await(ThreadContext context, long millis) {
+        try {
+            future.get(millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            context.pollThreadEvents();
+            return false;
+        } catch (InterruptedException ie) {
+            context.pollThreadEvents();
+            return false;
+        } catch (ExecutionException ee) {
+            // reported by #value
+        } catch (CancellationException ce) {
+            // reported by #value
+        }
+        return true;
+    }
+
+}
@@ -5,6 +5,7 @@ import static data_objects.util.StringUtil.appendJoined;
 import static data_objects.util.StringUtil.appendJoinedAndQuoted;
 
 import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -13,12 +14,18 @@ import java.util.List;
 import org.jruby.Ruby;
 import org.jruby.RubyArray;
 import org.jruby.RubyClass;
+import org.jruby.RubyEnumerator;
 import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
 import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
 
+import data_objects.drivers.ColumnDecoder;
+import data_objects.drivers.DeferredColumnDecoder;
 import data_objects.drivers.DriverDefinition;
 import data_objects.errors.Errors;
 import data_objects.util.JDBCUtil;
@@ -33,10 +40,21 @@ import data_objects.util.JDBCUtil;
 public class Reader extends DORubyObject {
 
     public final static String RUBY_CLASS_NAME = "Reader";
+    private final static int INITIAL_BATCH_CAPACITY = 1024;
     ResultSet resultSet;
     Statement statement;
+    StatementCache statementCache;
+    SessionState autoCommitSession;
+    int autoCommitToken;
     List<String> fieldNames;
     List<RubyType> fieldTypes;
+    ColumnDecoder[] decoders;
+    boolean lazyRows;
+    // rows read in advance, see #bufferRows
+    private RubyArray bufferedRows;
+    private int bufferedIndex;
+    private RubyArray currentRow;
+    private Row.Fields rowFields;
     int fieldCount;
     boolean opened = false;
     RubyArray values;
@@ -99,15 +117,11 @@ public class Reader extends DORubyObject {
      */
     @JRubyMethod
     public IRubyObject close() {
-        if (resultSet != null) {
-            JDBCUtil.close(resultSet,statement);
-            resultSet = null;
-            statement = null;
-            opened = false;
-            return TRUE;
-        } else {
-            return FALSE;
-        }
+        boolean hadResultSet = hasRows();
+        // queries without results still hold on to their statement
+        release(true);
+        opened = false;
+        return hadResultSet ? TRUE : FALSE;
     }
 
     /**
@@ -117,41 +131,144 @@ public class Reader extends DORubyObject {
      */
     @JRubyMethod(name = "next!")
     public IRubyObject next() {
+        if (!hasRows()) {
+            return FALSE;
+        }
+        RubyArray row = readRow();
+        if (row == null) {
+            return FALSE;
+        }
+        values = row;
+        return TRUE;
+    }
+
+    /**
+     * Reads up to the given number of rows at once.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param limit the maximum number of rows to read
+     * @return an Array of row values, empty once all rows have been read
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject next_batch(IRubyObject limit) {
         Ruby runtime = getRuntime();
-        try {
-            if (resultSet == null) {
-                return FALSE;
+        int n = RubyNumeric.fix2int(limit);
+        if (n < 0) {
+            throw runtime.newArgumentError("negative batch size: " + n);
+        }
+        RubyArray rows = runtime.newArray(Math.min(n, INITIAL_BATCH_CAPACITY));
+        if (!hasRows()) {
+            return rows;
+        }
+        for (int i = 0; i < n; i++) {
+            RubyArray row = readRow();
+            if (row == null) {
+                break;
             }
+            values = row;
+            rows.append(row);
+        }
+        return rows;
+    }
 
-            values = runtime.newArray(fieldTypes.size());
-
-            try {
-                opened = resultSet.next();
-
-                if (!opened) {
-                    return FALSE;
-                }
-                int i = 1;
-                for(RubyType type: fieldTypes){
-                    values.append(driver.getTypecastResultSetValue(runtime, resultSet, i++, type));
+    /**
+     * Reads all remaining rows and closes the reader.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @return an Array of row values
+     */
+    @JRubyMethod
+    public IRubyObject to_a() {
+        RubyArray rows = getRuntime().newArray();
+        try {
+            if (hasRows()) {
+                RubyArray row;
+                while ((row = readRow()) != null) {
+                    rows.append(row);
                 }
+            }
+        } finally {
+            close();
+        }
+        return rows;
+    }
 
-            } catch (SQLException sqe) {
-                JDBCUtil.close(resultSet,statement);
-                throw Errors.newSqlError(runtime, driver, sqe);
-            } catch (IOException ioe) {
-                JDBCUtil.close(resultSet,statement);
-                throw Errors.newSqlError(runtime, driver, ioe.getLocalizedMessage());
+    /**
+     * Reads all remaining rows column by column and closes the reader.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @return an Array of Columns, one per field
+     */
+    @JRubyMethod
+    public IRubyObject columns() {
+        Ruby runtime = getRuntime();
+        RubyArray columns = runtime.newArray(fieldCount);
+        try {
+            if (!hasRows()) {
+                return columns;
+            }
+            ColumnStorage[] storages = new ColumnStorage[decoders.length];
+            for (int i = 0; i < storages.length; i++) {
+                storages[i] = ColumnStorage.forType(fieldTypes.get(i));
             }
+            while (advance()) {
+                for (int i = 0; i < storages.length; i++) {
+                    storages[i] = read(storages[i], i);
+                }
+            }
+            RubyModule driverModule = (RubyModule) runtime.getModule(DATA_OBJECTS_MODULE_NAME)
+                    .getConstant(driver.getModuleName());
+            RubyClass columnClass = driverModule.getClass(Column.RUBY_CLASS_NAME);
+            for (int i = 0; i < storages.length; i++) {
+                columns.append(new Column(runtime, columnClass,
+                        runtime.newString(fieldNames.get(i)), storages[i]));
+            }
+        } finally {
+            close();
+        }
+        return columns;
+    }
 
-            //TODO needed on ruby side ?
-            //api.setInstanceVariable(this, "@values", values);
-            return TRUE;
-        } catch (RuntimeException e) {
-            JDBCUtil.close(resultSet,statement);
-            e.printStackTrace();
-            throw Errors.newSqlError(runtime, driver, e.getMessage());
+    /**
+     * Yields each remaining row as a Row and closes the reader. In lazy
+     * mode, values are only converted to Ruby objects once read from the
+     * row.
+     *
+     * @param context
+     * @param block
+     * @return
+     */
+    @JRubyMethod
+    public IRubyObject each(ThreadContext context, Block block) {
+        Ruby runtime = getRuntime();
+        if (!block.isGiven()) {
+            return RubyEnumerator.enumeratorize(runtime, this, "each");
+        }
+        try {
+            if (hasRows()) {
+                RubyClass rowClass = getRowClass();
+                Row.Fields fields = getRowFields();
+                if (lazyRows && bufferedRows == null) {
+                    while (advance()) {
+                        RubyArray row = runtime.newArray(decoders.length);
+                        Object[] pending = readPending(row);
+                        block.yield(context, new Row(runtime, rowClass, fields, row, pending));
+                    }
+                } else {
+                    RubyArray row;
+                    while ((row = readRow()) != null) {
+                        values = row;
+                        block.yield(context, new Row(runtime, rowClass, fields, row, null));
+                    }
+                }
+            }
+        } finally {
+            close();
         }
+        return this;
     }
 
     /**
@@ -161,7 +278,7 @@ public class Reader extends DORubyObject {
     @JRubyMethod
     public IRubyObject values() {
         if (!opened) {
-            JDBCUtil.close(resultSet,statement);
+            release(true);
             throw Errors.newDataError(getRuntime(), "Reader is not initialized");
         }
 
@@ -218,4 +335,198 @@ public class Reader extends DORubyObject {
 
     // ------------------------------------------------- PUBLIC JAVA API METHODS
 
+    /**
+     * Reads all rows of the result set into memory and closes it, so that
+     * the rows can still be read after the statement has moved on to its
+     * next result.
+     */
+    void bufferRows() {
+        RubyArray rows = getRuntime().newArray();
+        RubyArray row;
+        while ((row = readRow()) != null) {
+            rows.append(row);
+        }
+        JDBCUtil.close(resultSet);
+        resultSet = null;
+        opened = false;
+        bufferedRows = rows;
+        bufferedIndex = 0;
+    }
+
+    // -------------------------------------------------- PRIVATE HELPER METHODS
+
+    /**
+     *
+     * @return whether there may be rows left to read
+     */
+    private boolean hasRows() {
+        return resultSet != null || bufferedRows != null;
+    }
+
+    /**
+     *
+     * @return the field names shared by the rows of this reader
+     */
+    private Row.Fields getRowFields() {
+        if (rowFields == null) {
+            rowFields = new Row.Fields(getRuntime(), fieldNames.subList(0, decoders.length),
+                    decoders);
+        }
+        return rowFields;
+    }
+
+    private RubyClass getRowClass() {
+        RubyModule driverModule = (RubyModule) getRuntime().getModule(DATA_OBJECTS_MODULE_NAME)
+                .getConstant(driver.getModuleName());
+        return driverModule.getClass(Row.RUBY_CLASS_NAME);
+    }
+
+    /**
+     * Moves the cursor forward and decodes the row it lands on.
+     *
+     * @return the values of the row, or null if there are no more rows
+     */
+    private RubyArray readRow() {
+        if (!advance()) {
+            return null;
+        }
+        if (bufferedRows != null) {
+            return currentRow;
+        }
+        RubyArray row = getRuntime().newArray(decoders.length);
+        for (int i = 0; i < decoders.length; i++) {
+            row.append(decode(i));
+        }
+        return row;
+    }
+
+    /**
+     * Fetches the JDBC values of the current row which have a deferred
+     * decoder, and decodes the others into the given array (leaving nil in
+     * place of the deferred ones).
+     *
+     * @param row
+     * @return the fetched values, null where there is nothing to convert
+     */
+    private Object[] readPending(RubyArray row) {
+        Ruby runtime = getRuntime();
+        Object[] pending = new Object[decoders.length];
+        for (int i = 0; i < decoders.length; i++) {
+            if (decoders[i] instanceof DeferredColumnDecoder) {
+                try {
+                    pending[i] = ((DeferredColumnDecoder) decoders[i]).fetch(resultSet, i + 1);
+                } catch (SQLException sqe) {
+                    release(false);
+                    throw Errors.newSqlError(runtime, driver, sqe);
+                } catch (IOException ioe) {
+                    release(false);
+                    throw Errors.newSqlError(runtime, driver, ioe.getLocalizedMessage());
+                }
+                row.append(NIL);
+            } else {
+                row.append(decode(i));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Moves the cursor forward.
+     *
+     * @return whether the cursor is on a row
+     */
+    private boolean advance() {
+        if (bufferedRows != null) {
+            opened = bufferedIndex < bufferedRows.getLength();
+            currentRow = opened ? (RubyArray) bufferedRows.eltInternal(bufferedIndex++) : null;
+            return opened;
+        }
+        try {
+            opened = resultSet.next();
+            return opened;
+        } catch (SQLException sqe) {
+            release(false);
+            throw Errors.newSqlError(getRuntime(), driver, sqe);
+        }
+    }
+
+    /**
+     *
+     * @param i the field index, starting at 0
+     * @return the value of the field in the current row
+     */
+    private IRubyObject decode(int i) {
+        if (currentRow != null) {
+            return currentRow.eltInternal(i);
+        }
+        Ruby runtime = getRuntime();
+        try {
+            return decoders[i].decode(runtime, resultSet, i + 1);
+        } catch (SQLException sqe) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, sqe);
+        } catch (IOException ioe) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, ioe.getLocalizedMessage());
+        } catch (RuntimeException e) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the value of a field in the current row to a column, reading
+     * it from the result set without decoding it first where the storage
+     * allows.
+     *
+     * @param storage
+     * @param i the field index, starting at 0
+     * @return the storage of the column from now on
+     */
+    private ColumnStorage read(ColumnStorage storage, int i) {
+        Ruby runtime = getRuntime();
+        if (currentRow != null) {
+            return storage.add(runtime, currentRow.eltInternal(i));
+        }
+        try {
+            return storage.read(runtime, resultSet, i + 1, decoders[i]);
+        } catch (SQLException sqe) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, sqe);
+        } catch (IOException ioe) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, ioe.getLocalizedMessage());
+        } catch (RuntimeException e) {
+            release(false);
+            throw Errors.newSqlError(runtime, driver, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the result set and hands the statement back to the statement
+     * cache it was taken from (or closes it, if there is no cache). Turns
+     * autocommit back on if it was turned off for streaming.
+     *
+     * @param reusable whether the statement may be executed again
+     */
+    private void release(boolean reusable) {
+        JDBCUtil.close(resultSet);
+        if (statementCache != null && statement instanceof PreparedStatement) {
+            statementCache.release((PreparedStatement) statement, reusable);
+        } else {
+            JDBCUtil.close(statement);
+        }
+        resultSet = null;
+        statement = null;
+        bufferedRows = null;
+        currentRow = null;
+        if (autoCommitSession != null) {
+            try {
+                autoCommitSession.endStreaming(autoCommitToken);
+            } catch (SQLException ignored) {
+            }
+            autoCommitSession = null;
+        }
+    }
+
 }
@@ -0,0 +1,119 @@
+package data_objects;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import data_objects.drivers.ColumnDecoder;
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * The columns of a query result as described by its ResultSetMetaData:
+ * names, JDBC types, inferred Ruby types and the decoder for each column.
+ *
+ * Plans are cached by SQL text alongside the prepared statements (see
+ * StatementCache), so that executing a query again on the same statement
+ * skips describing its columns.
+ */
+final class ResultPlan {
+
+    /**
+     * Column count as reported by the metadata
+     */
+    final int columnCount;
+
+    /**
+     * Number of columns handed to the Reader
+     */
+    final int fieldCount;
+
+    final List<String> fieldNames;
+    final int[] jdbcTypes;
+    final List<RubyType> fieldTypes;
+    final ColumnDecoder[] decoders;
+
+    private ResultPlan(int columnCount, int fieldCount, List<String> fieldNames,
+            int[] jdbcTypes, List<RubyType> fieldTypes, ColumnDecoder[] decoders) {
+        this.columnCount = columnCount;
+        this.fieldCount = fieldCount;
+        this.fieldNames = fieldNames;
+        this.jdbcTypes = jdbcTypes;
+        this.fieldTypes = fieldTypes;
+        this.decoders = decoders;
+    }
+
+    /**
+     *
+     * @param driver
+     * @param metaData
+     * @return
+     * @throws SQLException
+     */
+    static ResultPlan describe(DriverDefinition driver, ResultSetMetaData metaData)
+            throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        int fieldCount = columnCount;
+
+        // reduce columnCount by 1 if RAW_RNUM_ is present as last column
+        // (generated by DataMapper Oracle adapter to simulate LIMIT and OFFSET)
+        if (columnCount > 0 && metaData.getColumnName(columnCount).equals("RAW_RNUM_"))
+            fieldCount--;
+
+        List<String> fieldNames = new ArrayList<String>(fieldCount);
+        List<RubyType> fieldTypes = new ArrayList<RubyType>(fieldCount);
+        int[] jdbcTypes = new int[fieldCount];
+
+        for (int i = 0; i < fieldCount; i++) {
+            int col = i + 1;
+            fieldNames.add(metaData.getColumnLabel(col));
+            jdbcTypes[i] = metaData.getColumnType(col);
+            fieldTypes.add(driver.jdbcTypeToRubyType(jdbcTypes[i],
+                    metaData.getPrecision(col), metaData.getScale(col)));
+        }
+
+        return new ResultPlan(columnCount, fieldCount,
+                Collections.unmodifiableList(fieldNames), jdbcTypes,
+                Collections.unmodifiableList(fieldTypes),
+                decoders(driver, fieldTypes, jdbcTypes));
+    }
+
+    /**
+     * Tells whether this plan can be used for the given metadata. The plan
+     * is dropped with the statement it was made for, so only the column
+     * count is checked, which costs no round trip.
+     *
+     * @param metaData
+     * @return
+     * @throws SQLException
+     */
+    boolean matches(ResultSetMetaData metaData) throws SQLException {
+        return columnCount == metaData.getColumnCount();
+    }
+
+    /**
+     * Returns the decoders for the given Ruby types, which must be one per
+     * field.
+     *
+     * @param driver
+     * @param types
+     * @return
+     */
+    ColumnDecoder[] decodersFor(DriverDefinition driver, List<RubyType> types) {
+        if (types == fieldTypes || types.equals(fieldTypes)) {
+            return decoders;
+        }
+        return decoders(driver, types, jdbcTypes);
+    }
+
+    private static ColumnDecoder[] decoders(DriverDefinition driver,
+            List<RubyType> types, int[] jdbcTypes) {
+        ColumnDecoder[] decoders = new ColumnDecoder[jdbcTypes.length];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = driver.getColumnDecoder(types.get(i), jdbcTypes[i]);
+        }
+        return decoders;
+    }
+
+}
@@ -0,0 +1,305 @@
+package data_objects;
+
+import static data_objects.DataObjects.DATA_OBJECTS_MODULE_NAME;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyEnumerator;
+import org.jruby.RubyHash;
+import org.jruby.RubyInteger;
+import org.jruby.RubyModule;
+import org.jruby.RubyNumeric;
+import org.jruby.RubyObject;
+import org.jruby.RubyString;
+import org.jruby.RubySymbol;
+import org.jruby.anno.JRubyClass;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.ObjectAllocator;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.ColumnDecoder;
+import data_objects.drivers.DeferredColumnDecoder;
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * A row yielded by Reader#each.
+ *
+ * Rows hold on to the decoded values of the row and to the field names of
+ * the reader, which are shared by all rows of a reader. Values can be looked
+ * up by field name (String or Symbol) or by index.
+ *
+ * Lazy rows only hold the JDBC values of columns with a
+ * DeferredColumnDecoder, and convert each of them to a Ruby object when it
+ * is first read.
+ */
+@SuppressWarnings("serial")
+@JRubyClass(name = "Row")
+public class Row extends RubyObject {
+
+    public final static String RUBY_CLASS_NAME = "Row";
+
+    private final Fields fields;
+    private final RubyArray values;
+    private final Object[] pending;
+
+    /**
+     *
+     * @param runtime
+     * @param driver
+     * @return
+     */
+    public static RubyClass createRowClass(final Ruby runtime,
+            DriverDefinition driver) {
+        RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
+        RubyModule driverModule = (RubyModule) doModule.getConstant(driver
+                .getModuleName());
+
+        IRubyObject rowConstant = driverModule.getConstantAt(RUBY_CLASS_NAME);
+        if (rowConstant instanceof RubyClass) {
+            return (RubyClass) rowConstant;
+        }
+
+        RubyClass rowClass = driverModule.defineClassUnder(RUBY_CLASS_NAME,
+                runtime.getObject(), ObjectAllocator.NOT_ALLOCATABLE_ALLOCATOR);
+        rowClass.includeModule(runtime.getEnumerable());
+        rowClass.defineAnnotatedMethods(Row.class);
+        return rowClass;
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param klass
+     * @param fields
+     * @param values
+     * @param pending the JDBC values still to be converted (with nil in
+     * values at the same index), or null
+     */
+    Row(Ruby runtime, RubyClass klass, Fields fields, RubyArray values, Object[] pending) {
+        super(runtime, klass);
+        this.fields = fields;
+        this.values = values;
+        this.pending = pending;
+    }
+
+    /**
+     *
+     * @param key a field name or an index
+     * @return the value of the field, or nil if there is no such field
+     */
+    @JRubyMethod(name = "[]", required = 1)
+    public IRubyObject op_aref(IRubyObject key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return getRuntime().getNil();
+        }
+        return value(index);
+    }
+
+    /**
+     *
+     * @param key a field name
+     * @return
+     */
+    @JRubyMethod(name = {"key?", "has_key?", "include?", "member?"}, required = 1)
+    public IRubyObject has_key_p(IRubyObject key) {
+        return getRuntime().newBoolean(fields.indexOf(key) >= 0);
+    }
+
+    /**
+     *
+     * @return
+     */
+    @JRubyMethod(name = {"size", "length"})
+    public IRubyObject size() {
+        return getRuntime().newFixnum(values.getLength());
+    }
+
+    /**
+     *
+     * @return the field names
+     */
+    @JRubyMethod(name = {"fields", "keys"})
+    public IRubyObject fields() {
+        return fields.names.aryDup();
+    }
+
+    /**
+     *
+     * @return the field values
+     */
+    @JRubyMethod(name = {"values", "to_a"})
+    public IRubyObject to_a() {
+        convertAll();
+        return values.aryDup();
+    }
+
+    /**
+     *
+     * @return a Hash of field names to values
+     */
+    @JRubyMethod(name = {"to_h", "to_hash"})
+    public IRubyObject to_h() {
+        Ruby runtime = getRuntime();
+        RubyHash hash = RubyHash.newHash(runtime);
+        convertAll();
+        int count = values.getLength();
+        for (int i = 0; i < count; i++) {
+            hash.fastASet(fields.names.eltInternal(i), values.eltInternal(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Yields each field name and value.
+     *
+     * @param context
+     * @param block
+     * @return
+     */
+    @JRubyMethod(name = {"each", "each_pair"})
+    public IRubyObject each(ThreadContext context, Block block) {
+        if (!block.isGiven()) {
+            return RubyEnumerator.enumeratorize(getRuntime(), this, "each");
+        }
+        int count = values.getLength();
+        for (int i = 0; i < count; i++) {
+            block.yield(context, getRuntime().newArray(
+                    fields.names.eltInternal(i), value(i)));
+        }
+        return this;
+    }
+
+    /**
+     * Rows are equal to rows with the same fields and values, and to Hashes
+     * with the same contents. eql? and hash stay those of Object, so rows
+     * used as Hash keys are compared by identity.
+     *
+     * @param context
+     * @param other
+     * @return
+     */
+    @JRubyMethod(name = "==", required = 1)
+    @Override
+    public IRubyObject op_equal(ThreadContext context, IRubyObject other) {
+        if (other == this) {
+            return getRuntime().getTrue();
+        }
+        if (other instanceof Row) {
+            Row row = (Row) other;
+            if (row.fields != fields && !row.fields.names.op_equal(context, fields.names).isTrue()) {
+                return getRuntime().getFalse();
+            }
+            convertAll();
+            row.convertAll();
+            return values.op_equal(context, row.values);
+        }
+        if (other instanceof RubyHash) {
+            return ((RubyHash) to_h()).op_equal(context, other);
+        }
+        return getRuntime().getFalse();
+    }
+
+    /**
+     * @{@inheritDoc}
+     */
+    @JRubyMethod
+    @Override
+    public IRubyObject inspect() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#<").append(getMetaClass().getRealClass().getName());
+        sb.append(" ").append(to_h().inspect().asJavaString());
+        sb.append(">");
+        return getRuntime().newString(sb.toString());
+    }
+
+    /**
+     *
+     * @param index
+     * @return the value at the given index, converted on first access
+     */
+    private IRubyObject value(int index) {
+        if (pending != null && pending[index] != null) {
+            IRubyObject value = ((DeferredColumnDecoder) fields.decoders[index])
+                    .convert(getRuntime(), pending[index]);
+            values.store(index, value);
+            pending[index] = null;
+            return value;
+        }
+        return values.eltInternal(index);
+    }
+
+    private void convertAll() {
+        if (pending != null) {
+            for (int i = 0; i < pending.length; i++) {
+                value(i);
+            }
+        }
+    }
+
+    private int indexOf(IRubyObject key) {
+        if (key instanceof RubyInteger) {
+            int count = values.getLength();
+            int index = RubyNumeric.fix2int(key);
+            if (index < 0) {
+                index += count;
+            }
+            return (index < 0 || index >= count) ? -1 : index;
+        }
+        return fields.indexOf(key);
+    }
+
+    /**
+     * The field names of a reader and the index of each name, shared by all
+     * rows of the reader.
+     */
+    static final class Fields {
+
+        final RubyArray names;
+        final ColumnDecoder[] decoders;
+        private final Map<String, Integer> indexes;
+
+        /**
+         *
+         * @param runtime
+         * @param fieldNames
+         * @param decoders the decoders of the fields
+         */
+        Fields(Ruby runtime, List<String> fieldNames, ColumnDecoder[] decoders) {
+            this.decoders = decoders;
+            names = runtime.newArray(fieldNames.size());
+            indexes = new HashMap<String, Integer>(fieldNames.size() * 2);
+            for (int i = 0; i < fieldNames.size(); i++) {
+                String name = fieldNames.get(i);
+                RubyString rubyName = runtime.newString(name);
+                rubyName.setFrozen(true);
+                names.append(rubyName);
+                // like a Hash, the last of several columns with the same name wins
+                indexes.put(name, Integer.valueOf(i));
+            }
+            names.setFrozen(true);
+        }
+
+        /**
+         *
+         * @param key a field name as String or Symbol
+         * @return the index of the field, or -1
+         */
+        int indexOf(IRubyObject key) {
+            if (!(key instanceof RubyString) && !(key instanceof RubySymbol)) {
+                return -1;
+            }
+            Integer index = indexes.get(key.asJavaString());
+            return index == null ? -1 : index.intValue();
+        }
+
+    }
+
+}
@@ -0,0 +1,303 @@
+package data_objects;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import data_objects.drivers.DriverDefinition;
+
+/**
+ * The transaction state of a JDBC connection, tracked on the Java side so
+ * that setting autocommit, the isolation level or read-only mode to the
+ * value they already have costs nothing (many drivers go to the server for
+ * each of these calls).
+ *
+ * Ending a transaction leaves autocommit off; it is only turned back on
+ * when a statement is run outside a transaction (see restoreAutoCommit), so
+ * that back to back transactions do not toggle it at all.
+ *
+ * Autocommit being off does not mean a transaction is open: streaming
+ * readers turn it off too (see beginStreaming), so open transactions are
+ * tracked on their own.
+ */
+final class SessionState {
+
+    private static final int UNKNOWN = -1;
+
+    private final java.sql.Connection connection;
+    private final DriverDefinition driver;
+
+    /** null until known */
+    private Boolean autoCommit;
+    /** A transaction ended, and autocommit is still off */
+    private boolean autoCommitPending;
+    /** Whether Transaction#begin started a transaction which has not ended */
+    private boolean transactionOpen;
+    /** The number of transactions begun, for streaming readers to tell */
+    private int transactionCount;
+    private int isolation = UNKNOWN;
+    private int defaultIsolation = UNKNOWN;
+    /** null until known */
+    private Boolean readOnly;
+    private Boolean defaultReadOnly;
+    /** Whether the current transaction changed isolation or read-only mode */
+    private boolean modified;
+    private final Map<String, Savepoint> savepoints = new LinkedHashMap<String, Savepoint>();
+    private int savepointCounter;
+
+    /**
+     *
+     * @param connection
+     * @param driver
+     */
+    SessionState(java.sql.Connection connection, DriverDefinition driver) {
+        this.connection = connection;
+        this.driver = driver;
+    }
+
+    /**
+     *
+     * @return whether a transaction begun with begin is open
+     */
+    boolean inTransaction() {
+        return transactionOpen;
+    }
+
+    /**
+     *
+     * @return
+     * @throws SQLException
+     */
+    boolean getAutoCommit() throws SQLException {
+        if (autoCommit == null) {
+            autoCommit = Boolean.valueOf(connection.getAutoCommit());
+        }
+        return autoCommit.booleanValue();
+    }
+
+    /**
+     *
+     * @param value
+     * @throws SQLException
+     */
+    void setAutoCommit(boolean value) throws SQLException {
+        if (autoCommit == null || autoCommit.booleanValue() != value) {
+            // forget the value first, in case the driver fails half way
+            autoCommit = null;
+            connection.setAutoCommit(value);
+            autoCommit = Boolean.valueOf(value);
+        }
+        autoCommitPending = false;
+    }
+
+    /**
+     * Turns autocommit back on if a transaction ended since it was turned
+     * off. Called before running a statement outside of a transaction.
+     *
+     * @throws SQLException
+     */
+    void restoreAutoCommit() throws SQLException {
+        if (autoCommitPending) {
+            setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Turns autocommit off for a streaming reader, outside of a transaction.
+     *
+     * @return the token to pass to endStreaming
+     * @throws SQLException
+     */
+    int beginStreaming() throws SQLException {
+        setAutoCommit(false);
+        return transactionCount;
+    }
+
+    /**
+     * Turns autocommit back on after a streaming reader, unless a
+     * transaction was begun in the meantime; ending that transaction takes
+     * care of autocommit.
+     *
+     * @param token the value returned by beginStreaming
+     * @throws SQLException
+     */
+    void endStreaming(int token) throws SQLException {
+        if (!transactionOpen && transactionCount == token) {
+            setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Starts a transaction.
+     *
+     * @param isolationLevel one of the java.sql.Connection TRANSACTION_
+     * constants, or null for the default of the connection
+     * @param readOnlyMode or null for read-write
+     * @throws SQLException
+     */
+    void begin(Integer isolationLevel, Boolean readOnlyMode) throws SQLException {
+        // isolation and read-only mode can only be changed between transactions
+        if (isolationLevel != null) {
+            setIsolation(isolationLevel.intValue());
+        }
+        if (readOnlyMode != null) {
+            setReadOnly(readOnlyMode.booleanValue());
+        }
+        setAutoCommit(false);
+        transactionOpen = true;
+        transactionCount++;
+    }
+
+    /**
+     *
+     * @throws SQLException
+     */
+    void commit() throws SQLException {
+        try {
+            connection.commit();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     *
+     * @throws SQLException
+     */
+    void rollback() throws SQLException {
+        try {
+            connection.rollback();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Resets the connection before it goes back to a pool: rolls back an
+     * open transaction, and restores autocommit, the isolation level and
+     * read-only mode.
+     *
+     * @throws SQLException
+     */
+    void reset() throws SQLException {
+        if (inTransaction()) {
+            rollback();
+        }
+        // also ends what a streaming reader left open
+        setAutoCommit(true);
+        restoreDefaults();
+    }
+
+    /**
+     *
+     * @param name the name of the savepoint, or null to make one up
+     * @return the name of the savepoint
+     * @throws SQLException
+     */
+    String setSavepoint(String name) throws SQLException {
+        if (name == null) {
+            name = "do_savepoint_" + (++savepointCounter);
+        }
+        if (savepoints.containsKey(name)) {
+            throw new SQLException("Savepoint " + name + " already exists");
+        }
+        savepoints.put(name, connection.setSavepoint(name));
+        return name;
+    }
+
+    /**
+     *
+     * @param name
+     * @return whether there is a savepoint with the given name
+     */
+    boolean hasSavepoint(String name) {
+        return savepoints.containsKey(name);
+    }
+
+    /**
+     * Rolls back to a savepoint, which remains; savepoints set after it are
+     * gone.
+     *
+     * @param name
+     * @throws SQLException
+     */
+    void rollbackToSavepoint(String name) throws SQLException {
+        connection.rollback(savepoints.get(name));
+        forgetSavepointsAfter(name);
+    }
+
+    /**
+     * Releases a savepoint, and the ones set after it.
+     *
+     * @param name
+     * @throws SQLException
+     */
+    void releaseSavepoint(String name) throws SQLException {
+        Savepoint savepoint = savepoints.get(name);
+        forgetSavepointsAfter(name);
+        savepoints.remove(name);
+        if (driver.supportsReleaseSavepoint()) {
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+
+    private void forgetSavepointsAfter(String name) {
+        List<String> names = new ArrayList<String>(savepoints.keySet());
+        for (int i = names.indexOf(name) + 1; i < names.size(); i++) {
+            savepoints.remove(names.get(i));
+        }
+    }
+
+    private void endTransaction() throws SQLException {
+        transactionOpen = false;
+        savepoints.clear();
+        autoCommitPending = true;
+        if (modified) {
+            restoreDefaults();
+        }
+    }
+
+    private void restoreDefaults() throws SQLException {
+        if (defaultIsolation != UNKNOWN) {
+            setIsolation(defaultIsolation);
+        }
+        if (defaultReadOnly != null) {
+            setReadOnly(defaultReadOnly.booleanValue());
+        }
+        modified = false;
+    }
+
+    private void setIsolation(int level) throws SQLException {
+        if (isolation == UNKNOWN) {
+            isolation = connection.getTransactionIsolation();
+        }
+        if (defaultIsolation == UNKNOWN) {
+            defaultIsolation = isolation;
+        }
+        if (isolation != level) {
+            isolation = UNKNOWN;
+            connection.setTransactionIsolation(level);
+            isolation = level;
+            modified = true;
+        }
+    }
+
+    private void setReadOnly(boolean value) throws SQLException {
+        if (readOnly == null) {
+            readOnly = Boolean.valueOf(connection.isReadOnly());
+        }
+        if (defaultReadOnly == null) {
+            defaultReadOnly = readOnly;
+        }
+        if (readOnly.booleanValue() != value) {
+            readOnly = null;
+            connection.setReadOnly(value);
+            readOnly = Boolean.valueOf(value);
+            modified = true;
+        }
+    }
+
+}
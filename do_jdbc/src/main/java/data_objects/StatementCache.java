@@ -0,0 +1,328 @@
+package data_objects;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import data_objects.drivers.BindPlan;
+import data_objects.util.JDBCUtil;
+
+/**
+ * A bounded, least recently used cache of PreparedStatements belonging to a
+ * single JDBC connection.
+ *
+ * Statements are checked out of the cache for the duration of an execution
+ * (and for the lifetime of a Reader), so that a statement is never shared by
+ * two executions at the same time. Released statements go back to the cache;
+ * statements pushed out by newer ones are closed.
+ *
+ * The cache also keeps the bind and result plans of recently used SQL
+ * texts. Bind plans outlive their statements; a result plan is trusted only
+ * as long as its statement, and is dropped when the statement is prepared
+ * again or released after an error.
+ */
+final class StatementCache {
+
+    /**
+     * Marker for a statement property that is not passed to
+     * java.sql.Connection#prepareStatement.
+     */
+    static final int UNSPECIFIED = Integer.MIN_VALUE;
+
+    /**
+     * Lower bound for the number of plans kept, so that plans are
+     * cached even if statements are not.
+     */
+    private static final int MIN_PLANS = 64;
+
+    /**
+     * Identifies a prepared statement: the (rewritten) SQL text together with
+     * the flags it was prepared with, and the fetch size of streaming queries.
+     */
+    static final class Key {
+
+        private final String sql;
+        private final int resultSetType;
+        private final int autoGeneratedKeys;
+        private final int fetchSize;
+        private final int hash;
+
+        private Key(String sql, int resultSetType, int autoGeneratedKeys, int fetchSize) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+            this.fetchSize = fetchSize;
+            this.hash = ((sql.hashCode() * 31 + resultSetType) * 31 + autoGeneratedKeys) * 31 + fetchSize;
+        }
+
+        /**
+         * Key for a read only query with the given result set type.
+         *
+         * @param sql
+         * @param resultSetType
+         * @return
+         */
+        static Key forQuery(String sql, int resultSetType) {
+            return new Key(sql, resultSetType, UNSPECIFIED, UNSPECIFIED);
+        }
+
+        /**
+         * Key for a forward only query streaming its results with the given
+         * fetch size. The caller sets the fetch size up on the statement.
+         *
+         * @param sql
+         * @param fetchSize
+         * @return
+         */
+        static Key forStreamingQuery(String sql, int fetchSize) {
+            return new Key(sql, ResultSet.TYPE_FORWARD_ONLY, UNSPECIFIED, fetchSize);
+        }
+
+        /**
+         * Key for an update statement prepared with the given generated keys
+         * flag, or with java.sql.Connection#prepareStatement(String) if the
+         * flag is UNSPECIFIED.
+         *
+         * @param sql
+         * @param autoGeneratedKeys
+         * @return
+         */
+        static Key forUpdate(String sql, int autoGeneratedKeys) {
+            return new Key(sql, UNSPECIFIED, autoGeneratedKeys, UNSPECIFIED);
+        }
+
+        String getSql() {
+            return sql;
+        }
+
+        PreparedStatement prepare(java.sql.Connection conn) throws SQLException {
+            if (resultSetType != UNSPECIFIED) {
+                return conn.prepareStatement(sql, resultSetType, ResultSet.CONCUR_READ_ONLY);
+            } else if (autoGeneratedKeys != UNSPECIFIED) {
+                return conn.prepareStatement(sql, autoGeneratedKeys);
+            } else {
+                return conn.prepareStatement(sql);
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                    && resultSetType == other.resultSetType
+                    && autoGeneratedKeys == other.autoGeneratedKeys
+                    && fetchSize == other.fetchSize
+                    && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private final Map<PreparedStatement, Key> checkedOut =
+        new IdentityHashMap<PreparedStatement, Key>();
+    private final List<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+    private final LinkedHashMap<String, BindPlan> bindPlans;
+    private final LinkedHashMap<String, ResultPlan> resultPlans;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     *
+     * @param maxSize the maximum number of idle statements to keep, 0 disables
+     * caching altogether
+     */
+    @SuppressWarnings("serial")
+    StatementCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evicted.add(eldest.getValue());
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        int maxPlans = Math.max(maxSize * 2, MIN_PLANS);
+        this.bindPlans = newPlanMap(maxPlans);
+        this.resultPlans = newPlanMap(maxPlans);
+    }
+
+    @SuppressWarnings("serial")
+    private static <V> LinkedHashMap<String, V> newPlanMap(final int maxPlans) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxPlans;
+            }
+        };
+    }
+
+    /**
+     * Returns the bind plan for the given SQL text.
+     *
+     * @param sql
+     * @return
+     */
+    synchronized BindPlan getBindPlan(String sql) {
+        BindPlan plan = bindPlans.get(sql);
+        if (plan == null) {
+            plan = new BindPlan();
+            bindPlans.put(sql, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the result plan for the given SQL text, if there is one.
+     *
+     * @param sql
+     * @return
+     */
+    synchronized ResultPlan getResultPlan(String sql) {
+        return resultPlans.get(sql);
+    }
+
+    /**
+     *
+     * @param sql
+     * @param plan
+     */
+    synchronized void putResultPlan(String sql, ResultPlan plan) {
+        resultPlans.put(sql, plan);
+    }
+
+    /**
+     * Takes the statement for the given key out of the cache, preparing a new
+     * one on the given connection if there is none.
+     *
+     * @param conn
+     * @param key
+     * @return
+     * @throws SQLException
+     */
+    PreparedStatement checkout(java.sql.Connection conn, Key key) throws SQLException {
+        PreparedStatement ps;
+        synchronized (this) {
+            ps = statements.remove(key);
+            if (ps != null) {
+                hits++;
+                checkedOut.put(ps, key);
+                return ps;
+            }
+            misses++;
+            // a new statement may describe its columns differently
+            resultPlans.remove(key.getSql());
+        }
+        ps = key.prepare(conn);
+        synchronized (this) {
+            checkedOut.put(ps, key);
+        }
+        return ps;
+    }
+
+    /**
+     * Hands a statement obtained by #checkout back. Statements that are not
+     * reusable (e.g. after an error) are closed, as are statements which were
+     * checked out before the cache was last cleared.
+     *
+     * @param ps
+     * @param reusable
+     */
+    void release(PreparedStatement ps, boolean reusable) {
+        if (ps == null) {
+            return;
+        }
+        if (reusable && maxSize > 0) {
+            try {
+                ps.clearParameters();
+            } catch (SQLException sqle) {
+                reusable = false;
+            }
+        }
+        List<PreparedStatement> toClose = null;
+        synchronized (this) {
+            Key key = checkedOut.remove(ps);
+            if (key != null && !reusable) {
+                // e.g. a column could not be decoded as planned
+                resultPlans.remove(key.getSql());
+            }
+            if (key != null && reusable && maxSize > 0) {
+                PreparedStatement previous = statements.put(key, ps);
+                if (previous != null) {
+                    evicted.add(previous);
+                }
+                ps = null;
+            }
+            if (!evicted.isEmpty()) {
+                toClose = new ArrayList<PreparedStatement>(evicted);
+                evicted.clear();
+            }
+        }
+        JDBCUtil.close(ps);
+        if (toClose != null) {
+            for (PreparedStatement stmt : toClose) {
+                JDBCUtil.close(stmt);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle statements and forgets all plans. Statements which
+     * are checked out at the moment are closed when they are released.
+     */
+    void clear() {
+        List<PreparedStatement> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<PreparedStatement>(statements.values());
+            statements.clear();
+            checkedOut.clear();
+            bindPlans.clear();
+            resultPlans.clear();
+        }
+        for (PreparedStatement stmt : toClose) {
+            JDBCUtil.close(stmt);
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+}
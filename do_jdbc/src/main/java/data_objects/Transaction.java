@@ -6,15 +6,16 @@ import java.sql.SQLException;
 
 import org.jruby.Ruby;
 import org.jruby.RubyClass;
+import org.jruby.RubyHash;
 import org.jruby.RubyModule;
 import org.jruby.anno.JRubyClass;
 import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.ObjectAllocator;
 import org.jruby.runtime.builtin.IRubyObject;
 
 import data_objects.drivers.DriverDefinition;
 import data_objects.errors.Errors;
-import data_objects.util.JDBCUtil;
 
 /**
  * Transaction Class
@@ -28,6 +29,9 @@ public class Transaction extends DORubyObject {
 
     public final static String RUBY_CLASS_NAME = "Transaction";
 
+    /** The savepoint standing for this transaction, if it is a nested one */
+    private String nestedSavepoint;
+
     private final static ObjectAllocator TRANSACTION_ALLOCATOR = new ObjectAllocator() {
 
         public IRubyObject allocate(Ruby runtime, RubyClass klass) {
@@ -68,18 +72,43 @@ public class Transaction extends DORubyObject {
     // inherit initialize
 
     /**
-     * Begins the transaction
+     * Begins the transaction; if one is open on the connection already, it
+     * begins a nested one, which is a savepoint.
      *
+     * @param args an optional Hash of options: :isolation
+     * (:read_uncommitted, :read_committed, :repeatable_read or :serializable)
+     * and :read_only
      * @return
      */
-    @JRubyMethod
-    public IRubyObject begin() {
-        java.sql.Connection conn = getConnection();
+    @JRubyMethod(optional = 1)
+    public IRubyObject begin(IRubyObject[] args) {
+        Integer isolation = null;
+        Boolean readOnly = null;
+        if (args.length > 0 && !args[0].isNil()) {
+            RubyHash options = args[0].convertToHash();
+            IRubyObject value = options.fastARef(getRuntime().newSymbol("isolation"));
+            if (value != null && !value.isNil()) {
+                isolation = isolationLevel(value);
+            }
+            value = options.fastARef(getRuntime().newSymbol("read_only"));
+            if (value != null && !value.isNil()) {
+                readOnly = Boolean.valueOf(value.isTrue());
+            }
+        }
+
+        SessionState session = getSessionState(true);
         try {
-            conn.setAutoCommit(false);
+            if (session.inTransaction()) {
+                if (isolation != null || readOnly != null) {
+                    throw getRuntime().newArgumentError(
+                            "Can't change the isolation level or read-only mode of a nested transaction");
+                }
+                nestedSavepoint = session.setSavepoint(null);
+            } else {
+                session.begin(isolation, readOnly);
+            }
         } catch (SQLException sqle) {
-            JDBCUtil.close(conn);
-            throw Errors.newSqlError(getRuntime(), driver, sqle);
+            throw sqlError(sqle);
         }
         return getRuntime().getTrue();
     }
@@ -91,19 +120,19 @@ public class Transaction extends DORubyObject {
      */
     @JRubyMethod
     public IRubyObject commit() {
-        java.sql.Connection conn = getConnection();
+        SessionState session = getSessionState(false);
         try {
-            conn.commit();
-        } catch (SQLException sqle) {
-            JDBCUtil.close(conn);
-            throw Errors.newSqlError(getRuntime(), driver, sqle);
-        } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException sqle) {
-                JDBCUtil.close(conn);
-                throw Errors.newSqlError(getRuntime(), driver, sqle);
+            if (nestedSavepoint != null) {
+                String name = nestedSavepoint;
+                nestedSavepoint = null;
+                if (session.hasSavepoint(name)) {
+                    session.releaseSavepoint(name);
+                }
+            } else {
+                session.commit();
             }
+        } catch (SQLException sqle) {
+            throw sqlError(sqle);
         }
         return getRuntime().getTrue();
     }
@@ -115,19 +144,84 @@ public class Transaction extends DORubyObject {
      */
     @JRubyMethod
     public IRubyObject rollback() {
-        java.sql.Connection conn = getConnection();
+        SessionState session = getSessionState(false);
         try {
-            conn.rollback();
+            if (nestedSavepoint != null) {
+                String name = nestedSavepoint;
+                nestedSavepoint = null;
+                if (session.hasSavepoint(name)) {
+                    session.rollbackToSavepoint(name);
+                    session.releaseSavepoint(name);
+                }
+            } else {
+                session.rollback();
+            }
         } catch (SQLException sqle) {
-            JDBCUtil.close(conn);
-            throw Errors.newSqlError(getRuntime(), driver, sqle);
-        } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException sqle) {
-                JDBCUtil.close(conn);
-                throw Errors.newSqlError(getRuntime(), driver, sqle);
+            throw sqlError(sqle);
+        }
+        return getRuntime().getTrue();
+    }
+
+    // ------------------------------------------------ ADDITIONAL JRUBY METHODS
+
+    /**
+     * Sets a savepoint in the open transaction.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param args an optional name for the savepoint
+     * @return the name of the savepoint
+     */
+    @JRubyMethod(optional = 1)
+    public IRubyObject savepoint(IRubyObject[] args) {
+        SessionState session = getSessionState(false);
+        String name = (args.length > 0 && !args[0].isNil()) ? args[0].asJavaString() : null;
+        try {
+            if (!session.inTransaction()) {
+                throw Errors.newSqlError(getRuntime(), driver, "Savepoints can only be set in a transaction.");
             }
+            return getRuntime().newString(session.setSavepoint(name));
+        } catch (SQLException sqle) {
+            throw sqlError(sqle);
+        }
+    }
+
+    /**
+     * Rolls back to a savepoint, undoing everything done since it was set.
+     * The savepoint remains; the ones set after it are gone.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param name
+     * @return
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject rollback_to(IRubyObject name) {
+        SessionState session = getSessionState(false);
+        try {
+            session.rollbackToSavepoint(savepointName(session, name));
+        } catch (SQLException sqle) {
+            throw sqlError(sqle);
+        }
+        return getRuntime().getTrue();
+    }
+
+    /**
+     * Releases a savepoint, and the ones set after it, keeping what was done
+     * since.
+     *
+     * Not part of the DataObjects API.
+     *
+     * @param name
+     * @return
+     */
+    @JRubyMethod(required = 1)
+    public IRubyObject release(IRubyObject name) {
+        SessionState session = getSessionState(false);
+        try {
+            session.releaseSavepoint(savepointName(session, name));
+        } catch (SQLException sqle) {
+            throw sqlError(sqle);
         }
         return getRuntime().getTrue();
     }
@@ -136,21 +230,61 @@ public class Transaction extends DORubyObject {
 
     /**
      *
+     * @param reconnect whether a broken connection may be replaced, which
+     * would lose an open transaction
      * @return
      */
-    private java.sql.Connection getConnection() {
+    private SessionState getSessionState(boolean reconnect) {
         Connection connection_instance = (Connection) api.getInstanceVariable(this,
                 "@connection");
-        java.sql.Connection conn = connection_instance.getInternalConnection();
-        try {
-            if (conn == null || conn.isClosed()) {
-                throw Errors.newConnectionError(getRuntime(), "This connection has already been closed.");
-            }
-        } catch (SQLException ignored) {
-        //TODO log this
+        connection_instance.ensureUsable(reconnect);
+        return connection_instance.getSessionState();
+    }
+
+    /**
+     * The connection may have broken; it is validated before its next use.
+     *
+     * @param sqle
+     * @return
+     */
+    private RaiseException sqlError(SQLException sqle) {
+        Connection connection_instance = (Connection) api.getInstanceVariable(this,
+                "@connection");
+        connection_instance.invalidateLastUse();
+        return Errors.newSqlError(getRuntime(), driver, sqle);
+    }
+
+    /**
+     *
+     * @param session
+     * @param name
+     * @return
+     */
+    private String savepointName(SessionState session, IRubyObject name) {
+        String savepoint = name.asJavaString();
+        if (!session.hasSavepoint(savepoint)) {
+            throw getRuntime().newArgumentError("No savepoint named " + savepoint);
         }
+        return savepoint;
+    }
 
-        return conn;
+    /**
+     *
+     * @param value
+     * @return
+     */
+    private int isolationLevel(IRubyObject value) {
+        String level = value.asJavaString();
+        if (level.equals("read_uncommitted")) {
+            return java.sql.Connection.TRANSACTION_READ_UNCOMMITTED;
+        } else if (level.equals("read_committed")) {
+            return java.sql.Connection.TRANSACTION_READ_COMMITTED;
+        } else if (level.equals("repeatable_read")) {
+            return java.sql.Connection.TRANSACTION_REPEATABLE_READ;
+        } else if (level.equals("serializable")) {
+            return java.sql.Connection.TRANSACTION_SERIALIZABLE;
+        }
+        throw getRuntime().newArgumentError("Invalid isolation level: " + level);
     }
 
 }
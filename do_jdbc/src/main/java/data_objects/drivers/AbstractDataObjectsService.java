@@ -1,10 +1,14 @@
 package data_objects.drivers;
 
 
+import data_objects.Column;
 import data_objects.Command;
 import data_objects.Connection;
+import data_objects.PreparedCommand;
+import data_objects.QueryFuture;
 import data_objects.Reader;
 import data_objects.Result;
+import data_objects.Row;
 import data_objects.Transaction;
 import data_objects.drivers.DriverDefinition;
 import java.io.IOException;
@@ -41,9 +45,13 @@ public abstract class AbstractDataObjectsService implements BasicLibraryService
 
         // Define the DataObjects driver classes
         Command.createCommandClass(runtime, driver);
+        PreparedCommand.createPreparedCommandClass(runtime, driver);
         Connection.createConnectionClass(runtime, driver);
         Result.createResultClass(runtime, driver);
         Reader.createReaderClass(runtime, driver);
+        Row.createRowClass(runtime, driver);
+        Column.createColumnClass(runtime, driver);
+        QueryFuture.createFutureClass(runtime, driver);
         Transaction.createTransactionClass(runtime, driver);
 
         return true;
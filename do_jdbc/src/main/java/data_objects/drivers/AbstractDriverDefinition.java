@@ -17,19 +17,21 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jcodings.Encoding;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
+import org.jruby.Finalizable;
 import org.jruby.Ruby;
 import org.jruby.RubyBignum;
 import org.jruby.RubyClass;
 import org.jruby.RubyEncoding;
 import org.jruby.RubyFixnum;
-import org.jruby.RubyFloat;
 import org.jruby.RubyHash;
 import org.jruby.RubyInteger;
 import org.jruby.RubyNumeric;
@@ -42,6 +44,7 @@ import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.util.ByteList;
 
 import data_objects.RubyType;
+import data_objects.util.JDBCUtil;
 
 /**
  *
@@ -58,11 +61,18 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
     protected final static DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
     private final static BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
     private final static BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private final static int DEFAULT_STATEMENT_CACHE_SIZE = 32;
 
     private final String scheme;
     private final String jdbcScheme;
     private final String moduleName;
     private final Driver driver;
+    /**
+     * Drivers are shared by all runtimes, so each runtime they bind
+     * parameters in gets its own cache
+     */
+    private final ConcurrentHashMap<Ruby, RubyTypeCache> typeCaches =
+            new ConcurrentHashMap<Ruby, RubyTypeCache>();
 
     /**
      *
@@ -274,103 +284,151 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             ResultSet rs, int col, RubyType type) throws SQLException,
             IOException {
         //System.out.println(rs.getMetaData().getColumnTypeName(col) + " = " + type.toString());
+        return getColumnDecoder(type, rs.getMetaData().getColumnType(col))
+                .decode(runtime, rs, col);
+    }
+
+    /**
+     *
+     * @param type
+     * @param jdbcType
+     * @return
+     */
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType) {
         switch (type) {
         case FIXNUM:
         case INTEGER:
         case BIGNUM:
-            try {
-                // in most cases integers will fit into long type
-                // and therefore should be faster to use getLong
-                long lng = rs.getLong(col);
-                if (rs.wasNull()) {
-                    return runtime.getNil();
-                }
-                return RubyFixnum.newFixnum(runtime, lng);
-            } catch (SQLException sqle) {
-                // if getLong failed then use getBigDecimal
-                BigDecimal bdi = rs.getBigDecimal(col);
-                if (bdi == null) {
-                    return runtime.getNil();
-                }
-                // will return either Fixnum or Bignum
-                return RubyBignum.bignorm(runtime, bdi.toBigInteger());
-            }
+            return integerDecoder;
         case FLOAT:
-            // Ok, the JDBC api is tricky here. getDouble() will
-            // return 0 when the db value is NULL, that's why we use
-            // BigDecimal and go back to a double from there
-            BigDecimal bdf = rs.getBigDecimal(col);
-            if (bdf == null) {
-                return runtime.getNil();
-            }
-            return new RubyFloat(runtime, bdf.doubleValue());
+            return floatDecoder;
         case BIG_DECIMAL:
-            BigDecimal bd = rs.getBigDecimal(col);
-            if (bd  == null) {
-                return runtime.getNil();
-            }
-            return runtime.getKernel().callMethod("BigDecimal",
-                    runtime.newString(bd.toPlainString()));
+            return bigDecimalDecoder;
         case DATE:
-            java.sql.Date date = rs.getDate(col);
-            if (date == null) {
-                return runtime.getNil();
-            }
-            return prepareRubyDateFromSqlDate(runtime, date);
+            return dateDecoder;
         case DATE_TIME:
-            java.sql.Timestamp dt = null;
-            // DateTimes with all-zero components throw a SQLException with
-            // SQLState S1009 in MySQL Connector/J 3.1+
-            // See
-            // http://dev.mysql.com/doc/refman/5.0/en/connector-j-installing-upgrading.html
-            try {
-                dt = rs.getTimestamp(col);
-            } catch (SQLException ignored) {
-            }
-            if (dt == null) {
-                return runtime.getNil();
-            }
-            return prepareRubyDateTimeFromSqlTimestamp(runtime, sqlTimestampToDateTime(dt));
+            return dateTimeDecoder;
         case TIME:
-            switch (rs.getMetaData().getColumnType(col)) {
+            switch (jdbcType) {
             case Types.TIME:
-                java.sql.Time tm = rs.getTime(col);
-                if (tm == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlTime(runtime, new DateTime(tm));
+                return timeDecoder;
             case Types.TIMESTAMP:
-                java.sql.Timestamp ts = rs.getTimestamp(col);
-                if (ts == null) {
-                    return runtime.getNil();
-                }
-                RubyTime rbt = prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(ts));
-                long usec = (long) (ts.getNanos() / 1000) % 1000;
-                rbt.setUSec(usec);
-                return rbt;
+                return timestampToTimeDecoder;
             case Types.DATE:
-                java.sql.Date da = rs.getDate(col);
-                if (da == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlDate(runtime, da);
+                return dateToTimeDecoder;
             default:
-                String str = rs.getString(col);
-                if (str == null) {
-                    return runtime.getNil();
-                }
-                RubyString return_str = newUnicodeString(runtime, str);
-                return_str.setTaint(true);
-                return return_str;
+                return stringDecoder;
             }
         case TRUE_CLASS:
+            return booleanDecoder;
+        case BYTE_ARRAY:
+            return byteArrayDecoder;
+        case CLASS:
+            return classDecoder;
+        case NIL:
+            return nilDecoder;
+        case STRING:
+        default:
+            return stringDecoder;
+        }
+    }
+
+    protected final ColumnDecoder integerDecoder = new LongColumnDecoder();
+
+    protected final ColumnDecoder floatDecoder = new DoubleColumnDecoder();
+
+    protected final ColumnDecoder bigDecimalDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getBigDecimal(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            return runtime.getKernel().callMethod("BigDecimal",
+                    runtime.newString(((BigDecimal) value).toPlainString()));
+        }
+    };
+
+    protected final ColumnDecoder dateDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getDate(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            return prepareRubyDateFromSqlDate(runtime, (java.sql.Date) value);
+        }
+    };
+
+    protected final ColumnDecoder dateTimeDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) {
+            // DateTimes with all-zero components throw a SQLException with
+            // SQLState S1009 in MySQL Connector/J 3.1+
+            // See
+            // http://dev.mysql.com/doc/refman/5.0/en/connector-j-installing-upgrading.html
+            try {
+                return rs.getTimestamp(col);
+            } catch (SQLException ignored) {
+                return null;
+            }
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            return prepareRubyDateTimeFromSqlTimestamp(runtime,
+                    sqlTimestampToDateTime((java.sql.Timestamp) value));
+        }
+    };
+
+    protected final ColumnDecoder timeDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getTime(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            return prepareRubyTimeFromSqlTime(runtime, new DateTime(value));
+        }
+    };
+
+    protected final ColumnDecoder timestampToTimeDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getTimestamp(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            java.sql.Timestamp ts = (java.sql.Timestamp) value;
+            RubyTime rbt = prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(ts));
+            long usec = (long) (ts.getNanos() / 1000) % 1000;
+            rbt.setUSec(usec);
+            return rbt;
+        }
+    };
+
+    protected final ColumnDecoder dateToTimeDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getDate(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            return prepareRubyTimeFromSqlDate(runtime, (java.sql.Date) value);
+        }
+    };
+
+    protected final ColumnDecoder booleanDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             // getBoolean delivers False in case the underlying data is null
             if (rs.getString(col) == null){
                 return runtime.getNil();
             }
             return runtime.newBoolean(rs.getBoolean(col));
-        case BYTE_ARRAY:
+        }
+    };
+
+    protected final ColumnDecoder byteArrayDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col)
+                throws SQLException, IOException {
             InputStream binaryStream = rs.getBinaryStream(col);
+            if (binaryStream == null) {
+                return null;
+            }
             ByteList bytes = new ByteList(2048);
             try {
                 byte[] buf = new byte[2048];
@@ -381,31 +439,45 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             } finally {
                 binaryStream.close();
             }
+            return bytes;
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
             return API.callMethod(runtime.fastGetModule("Extlib").fastGetClass(
-                    "ByteArray"), "new", runtime.newString(bytes));
-        case CLASS:
-            String classNameStr = rs.getString(col);
-            if (classNameStr == null) {
-                return runtime.getNil();
-            }
-            RubyString class_name_str = newUnicodeString(runtime, rs.getString(col));
+                    "ByteArray"), "new", runtime.newString((ByteList) value));
+        }
+    };
+
+    protected final ColumnDecoder classDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            RubyString class_name_str = newUnicodeString(runtime, (String) value);
             class_name_str.setTaint(true);
             return API.callMethod(runtime.fastGetModule("DataObjects"), "full_const_get",
                     class_name_str);
-        case NIL:
+        }
+    };
+
+    protected final ColumnDecoder nilDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col) {
             return runtime.getNil();
-        case STRING:
-        default:
-            String str = rs.getString(col);
-            if (str == null) {
-                return runtime.getNil();
-            }
+        }
+    };
+
+    protected final ColumnDecoder stringDecoder = new DeferredColumnDecoder() {
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
 
-            RubyString return_str = newUnicodeString(runtime, str);
+        public IRubyObject convert(Ruby runtime, Object value) {
+            RubyString return_str = newUnicodeString(runtime, (String) value);
             return_str.setTaint(true);
             return return_str;
         }
-    }
+    };
 
     protected RubyString newUnicodeString(Ruby runtime, String str) {
         RubyString return_str;
@@ -431,7 +503,61 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
      */
     public void setPreparedStatementParam(PreparedStatement ps,
             IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.inferRubyType(arg)) {
+        setPreparedStatementParam(ps, arg, idx, new BindPlan());
+    }
+
+    /**
+     * Infers the RubyType of a bind parameter from its class, through the
+     * cache of its runtime.
+     *
+     * @param arg
+     * @return
+     */
+    protected RubyType inferRubyType(IRubyObject arg) {
+        RubyClass rubyClass = arg.getType();
+        RubyTypeCache cache = getTypeCache(rubyClass.getRuntime());
+        RubyType type = cache.get(rubyClass);
+        if (type == null) {
+            type = RubyType.getRubyType(rubyClass);
+            cache.put(rubyClass, type);
+        }
+        return type;
+    }
+
+    /**
+     *
+     * @param runtime
+     * @return the type cache of the given runtime, which is dropped when the
+     * runtime tears down
+     */
+    RubyTypeCache getTypeCache(final Ruby runtime) {
+        RubyTypeCache cache = typeCaches.get(runtime);
+        if (cache == null) {
+            RubyTypeCache created = new RubyTypeCache();
+            cache = typeCaches.putIfAbsent(runtime, created);
+            if (cache == null) {
+                cache = created;
+                runtime.addInternalFinalizer(new Finalizable() {
+                    public void finalize() {
+                        typeCaches.remove(runtime);
+                    }
+                });
+            }
+        }
+        return cache;
+    }
+
+    /**
+     *
+     * @param ps
+     * @param arg
+     * @param idx
+     * @param plan
+     * @throws SQLException
+     */
+    public void setPreparedStatementParam(PreparedStatement ps,
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
+        switch (inferRubyType(arg)) {
         case FIXNUM:
             ps.setLong(idx, ((RubyInteger) arg).getLongValue());
             break;
@@ -452,7 +578,7 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             ps.setBigDecimal(idx, ((BigDecimal) arg.toJava(Object.class)));
             break;
         case NIL:
-            ps.setNull(idx, ps.getParameterMetaData().getParameterType(idx));
+            ps.setNull(idx, plan.getParameterType(ps, idx, Types.NULL));
             break;
         case TRUE_CLASS:
         case FALSE_CLASS:
@@ -486,7 +612,7 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
             break;
         case OTHER:
         default:
-            int jdbcType = ps.getParameterMetaData().getParameterType(idx);
+            int jdbcType = plan.getParameterType(ps, idx, Types.VARCHAR);
             ps.setObject(idx, arg.asJavaString(), jdbcType);
         }
     }
@@ -513,6 +639,48 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
         return 0;
     }
 
+    /**
+     *
+     * @param ps
+     * @return
+     * @throws SQLException
+     */
+    public ResultSet getPreparedStatementReturnResultSet(PreparedStatement ps) throws SQLException {
+        return null;
+    }
+
+    /**
+     *
+     * @param sqlText
+     * @return
+     */
+    public boolean isReturningStatement(String sqlText) {
+        return false;
+    }
+
+    /**
+     *
+     * @param conn
+     * @param sqlText
+     * @param rows
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepareReturningBatch(Connection conn, String sqlText,
+            List<IRubyObject[]> rows) throws SQLException {
+        return null;
+    }
+
+    /**
+     *
+     * @param ps
+     * @return
+     * @throws SQLException
+     */
+    public ResultSet getReturningBatchValues(PreparedStatement ps) throws SQLException {
+        return null;
+    }
+
     /**
      *
      * @param sqlText
@@ -535,6 +703,14 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
      */
     public abstract boolean supportsJdbcScrollableResultSets();
 
+    /**
+     *
+     * @return
+     */
+    public boolean supportsBatchGeneratedKeys() {
+        return false;
+    }
+
     /**
      *
      * @return
@@ -543,6 +719,120 @@ public abstract class AbstractDriverDefinition implements DriverDefinition {
         return false;
     }
 
+    /**
+     *
+     * @return
+     */
+    public int getDefaultStatementCacheSize() {
+        return DEFAULT_STATEMENT_CACHE_SIZE;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getValidationQuery() {
+        return "SELECT 1";
+    }
+
+    /**
+     * Recognizes the SQLStates of a timeout (HYT00, HYT01, and S1T00 of
+     * older drivers) and of a cancelled query (57014), as which PostgreSQL
+     * and H2 report a timeout.
+     *
+     * @param sqle
+     * @return
+     */
+    public boolean isQueryTimeout(SQLException sqle) {
+        String sqlState = sqle.getSQLState();
+        return "HYT00".equals(sqlState) || "HYT01".equals(sqlState)
+                || "S1T00".equals(sqlState) || "57014".equals(sqlState);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean supportsReleaseSavepoint() {
+        return true;
+    }
+
+    /**
+     *
+     * @param statement
+     * @param fetchSize
+     * @throws SQLException
+     */
+    public void setStreamingFetchSize(Statement statement, int fetchSize) throws SQLException {
+        statement.setFetchSize(fetchSize);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean requiresTransactionForStreaming() {
+        return false;
+    }
+
+    /**
+     *
+     * @param conn
+     * @return
+     * @throws SQLException
+     */
+    public boolean supportsMultipleStatements(Connection conn) throws SQLException {
+        return false;
+    }
+
+    /**
+     *
+     * @param doConn
+     * @return
+     */
+    public boolean usesBackslashEscapes(IRubyObject doConn) {
+        return false;
+    }
+
+    /**
+     * Runs the statements setting up a new connection in a single round
+     * trip: as one multi-statement string if the driver supports it,
+     * otherwise as a JDBC batch.
+     *
+     * @param conn
+     * @param statements
+     * @throws SQLException
+     */
+    protected void executeSessionStatements(Connection conn, List<String> statements)
+            throws SQLException {
+        if (statements.isEmpty()) {
+            return;
+        }
+        Statement st = null;
+        try {
+            st = conn.createStatement();
+            if (statements.size() == 1) {
+                st.execute(statements.get(0));
+            } else if (supportsMultipleStatements(conn)) {
+                StringBuilder sql = new StringBuilder();
+                for (String statement : statements) {
+                    if (sql.length() > 0) {
+                        sql.append(";\n");
+                    }
+                    sql.append(statement);
+                }
+                st.execute(sql.toString());
+            } else {
+                for (String statement : statements) {
+                    st.addBatch(statement);
+                }
+                st.executeBatch();
+            }
+        } finally {
+            JDBCUtil.close(st);
+        }
+    }
+
     /**
      *
      * @return
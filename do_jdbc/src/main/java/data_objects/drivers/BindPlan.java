@@ -0,0 +1,138 @@
+package data_objects.drivers;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Parameter metadata of a SQL statement, resolved the first time it is
+ * needed and reused for every later execution of the same SQL text.
+ *
+ * Drivers which can not describe their parameters (or fail doing so) get
+ * an unknown parameter count and the fallback types passed in by the
+ * caller; the plan does not ask such a driver again.
+ *
+ * Plans may be shared between threads: racing threads at worst resolve the
+ * same metadata twice.
+ */
+public final class BindPlan {
+
+    /**
+     * Parameter count of a statement whose parameters can not be described.
+     */
+    public static final int UNKNOWN_COUNT = -1;
+
+    private static final int UNRESOLVED = Integer.MIN_VALUE;
+
+    private volatile int parameterCount = UNRESOLVED;
+    private volatile int[] parameterTypes;
+    private volatile boolean describable = true;
+
+    /**
+     *
+     * @param ps a statement prepared from the SQL text of this plan
+     * @return the number of parameters, or UNKNOWN_COUNT
+     */
+    public int getParameterCount(PreparedStatement ps) {
+        int count = parameterCount;
+        if (count == UNRESOLVED) {
+            ParameterMetaData metaData = getParameterMetaData(ps);
+            count = UNKNOWN_COUNT;
+            if (metaData != null) {
+                try {
+                    count = metaData.getParameterCount();
+                } catch (SQLException sqle) {
+                    describable = false;
+                }
+            }
+            parameterCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the JDBC type of a parameter, describing all parameters of the
+     * statement on first use.
+     *
+     * @param ps a statement prepared from the SQL text of this plan
+     * @param idx the parameter index, starting at 1
+     * @param fallbackType the type to use if the parameter can not be
+     * described
+     * @return
+     */
+    public int getParameterType(PreparedStatement ps, int idx, int fallbackType) {
+        int[] types = parameterTypes;
+        if (types == null) {
+            if (!describable) {
+                return fallbackType;
+            }
+            types = describeTypes(ps);
+            if (types == null) {
+                return fallbackType;
+            }
+            parameterTypes = types;
+        }
+        if (idx < 1 || idx > types.length || types[idx - 1] == UNRESOLVED) {
+            return fallbackType;
+        }
+        return types[idx - 1];
+    }
+
+    /**
+     *
+     * @param ps
+     * @return the types of all parameters, UNRESOLVED for those the driver
+     * could not describe, or null if it can not describe any
+     */
+    private int[] describeTypes(PreparedStatement ps) {
+        ParameterMetaData metaData = getParameterMetaData(ps);
+        if (metaData == null) {
+            return null;
+        }
+        int count = parameterCount;
+        if (count == UNRESOLVED) {
+            try {
+                count = metaData.getParameterCount();
+            } catch (SQLException sqle) {
+                count = UNKNOWN_COUNT;
+            }
+            parameterCount = count;
+        }
+        if (count == UNKNOWN_COUNT) {
+            describable = false;
+            return null;
+        }
+        int[] types = new int[count];
+        Arrays.fill(types, UNRESOLVED);
+        for (int i = 0; i < count; i++) {
+            try {
+                types[i] = metaData.getParameterType(i + 1);
+            } catch (SQLException ignored) {
+            }
+        }
+        return types;
+    }
+
+    /**
+     *
+     * @param ps
+     * @return the parameter metadata, or null if the driver can not provide it
+     */
+    private ParameterMetaData getParameterMetaData(PreparedStatement ps) {
+        if (describable) {
+            try {
+                return ps.getParameterMetaData();
+            } catch (SQLException sqle) {
+                describable = false;
+            } catch (UnsupportedOperationException uoe) {
+                describable = false;
+            } catch (AbstractMethodError ame) {
+                // JDBC 2 drivers
+                describable = false;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,31 @@
+package data_objects.drivers;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Converts the value of one result set column to a Ruby object.
+ *
+ * A decoder is chosen once per column (see
+ * DriverDefinition#getColumnDecoder) and then applied to every row, so it
+ * should not need to look at the result set metadata.
+ */
+public interface ColumnDecoder {
+
+    /**
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+            throws SQLException, IOException;
+
+}
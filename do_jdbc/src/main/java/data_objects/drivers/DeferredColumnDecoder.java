@@ -0,0 +1,57 @@
+package data_objects.drivers;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * A column decoder in two steps: fetching the JDBC value while the cursor
+ * is on the row, and converting it to a Ruby object, which lazy rows only
+ * do once the value is read.
+ *
+ * Worth it for values that are expensive to convert (dates, decimals,
+ * strings, binary data); cheap conversions stay plain ColumnDecoders.
+ */
+public abstract class DeferredColumnDecoder implements ColumnDecoder {
+
+    /**
+     *
+     * @param rs
+     * @param col
+     * @return the JDBC value of the column, or null for SQL NULL
+     * @throws SQLException
+     * @throws IOException
+     */
+    public abstract Object fetch(ResultSet rs, int col)
+            throws SQLException, IOException;
+
+    /**
+     *
+     * @param runtime
+     * @param value a value returned by fetch, never null
+     * @return
+     */
+    public abstract IRubyObject convert(Ruby runtime, Object value);
+
+    /**
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @return
+     * @throws SQLException
+     * @throws IOException
+     */
+    public final IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+            throws SQLException, IOException {
+        Object value = fetch(rs, col);
+        if (value == null) {
+            return runtime.getNil();
+        }
+        return convert(runtime, value);
+    }
+
+}
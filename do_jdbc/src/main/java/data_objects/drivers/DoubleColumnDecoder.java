@@ -0,0 +1,36 @@
+package data_objects.drivers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.RubyFloat;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Decodes floating point columns through a Java double.
+ *
+ * Column storage (see data_objects.Reader#columns) reads the double
+ * itself, without creating a Float per value.
+ */
+public final class DoubleColumnDecoder implements ColumnDecoder {
+
+    /**
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @return a Float or nil
+     * @throws SQLException
+     */
+    public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+            throws SQLException {
+        // getDouble returns 0 for NULL, hence wasNull
+        double dbl = rs.getDouble(col);
+        if (rs.wasNull()) {
+            return runtime.getNil();
+        }
+        return new RubyFloat(runtime, dbl);
+    }
+
+}
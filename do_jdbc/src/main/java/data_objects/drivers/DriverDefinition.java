@@ -9,6 +9,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -70,6 +71,16 @@ public interface DriverDefinition {
     public IRubyObject getTypecastResultSetValue(Ruby runtime, ResultSet rs,
             int col, RubyType type) throws SQLException, IOException;
 
+    /**
+     * Returns the decoder for a column of the given Ruby type and JDBC type
+     * (see java.sql.Types), which Readers apply to every row.
+     *
+     * @param type
+     * @param jdbcType
+     * @return
+     */
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType);
+
     /**
      *
      * @param ps
@@ -80,6 +91,19 @@ public interface DriverDefinition {
     public void setPreparedStatementParam(PreparedStatement ps,
             IRubyObject arg, int idx) throws SQLException;
 
+    /**
+     * Sets a parameter, looking up parameter types in the given plan rather
+     * than in the metadata of the statement.
+     *
+     * @param ps
+     * @param arg
+     * @param idx
+     * @param plan the bind plan for the SQL text of the statement
+     * @throws SQLException
+     */
+    public void setPreparedStatementParam(PreparedStatement ps,
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException;
+
     /**
      * Callback for registering output parameter
      * Necessary for Oracle INSERT ... RETURNING ... INTO ... statements
@@ -102,6 +126,52 @@ public interface DriverDefinition {
      */
     public long getPreparedStatementReturnParam(PreparedStatement ps) throws SQLException;
 
+    /**
+     * Get all values of the registered return parameter, as a result set
+     * Necessary for Oracle INSERT ... RETURNING ... INTO ... statements
+     *
+     * @param ps
+     * @throws SQLException
+     * @return the returned values, or null if the driver can only provide
+     * a single value through getPreparedStatementReturnParam
+     */
+    public ResultSet getPreparedStatementReturnResultSet(PreparedStatement ps) throws SQLException;
+
+    /**
+     * Whether the SQL text has a RETURNING ... INTO ... output parameter,
+     * which can not be used in a JDBC batch
+     *
+     * @param sqlText
+     * @return
+     */
+    public boolean isReturningStatement(String sqlText);
+
+    /**
+     * Prepares a statement executing a RETURNING ... INTO ... statement for
+     * many rows of arguments in a single round trip, by binding arrays of
+     * values
+     *
+     * @param conn
+     * @param sqlText
+     * @param rows the arguments of each row
+     * @throws SQLException
+     * @return the statement, ready to execute, or null if the rows have to
+     * be executed one by one
+     */
+    public PreparedStatement prepareReturningBatch(Connection conn, String sqlText,
+            List<IRubyObject[]> rows) throws SQLException;
+
+    /**
+     * Get the values returned by an executed statement of
+     * prepareReturningBatch
+     *
+     * @param ps
+     * @throws SQLException
+     * @return the returned values, one row per row of arguments, in the last
+     * column of the result set
+     */
+    public ResultSet getReturningBatchValues(PreparedStatement ps) throws SQLException;
+
     /**
      * Callback for doing driver specific SQL statement modification
      * Necessary for Oracle driver to replace :insert_id with ?
@@ -130,6 +200,16 @@ public interface DriverDefinition {
      */
     public boolean supportsJdbcScrollableResultSets();
 
+    /**
+     * Whether Statement#getGeneratedKeys() after executeBatch() returns one
+     * key per inserted row, in batch order. Many drivers return only the
+     * keys of the last statement, or nothing, in which case a batch reports
+     * no insert ids rather than misleading ones.
+     *
+     * @return
+     */
+    public boolean supportsBatchGeneratedKeys();
+
     /**
      * A workaround for drivers that throw a SQLException if Connection#prepareStatement(String, int)
      * is called.
@@ -138,6 +218,80 @@ public interface DriverDefinition {
      */
     public boolean supportsConnectionPrepareStatementMethodWithGKFlag();
 
+    /**
+     * The number of prepared statements each connection keeps around for
+     * reuse, unless overridden with the statement_cache_size URI query
+     * parameter. 0 disables statement caching.
+     *
+     * @return
+     */
+    public int getDefaultStatementCacheSize();
+
+    /**
+     * A cheap query run to check that a connection which has been idle for
+     * a while still works.
+     *
+     * @return
+     */
+    public String getValidationQuery();
+
+    /**
+     * Whether the given exception reports that a statement ran into its
+     * query timeout. Only asked for statements with a timeout which were not
+     * cancelled otherwise.
+     *
+     * @param sqle
+     * @return
+     */
+    public boolean isQueryTimeout(SQLException sqle);
+
+    /**
+     * Whether the Driver implements java.sql.Connection#releaseSavepoint;
+     * if not, released savepoints are just forgotten.
+     *
+     * @return
+     */
+    public boolean supportsReleaseSavepoint();
+
+    /**
+     * Sets up a forward only statement to stream its result set instead of
+     * reading all rows into memory, fetching the given number of rows per
+     * round trip where the driver supports it.
+     *
+     * @param statement
+     * @param fetchSize
+     * @throws SQLException
+     */
+    public void setStreamingFetchSize(Statement statement, int fetchSize) throws SQLException;
+
+    /**
+     * Whether the Driver only streams result sets with autocommit turned off
+     *
+     * @return
+     */
+    public boolean requiresTransactionForStreaming();
+
+    /**
+     * Whether the Driver executes several statements, separated by
+     * semicolons, in one Statement#execute call and returns one result per
+     * statement
+     *
+     * @param conn
+     * @return
+     * @throws SQLException
+     */
+    public boolean supportsMultipleStatements(Connection conn) throws SQLException;
+
+    /**
+     * Whether a backslash escapes the next character in the quoted strings
+     * of the given connection, as opposed to standard SQL where only a
+     * doubled quote does
+     *
+     * @param doConn
+     * @return
+     */
+    public boolean usesBackslashEscapes(IRubyObject doConn);
+
     /**
      * Whether the Driver supports specifying a connection encoding
      *
@@ -0,0 +1,49 @@
+package data_objects.drivers;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jruby.Ruby;
+import org.jruby.RubyBignum;
+import org.jruby.RubyFixnum;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Decodes integer columns, through a Java long where the value fits.
+ *
+ * Column storage (see data_objects.Reader#columns) reads the long itself
+ * and only calls decode for values which do not fit.
+ */
+public final class LongColumnDecoder implements ColumnDecoder {
+
+    /**
+     *
+     * @param runtime
+     * @param rs
+     * @param col
+     * @return a Fixnum, a Bignum or nil
+     * @throws SQLException
+     */
+    public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+            throws SQLException {
+        try {
+            // in most cases integers will fit into long type
+            // and therefore should be faster to use getLong
+            long lng = rs.getLong(col);
+            if (rs.wasNull()) {
+                return runtime.getNil();
+            }
+            return RubyFixnum.newFixnum(runtime, lng);
+        } catch (SQLException sqle) {
+            // if getLong failed then use getBigDecimal
+            BigDecimal bdi = rs.getBigDecimal(col);
+            if (bdi == null) {
+                return runtime.getNil();
+            }
+            // will return either Fixnum or Bignum
+            return RubyBignum.bignorm(runtime, bdi.toBigInteger());
+        }
+    }
+
+}
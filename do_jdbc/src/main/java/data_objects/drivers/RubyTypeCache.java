@@ -0,0 +1,64 @@
+package data_objects.drivers;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jruby.RubyClass;
+
+import data_objects.RubyType;
+
+/**
+ * Remembers the RubyType of each Ruby class seen while binding parameters,
+ * so that the class name does not have to be looked up for every argument.
+ *
+ * A driver keeps one cache per runtime it is loaded into (see
+ * AbstractDriverDefinition#inferRubyType), and drops it when the runtime
+ * tears down. Lookups are lock free: a cache is replaced as a whole (copy
+ * on write) when a class is added, which only happens until every class
+ * bound by an application has been seen. Anonymous classes are never
+ * cached, as their name (and so their type) is only known once they are
+ * assigned to a constant.
+ */
+final class RubyTypeCache {
+
+    /**
+     * Upper bound on the number of classes per runtime, in case classes are
+     * created dynamically.
+     */
+    static final int MAX_SIZE = 256;
+
+    private volatile Map<RubyClass, RubyType> types = new IdentityHashMap<RubyClass, RubyType>();
+
+    /**
+     *
+     * @param rubyClass
+     * @return the cached type of the given class, or null
+     */
+    RubyType get(RubyClass rubyClass) {
+        return types.get(rubyClass);
+    }
+
+    /**
+     *
+     * @param rubyClass
+     * @param type
+     */
+    void put(RubyClass rubyClass, RubyType type) {
+        if (rubyClass.getBaseName() == null) {
+            return;
+        }
+        synchronized (this) {
+            if (types.size() >= MAX_SIZE || types.containsKey(rubyClass)) {
+                return;
+            }
+            Map<RubyClass, RubyType> copy = new IdentityHashMap<RubyClass, RubyType>(types);
+            copy.put(rubyClass, type);
+            types = copy;
+        }
+    }
+
+    int size() {
+        return types.size();
+    }
+
+}
@@ -29,7 +29,8 @@ public final class Errors {
         DATA_ERROR        ("DataError"),
         INTEGRITY_ERROR   ("IntegrityError"),
         SYNTAX_ERROR      ("SyntaxError"),
-        TRANSACTION_ERROR ("TransactionError");
+        TRANSACTION_ERROR ("TransactionError"),
+        QUERY_CANCELLED_ERROR ("QueryCancelledError");
 
         private final String rubyName;
 
@@ -104,12 +105,43 @@ public final class Errors {
     public static RaiseException newSqlError(Ruby runtime,
             DriverDefinition driver, SQLException exception,
             java.sql.Statement statement) {
+        return newSqlError(runtime, driver, Type.SQL_ERROR,
+                exception.getLocalizedMessage(), exception, statement);
+    }
+
+    /**
+     * Creates a QueryCancelledError for a statement that was cancelled or
+     * timed out.
+     *
+     * The exception raised by the driver, if any, provides the code and
+     * SQL state.
+     *
+     * @param runtime
+     * @param driver
+     * @param message
+     * @param exception the exception raised by the driver, or null
+     * @param statement
+     * @return
+     */
+    public static RaiseException newQueryCancelledError(Ruby runtime,
+            DriverDefinition driver, String message, SQLException exception,
+            java.sql.Statement statement) {
+        return newSqlError(runtime, driver, Type.QUERY_CANCELLED_ERROR,
+                message, exception, statement);
+    }
+
+    private static RaiseException newSqlError(Ruby runtime,
+            DriverDefinition driver, Type type, String message,
+            SQLException exception, java.sql.Statement statement) {
         RubyModule doModule = runtime.getModule(DATA_OBJECTS_MODULE_NAME);
-        RubyClass driverError = doModule.getClass(Type.SQL_ERROR.getRubyName());
+        RubyClass driverError = doModule.getClass(type.getRubyName());
+        if (driverError == null) {
+            // older data_objects versions do not define all error classes
+            driverError = doModule.getClass(Type.SQL_ERROR.getRubyName());
+        }
 
-        String message = exception.getLocalizedMessage();
-        int code = exception.getErrorCode();
-        String sqlState = exception.getSQLState();
+        int code = (exception != null) ? exception.getErrorCode() : 0;
+        String sqlState = (exception != null) ? exception.getSQLState() : null;
         String query = "";
         String uri = null;      // TODO: implement me
 
@@ -0,0 +1,274 @@
+package data_objects.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SQL text split into literal segments and "?" placeholders.
+ *
+ * The text is scanned once; question marks inside quoted strings ('...'),
+ * quoted identifiers ("..." and `...`), dollar quoted strings ($tag$...$tag$)
+ * and comments (both -- and C style) are not placeholders. A backslash
+ * escapes the next character in E'...' strings, and in '...' and "..." too
+ * for databases treating backslashes as escapes (MySQL unless
+ * NO_BACKSLASH_ESCAPES, PostgreSQL without standard_conforming_strings).
+ * Templates are cached by SQL text, so expanding the placeholders for Array
+ * and Range arguments only walks the known placeholder positions.
+ */
+public final class SqlTemplate {
+
+    /**
+     * Arity of a placeholder which is bound to a single value and left as is.
+     */
+    public static final int SCALAR = -1;
+
+    /**
+     * Arity of a placeholder which is bound to a Range and expanded to
+     * "? AND ?".
+     */
+    public static final int RANGE = -2;
+
+    private static final int CACHE_SIZE = 1024;
+
+    private static final Map<String, SqlTemplate> CACHE = newCache();
+
+    private static final Map<String, SqlTemplate> BACKSLASH_ESCAPES_CACHE = newCache();
+
+    private final String sql;
+    private final int[] placeholders;
+
+    private SqlTemplate(String sql, int[] placeholders) {
+        this.sql = sql;
+        this.placeholders = placeholders;
+    }
+
+    @SuppressWarnings("serial")
+    private static Map<String, SqlTemplate> newCache() {
+        return new LinkedHashMap<String, SqlTemplate>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SqlTemplate> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Returns the (cached) template for the given SQL text, in which
+     * backslashes only escape characters of E'...' strings.
+     *
+     * @param sql
+     * @return
+     */
+    public static SqlTemplate compile(String sql) {
+        return compile(sql, false);
+    }
+
+    /**
+     * Returns the (cached) template for the given SQL text.
+     *
+     * @param sql
+     * @param backslashEscapes whether a backslash escapes the next character
+     * in all quoted strings
+     * @return
+     */
+    public static SqlTemplate compile(String sql, boolean backslashEscapes) {
+        Map<String, SqlTemplate> cache = backslashEscapes ? BACKSLASH_ESCAPES_CACHE : CACHE;
+        SqlTemplate template;
+        synchronized (cache) {
+            template = cache.get(sql);
+        }
+        if (template == null) {
+            template = new SqlTemplate(sql, scan(sql, backslashEscapes));
+            synchronized (cache) {
+                cache.put(sql, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     *
+     * @return the SQL text of this template
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     *
+     * @return the number of placeholders in the SQL text
+     */
+    public int getPlaceholderCount() {
+        return placeholders.length;
+    }
+
+    /**
+     * Expands the placeholders of this template: a placeholder of arity n
+     * becomes "(?,...,?)" with n question marks, one of arity RANGE becomes
+     * "? AND ?", and one of arity SCALAR stays a single "?". Arities beyond
+     * the last placeholder are ignored.
+     *
+     * @param arities the arity of each placeholder, in order
+     * @return SQL text with the placeholders expanded
+     */
+    public String expand(int[] arities) {
+        int count = Math.min(arities.length, placeholders.length);
+        StringBuilder sb = null;
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int arity = arities[i];
+            if (arity == SCALAR) {
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(sql.length() + 16);
+            }
+            int position = placeholders[i];
+            sb.append(sql, last, position);
+            if (arity == RANGE) {
+                sb.append("? AND ?");
+            } else {
+                sb.append('(');
+                for (int j = 0; j < arity; j++) {
+                    if (j > 0) {
+                        sb.append(',');
+                    }
+                    sb.append('?');
+                }
+                sb.append(')');
+            }
+            last = position + 1;
+        }
+        if (sb == null) {
+            return sql;
+        }
+        return sb.append(sql, last, sql.length()).toString();
+    }
+
+    /**
+     * Finds the positions of all placeholders in the given SQL text.
+     *
+     * @param sql
+     * @param backslashEscapes
+     * @return
+     */
+    static int[] scan(String sql, boolean backslashEscapes) {
+        int[] positions = new int[8];
+        int count = 0;
+        int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            switch (c) {
+            case '?':
+                if (count == positions.length) {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(positions, 0, grown, 0, count);
+                    positions = grown;
+                }
+                positions[count++] = i;
+                break;
+            case '\'':
+                // a doubled quote simply starts the next quoted part
+                i = skipQuoted(sql, c, i + 1, backslashEscapes || isEscapeString(sql, i));
+                break;
+            case '"':
+                i = skipQuoted(sql, c, i + 1, backslashEscapes);
+                break;
+            case '`':
+                i = skipTo(sql, "`", i + 1);
+                break;
+            case '-':
+                if (i + 1 < length && sql.charAt(i + 1) == '-') {
+                    i = skipTo(sql, "\n", i + 2);
+                }
+                break;
+            case '/':
+                if (i + 1 < length && sql.charAt(i + 1) == '*') {
+                    i = skipTo(sql, "*/", i + 2);
+                }
+                break;
+            case '$':
+                String tag = dollarQuoteTag(sql, i);
+                if (tag != null) {
+                    i = skipTo(sql, tag, i + tag.length());
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(positions, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns the index of the last character of the next occurrence of the
+     * given terminator, or the end of the text if there is none.
+     */
+    private static int skipTo(String sql, String terminator, int from) {
+        int end = sql.indexOf(terminator, from);
+        if (end < 0) {
+            return sql.length();
+        }
+        return end + terminator.length() - 1;
+    }
+
+    /**
+     * Returns the index of the closing quote of a quoted part starting at the
+     * given index, skipping characters escaped by a backslash if escapes are
+     * on, or the end of the text if the part is not closed.
+     */
+    private static int skipQuoted(String sql, char quote, int from, boolean escapes) {
+        int length = sql.length();
+        for (int i = from; i < length; i++) {
+            char c = sql.charAt(i);
+            if (c == quote) {
+                return i;
+            }
+            if (c == '\\' && escapes) {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Whether the quote at the given index opens a PostgreSQL escape string
+     * (E'...'), i.e. follows an E which is not part of an identifier.
+     */
+    private static boolean isEscapeString(String sql, int quote) {
+        if (quote == 0) {
+            return false;
+        }
+        char e = sql.charAt(quote - 1);
+        return (e == 'E' || e == 'e') && (quote == 1 || !isTagChar(sql.charAt(quote - 2)));
+    }
+
+    /**
+     * Returns the opening tag of a dollar quoted string ($$ or $tag$)
+     * starting at the given index, or null if there is none. A "$" inside an
+     * identifier or followed by a digit (e.g. a $1 style parameter) does not
+     * start a dollar quoted string.
+     */
+    private static String dollarQuoteTag(String sql, int start) {
+        if (start > 0 && isTagChar(sql.charAt(start - 1))) {
+            return null;
+        }
+        for (int i = start + 1; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '$') {
+                return sql.substring(start, i + 1);
+            }
+            if (!isTagChar(c) || (i == start + 1 && Character.isDigit(c))) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTagChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+}
@@ -0,0 +1,118 @@
+package data_objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AsyncExecutorTestCase extends TestCase {
+
+    private static final long TIMEOUT = 5;
+
+    public void testRunsTasksInOrderOneAtATime() throws Exception {
+        AsyncExecutor.SerialExecutor executor = AsyncExecutor.newSerialExecutor();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            final int n = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (running.incrementAndGet() > 1) {
+                        overlapped.set(true);
+                    }
+                    order.add(Integer.valueOf(n));
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    public void testIsBusyUntilAllTasksHaveRun() throws Exception {
+        final AsyncExecutor.SerialExecutor executor = AsyncExecutor.newSerialExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean busyInTask = new AtomicBoolean(true);
+
+        assertFalse(executor.isBusy());
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                // the thread running the queue does not wait for itself
+                busyInTask.set(executor.isBusy());
+                done.countDown();
+            }
+        });
+        assertTrue(executor.isBusy());
+
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(busyInTask.get());
+        assertTrue(executor.awaitIdle(TIMEOUT * 1000));
+        assertFalse(executor.isBusy());
+    }
+
+    public void testAwaitIdleWaitsForQueuedTasks() throws Exception {
+        AsyncExecutor.SerialExecutor executor = AsyncExecutor.newSerialExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger ran = new AtomicInteger();
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                ran.incrementAndGet();
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                ran.incrementAndGet();
+            }
+        });
+
+        assertFalse(executor.awaitIdle(50));
+        release.countDown();
+        assertTrue(executor.awaitIdle(TIMEOUT * 1000));
+        assertEquals(2, ran.get());
+    }
+
+    public void testFailingTaskDoesNotStrandTheRest() throws Exception {
+        AsyncExecutor.SerialExecutor executor = AsyncExecutor.newSerialExecutor();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("expected by the test");
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+}
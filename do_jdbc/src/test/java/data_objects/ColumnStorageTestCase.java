@@ -0,0 +1,121 @@
+package data_objects;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import org.jruby.Ruby;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyString;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.drivers.DeferredColumnDecoder;
+import data_objects.drivers.DoubleColumnDecoder;
+import data_objects.drivers.LongColumnDecoder;
+
+public class ColumnStorageTestCase extends TestCase {
+
+    private static class MyStringDecoder extends DeferredColumnDecoder {
+        private int converted;
+
+        public Object fetch(ResultSet rs, int col) throws SQLException {
+            return rs.getString(col);
+        }
+
+        public IRubyObject convert(Ruby runtime, Object value) {
+            converted++;
+            return runtime.newString((String) value);
+        }
+    }
+
+    private Mockery context;
+    private Ruby runtime;
+    private ResultSet rs;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        runtime = JavaEmbedUtils.initialize(new LinkedList());
+        rs = context.mock(ResultSet.class);
+    }
+
+    public void testReadsLongsWithoutDecoding() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(rs).getLong(1); will(returnValue(42L));
+            oneOf(rs).wasNull(); will(returnValue(false));
+            oneOf(rs).getLong(1); will(returnValue(0L));
+            oneOf(rs).wasNull(); will(returnValue(true));
+        }});
+        ColumnStorage storage = ColumnStorage.forType(RubyType.FIXNUM);
+        LongColumnDecoder decoder = new LongColumnDecoder();
+
+        storage = storage.read(runtime, rs, 1, decoder);
+        storage = storage.read(runtime, rs, 1, decoder);
+
+        assertEquals("long", storage.kind());
+        assertEquals(2, storage.size);
+        assertEquals(42L, ((RubyFixnum) storage.get(runtime, 0)).getLongValue());
+        assertTrue(storage.get(runtime, 1).isNil());
+        context.assertIsSatisfied();
+    }
+
+    public void testFallsBackForLongsTooLarge() throws Exception {
+        final BigDecimal large = new BigDecimal("123456789012345678901234567890");
+        context.checking(new Expectations() {{
+            exactly(2).of(rs).getLong(1); will(throwException(new SQLException("out of range")));
+            oneOf(rs).getBigDecimal(1); will(returnValue(large));
+        }});
+        ColumnStorage storage = ColumnStorage.forType(RubyType.INTEGER);
+
+        storage = storage.read(runtime, rs, 1, new LongColumnDecoder());
+
+        assertEquals("object", storage.kind());
+        assertEquals(large.toBigInteger().toString(), storage.get(runtime, 0).toString());
+        context.assertIsSatisfied();
+    }
+
+    public void testReadsDoublesWithoutDecoding() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(rs).getDouble(1); will(returnValue(1.5d));
+            oneOf(rs).wasNull(); will(returnValue(false));
+        }});
+        ColumnStorage storage = ColumnStorage.forType(RubyType.FLOAT);
+
+        storage = storage.read(runtime, rs, 1, new DoubleColumnDecoder());
+
+        assertEquals("double", storage.kind());
+        assertEquals(1.5d, ((RubyFloat) storage.get(runtime, 0)).getDoubleValue(), 0d);
+        context.assertIsSatisfied();
+    }
+
+    public void testConvertsEachDistinctStringOnce() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(rs).getString(1); will(returnValue("red"));
+            oneOf(rs).getString(1); will(returnValue(new String("red")));
+            oneOf(rs).getString(1); will(returnValue(null));
+            oneOf(rs).getString(1); will(returnValue("blue"));
+        }});
+        ColumnStorage storage = ColumnStorage.forType(RubyType.STRING);
+        MyStringDecoder decoder = new MyStringDecoder();
+
+        for (int i = 0; i < 4; i++) {
+            storage = storage.read(runtime, rs, 1, decoder);
+        }
+
+        assertEquals("dictionary", storage.kind());
+        assertEquals(2, decoder.converted);
+        assertSame(storage.get(runtime, 0), storage.get(runtime, 1));
+        assertTrue(storage.get(runtime, 2).isNil());
+        assertEquals("blue", ((RubyString) storage.get(runtime, 3)).toString());
+        context.assertIsSatisfied();
+    }
+
+}
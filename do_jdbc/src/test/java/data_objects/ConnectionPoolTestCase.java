@@ -0,0 +1,193 @@
+package data_objects;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import org.jruby.Ruby;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+public class ConnectionPoolTestCase extends TestCase {
+
+    private static final int VALIDATION_INTERVAL = 1000;
+
+    private static class MyFactory implements ConnectionPool.Factory {
+        private final LinkedList<Connection> connections = new LinkedList<Connection>();
+        private boolean valid = true;
+        private volatile int opened;
+        private int validated;
+
+        public Connection open(IRubyObject state) {
+            opened++;
+            return connections.removeFirst();
+        }
+
+        public boolean validate(Connection conn) {
+            validated++;
+            return valid;
+        }
+    }
+
+    private Mockery context;
+    private Ruby runtime;
+    private ThreadContext threadContext;
+    private MyFactory factory;
+    private ConnectionPool pool;
+    private final List<Connection> connections = new ArrayList<Connection>();
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        runtime = JavaEmbedUtils.initialize(new LinkedList());
+        threadContext = runtime.getCurrentContext();
+        factory = new MyFactory();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (pool != null) {
+            // the pool closes whatever connections it still has
+            context.checking(new Expectations() {{
+                for (Connection conn : connections) {
+                    allowing(conn).close();
+                }
+            }});
+            pool.shutdown();
+        }
+    }
+
+    private ConnectionPool newPool(String uri, int maxSize, int checkoutTimeout) {
+        return newPool(uri, maxSize, 0, checkoutTimeout);
+    }
+
+    private ConnectionPool newPool(String uri, int maxSize, int minIdle, int checkoutTimeout) {
+        pool = ConnectionPool.getPool(runtime, uri, factory, maxSize, minIdle,
+                VALIDATION_INTERVAL, ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_LIFETIME,
+                checkoutTimeout, 4);
+        return pool;
+    }
+
+    private Connection connection(String name) {
+        Connection conn = context.mock(Connection.class, name);
+        factory.connections.add(conn);
+        connections.add(conn);
+        return conn;
+    }
+
+    public void testReusesReleasedConnection() throws Exception {
+        connection("first");
+        ConnectionPool pool = newPool("test://reuse", 2, 0);
+
+        ConnectionPool.Entry entry = pool.borrow(threadContext);
+        pool.release(entry);
+        assertSame(entry, pool.borrow(threadContext));
+        assertEquals(1, factory.opened);
+        // used a moment ago, so it is not validated
+        assertEquals(0, factory.validated);
+        context.assertIsSatisfied();
+    }
+
+    public void testSamePoolPerUri() {
+        ConnectionPool pool = newPool("test://same", 2, 0);
+        assertSame(pool, ConnectionPool.getPool(runtime, "test://same", factory,
+                8, 0, 0, 0, 0, 0, 4));
+    }
+
+    public void testOpensConnectionsUpToMaxSize() throws Exception {
+        final Connection first = connection("first");
+        final Connection second = connection("second");
+        ConnectionPool pool = newPool("test://max-size", 2, 1);
+
+        assertSame(first, pool.borrow(threadContext).connection);
+        assertSame(second, pool.borrow(threadContext).connection);
+        // the pool is full and nothing is released within the timeout
+        assertNull(pool.borrow(threadContext));
+        assertEquals(2, factory.opened);
+        context.assertIsSatisfied();
+    }
+
+    public void testInvalidatedConnectionIsClosedAndReplaced() throws Exception {
+        final Connection broken = connection("broken");
+        final Connection replacement = connection("replacement");
+        context.checking(new Expectations() {{
+            oneOf(broken).close();
+        }});
+        ConnectionPool pool = newPool("test://invalidate", 1, 0);
+
+        pool.invalidate(pool.borrow(threadContext));
+        assertSame(replacement, pool.borrow(threadContext).connection);
+        context.assertIsSatisfied();
+    }
+
+    public void testEvictsIdleConnectionWhichFailsValidation() throws Exception {
+        final Connection stale = connection("stale");
+        final Connection fresh = connection("fresh");
+        context.checking(new Expectations() {{
+            oneOf(stale).close();
+        }});
+        ConnectionPool pool = newPool("test://validate", 1, 0);
+
+        ConnectionPool.Entry entry = pool.borrow(threadContext);
+        pool.release(entry);
+        entry.lastUsed -= VALIDATION_INTERVAL + 1;
+        factory.valid = false;
+
+        assertSame(fresh, pool.borrow(threadContext).connection);
+        assertEquals(1, factory.validated);
+        context.assertIsSatisfied();
+    }
+
+    public void testOpensMinIdleConnectionsInTheBackground() throws Exception {
+        final Connection first = connection("first");
+        final Connection second = connection("second");
+        ConnectionPool pool = newPool("test://min-idle", 2, 1, 0);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.opened < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, factory.opened);
+        assertSame(first, pool.borrow(threadContext).connection);
+
+        // borrowing the idle connection makes the pool open another one
+        deadline = System.currentTimeMillis() + 5000;
+        while (factory.opened < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertSame(second, pool.borrow(threadContext).connection);
+        assertEquals(2, factory.opened);
+        context.assertIsSatisfied();
+    }
+
+    public void testShutdownClosesAllConnections() throws Exception {
+        final Connection idle = connection("idle");
+        final Connection busy = connection("busy");
+        context.checking(new Expectations() {{
+            oneOf(idle).close();
+            oneOf(busy).close();
+        }});
+        ConnectionPool pool = newPool("test://shutdown", 2, 0);
+
+        ConnectionPool.Entry entry = pool.borrow(threadContext);
+        pool.borrow(threadContext);
+        pool.release(entry);
+        pool.shutdown();
+        this.pool = null;
+
+        try {
+            pool.borrow(threadContext);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        context.assertIsSatisfied();
+    }
+
+}
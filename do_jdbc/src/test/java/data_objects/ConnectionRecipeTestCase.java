@@ -0,0 +1,97 @@
+package data_objects;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.DriverDefinition;
+
+public class ConnectionRecipeTestCase extends TestCase {
+
+    private static class MyAbstractDriverDefinition extends AbstractDriverDefinition {
+        MyAbstractDriverDefinition(String moduleName) {
+            super("sqlite3", "sqlite", moduleName, "org.sqlite.JDBC");
+        }
+
+        public boolean supportsJdbcGeneratedKeys() {
+            return false;
+        }
+
+        public boolean supportsJdbcScrollableResultSets() {
+            return false;
+        }
+    }
+
+    private DriverDefinition driver;
+
+    @Override
+    public void setUp() {
+        driver = new MyAbstractDriverDefinition("Sqlite3");
+    }
+
+    private ConnectionRecipe recipe(String key, String encoding, Properties properties) {
+        Map<String, String> query = Collections.emptyMap();
+        return new ConnectionRecipe(key, URI.create(key), query, encoding,
+                "jdbc:" + key, properties);
+    }
+
+    public void testCachesRecipePerUri() {
+        String key = "sqlite3://cache.db";
+        assertNull(ConnectionRecipe.get(driver, key));
+
+        ConnectionRecipe recipe = recipe(key, "UTF-8", new Properties());
+        assertSame(recipe, ConnectionRecipe.put(driver, recipe));
+        assertSame(recipe, ConnectionRecipe.get(driver, key));
+        assertNull(ConnectionRecipe.get(driver, "sqlite3://other.db"));
+    }
+
+    public void testFirstRecipeWins() {
+        String key = "sqlite3://race.db";
+        ConnectionRecipe first = recipe(key, "UTF-8", new Properties());
+        ConnectionRecipe second = recipe(key, "UTF-8", new Properties());
+
+        assertSame(first, ConnectionRecipe.put(driver, first));
+        assertSame(first, ConnectionRecipe.put(driver, second));
+        assertSame(first, ConnectionRecipe.get(driver, key));
+    }
+
+    public void testRecipesAreKeptPerDriver() {
+        String key = "sqlite3://shared.db";
+        ConnectionRecipe recipe = recipe(key, "UTF-8", new Properties());
+        ConnectionRecipe.put(driver, recipe);
+
+        assertNull(ConnectionRecipe.get(new MyAbstractDriverDefinition("Other"), key));
+    }
+
+    public void testNewPropertiesAreCopies() {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        ConnectionRecipe recipe = recipe("sqlite3://copies.db", "UTF-8", properties);
+
+        Properties copy = recipe.newProperties();
+        assertEquals(properties, copy);
+        copy.setProperty("password", "secret");
+        assertFalse(recipe.newProperties().containsKey("password"));
+    }
+
+    public void testRemembersWhatTheDriverFellBackTo() {
+        Properties properties = new Properties();
+        properties.setProperty("characterEncoding", "UTF-8");
+        ConnectionRecipe recipe = recipe("sqlite3://fallback.db", "UTF-8", properties);
+
+        // the driver used the properties as they were
+        recipe.resolved(recipe.newProperties(), "ignored");
+        assertEquals("UTF-8", recipe.getEncoding());
+
+        Properties fallback = recipe.newProperties();
+        fallback.setProperty("characterEncoding", "ISO-8859-1");
+        recipe.resolved(fallback, "ISO-8859-1");
+        assertEquals("ISO-8859-1", recipe.getEncoding());
+        assertEquals("ISO-8859-1", recipe.newProperties().getProperty("characterEncoding"));
+    }
+
+}
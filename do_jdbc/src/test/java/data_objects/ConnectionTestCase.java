@@ -0,0 +1,82 @@
+package data_objects;
+
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.Block;
+
+import data_objects.drivers.AbstractDriverDefinition;
+
+public class ConnectionTestCase extends TestCase {
+
+    private static class MyAbstractDriverDefinition extends AbstractDriverDefinition {
+        private final LinkedList<java.sql.Connection> connections = new LinkedList<java.sql.Connection>();
+
+        MyAbstractDriverDefinition() {
+            super("sqlite3", "sqlite", "Reconnect", "org.sqlite.JDBC");
+        }
+
+        public boolean supportsJdbcGeneratedKeys() {
+            return false;
+        }
+
+        public boolean supportsJdbcScrollableResultSets() {
+            return false;
+        }
+
+        @Override
+        public java.sql.Connection getConnection(String uri, Properties properties)
+                throws SQLException {
+            return connections.removeFirst();
+        }
+    }
+
+    private Mockery context;
+    private Ruby runtime;
+    private MyAbstractDriverDefinition driver;
+    private RubyClass connectionClass;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        runtime = JavaEmbedUtils.initialize(new LinkedList());
+        JavaEmbedUtils.newRuntimeAdapter().eval(runtime, "require 'rubygems'\nrequire 'data_objects'\n"
+                + "module DataObjects; module Reconnect; end; end");
+        driver = new MyAbstractDriverDefinition();
+        connectionClass = Connection.createConnectionClass(runtime, driver);
+    }
+
+    private Connection connect(String uri) {
+        return (Connection) connectionClass.newInstance(runtime.getCurrentContext(),
+                runtime.newString(uri), Block.NULL_BLOCK);
+    }
+
+    public void testClosesReplacedConnectionWhenReconnecting() throws Exception {
+        final java.sql.Connection lost = context.mock(java.sql.Connection.class, "lost");
+        final java.sql.Connection replacement = context.mock(java.sql.Connection.class, "replacement");
+        driver.connections.add(lost);
+        driver.connections.add(replacement);
+        context.checking(new Expectations() {{
+            oneOf(lost).isClosed(); will(returnValue(true));
+            oneOf(lost).close();
+        }});
+
+        // validated on every use
+        Connection connection = connect("sqlite3://localhost/reconnect.db?validation_interval=0");
+        assertSame(lost, connection.getInternalConnection());
+
+        connection.ensureUsable(true);
+        assertSame(replacement, connection.getInternalConnection());
+        context.assertIsSatisfied();
+    }
+
+}
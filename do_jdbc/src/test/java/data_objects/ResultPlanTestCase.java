@@ -0,0 +1,106 @@
+package data_objects;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.DriverDefinition;
+
+public class ResultPlanTestCase extends TestCase {
+
+    private static class MyAbstractDriverDefinition extends AbstractDriverDefinition {
+        MyAbstractDriverDefinition() {
+            super("sqlite3", "sqlite", "Sqlite3", "org.sqlite.JDBC");
+        }
+
+        public boolean supportsJdbcGeneratedKeys() {
+            return false;
+        }
+
+        public boolean supportsJdbcScrollableResultSets() {
+            return false;
+        }
+    }
+
+    private Mockery context;
+    private DriverDefinition driver;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        driver = new MyAbstractDriverDefinition();
+    }
+
+    private ResultSetMetaData metaData(String name, final String[] labels, final int[] types)
+            throws SQLException {
+        final ResultSetMetaData metaData = context.mock(ResultSetMetaData.class, name);
+        context.checking(new Expectations() {{
+            allowing(metaData).getColumnCount(); will(returnValue(labels.length));
+            for (int i = 0; i < labels.length; i++) {
+                allowing(metaData).getColumnName(i + 1); will(returnValue(labels[i]));
+                allowing(metaData).getColumnLabel(i + 1); will(returnValue(labels[i]));
+                allowing(metaData).getColumnType(i + 1); will(returnValue(types[i]));
+                allowing(metaData).getPrecision(i + 1); will(returnValue(0));
+                allowing(metaData).getScale(i + 1); will(returnValue(0));
+            }
+        }});
+        return metaData;
+    }
+
+    public void testDescribe() throws Exception {
+        ResultPlan plan = ResultPlan.describe(driver, metaData("widgets",
+                new String[] { "id", "name" }, new int[] { Types.INTEGER, Types.VARCHAR }));
+
+        assertEquals(2, plan.columnCount);
+        assertEquals(2, plan.fieldCount);
+        assertEquals(Arrays.asList("id", "name"), plan.fieldNames);
+        assertEquals(Arrays.asList(RubyType.FIXNUM, RubyType.STRING), plan.fieldTypes);
+        assertEquals(2, plan.decoders.length);
+    }
+
+    public void testDescribeDropsRowNumberColumn() throws Exception {
+        ResultPlan plan = ResultPlan.describe(driver, metaData("limited",
+                new String[] { "id", "RAW_RNUM_" }, new int[] { Types.INTEGER, Types.NUMERIC }));
+
+        assertEquals(2, plan.columnCount);
+        assertEquals(1, plan.fieldCount);
+        assertEquals(Arrays.asList("id"), plan.fieldNames);
+        assertEquals(1, plan.decoders.length);
+    }
+
+    private ResultSetMetaData columnCount(String name, final int count) throws SQLException {
+        final ResultSetMetaData metaData = context.mock(ResultSetMetaData.class, name);
+        context.checking(new Expectations() {{
+            oneOf(metaData).getColumnCount(); will(returnValue(count));
+        }});
+        return metaData;
+    }
+
+    public void testMatchesOnColumnCountAlone() throws Exception {
+        ResultPlan plan = ResultPlan.describe(driver, metaData("first",
+                new String[] { "id", "name" }, new int[] { Types.INTEGER, Types.VARCHAR }));
+
+        // labels and types are not asked for again
+        assertTrue(plan.matches(columnCount("second", 2)));
+        assertFalse(plan.matches(columnCount("count", 1)));
+        context.assertIsSatisfied();
+    }
+
+    public void testDecodersForOwnTypesAreShared() throws Exception {
+        ResultPlan plan = ResultPlan.describe(driver, metaData("widgets",
+                new String[] { "id", "name" }, new int[] { Types.INTEGER, Types.VARCHAR }));
+
+        assertSame(plan.decoders, plan.decodersFor(driver,
+                Arrays.asList(RubyType.FIXNUM, RubyType.STRING)));
+        assertNotSame(plan.decoders, plan.decodersFor(driver,
+                Arrays.asList(RubyType.STRING, RubyType.STRING)));
+    }
+
+}
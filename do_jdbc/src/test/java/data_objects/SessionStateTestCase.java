@@ -0,0 +1,132 @@
+package data_objects;
+
+import java.sql.Connection;
+import java.sql.Savepoint;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+import data_objects.drivers.DriverDefinition;
+
+public class SessionStateTestCase extends TestCase {
+
+    private Mockery context;
+    private Connection conn;
+    private DriverDefinition driver;
+    private SessionState session;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        conn = context.mock(Connection.class);
+        driver = context.mock(DriverDefinition.class);
+        session = new SessionState(conn, driver);
+    }
+
+    public void testBackToBackTransactionsLeaveAutoCommitOff() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(conn).setAutoCommit(false);
+            exactly(2).of(conn).commit();
+        }});
+
+        session.begin(null, null);
+        session.commit();
+        session.begin(null, null);
+        session.commit();
+        assertFalse(session.getAutoCommit());
+        context.assertIsSatisfied();
+
+        // until a statement runs outside of a transaction
+        context.checking(new Expectations() {{
+            oneOf(conn).setAutoCommit(true);
+        }});
+        session.restoreAutoCommit();
+        session.restoreAutoCommit();
+        assertTrue(session.getAutoCommit());
+        context.assertIsSatisfied();
+    }
+
+    public void testRestoresIsolationAndReadOnlyAfterModifiedTransaction() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(conn).getTransactionIsolation(); will(returnValue(Connection.TRANSACTION_READ_COMMITTED));
+            oneOf(conn).isReadOnly(); will(returnValue(false));
+            oneOf(conn).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            oneOf(conn).setReadOnly(true);
+            oneOf(conn).setAutoCommit(false);
+            oneOf(conn).commit();
+            oneOf(conn).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            oneOf(conn).setReadOnly(false);
+        }});
+
+        session.begin(Integer.valueOf(Connection.TRANSACTION_SERIALIZABLE), Boolean.TRUE);
+        session.commit();
+        context.assertIsSatisfied();
+
+        // the next transaction with the defaults touches neither
+        context.checking(new Expectations() {{
+            oneOf(conn).rollback();
+        }});
+        session.begin(Integer.valueOf(Connection.TRANSACTION_READ_COMMITTED), Boolean.FALSE);
+        session.rollback();
+        context.assertIsSatisfied();
+    }
+
+    public void testEndStreamingRestoresAutoCommit() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(conn).setAutoCommit(false);
+            oneOf(conn).setAutoCommit(true);
+        }});
+
+        session.endStreaming(session.beginStreaming());
+        assertTrue(session.getAutoCommit());
+        context.assertIsSatisfied();
+    }
+
+    public void testEndStreamingLeavesTransactionBegunMeanwhile() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(conn).setAutoCommit(false);
+        }});
+
+        int token = session.beginStreaming();
+        session.begin(null, null);
+        session.endStreaming(token);
+        assertTrue(session.inTransaction());
+        assertFalse(session.getAutoCommit());
+        context.assertIsSatisfied();
+
+        context.checking(new Expectations() {{
+            exactly(2).of(conn).commit();
+        }});
+        session.commit();
+
+        // nor once a transaction begun meanwhile has ended
+        token = session.beginStreaming();
+        session.begin(null, null);
+        session.commit();
+        session.endStreaming(token);
+        context.assertIsSatisfied();
+    }
+
+    public void testReleasingSavepointForgetsLaterOnes() throws Exception {
+        final Savepoint outer = context.mock(Savepoint.class, "outer");
+        final Savepoint inner = context.mock(Savepoint.class, "inner");
+        context.checking(new Expectations() {{
+            oneOf(conn).setAutoCommit(false);
+            oneOf(conn).setSavepoint("outer"); will(returnValue(outer));
+            oneOf(conn).setSavepoint("inner"); will(returnValue(inner));
+            allowing(driver).supportsReleaseSavepoint(); will(returnValue(true));
+            oneOf(conn).releaseSavepoint(outer);
+        }});
+
+        session.begin(null, null);
+        session.setSavepoint("outer");
+        session.setSavepoint("inner");
+        session.releaseSavepoint("outer");
+        assertFalse(session.hasSavepoint("outer"));
+        assertFalse(session.hasSavepoint("inner"));
+        context.assertIsSatisfied();
+    }
+
+}
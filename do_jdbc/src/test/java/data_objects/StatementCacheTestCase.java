@@ -0,0 +1,190 @@
+package data_objects;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class StatementCacheTestCase extends TestCase {
+
+    private static final String SQL = "SELECT * FROM widgets WHERE id = ?";
+
+    private Mockery context;
+    private Connection conn;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        conn = context.mock(Connection.class);
+    }
+
+    private StatementCache.Key key(String sql) {
+        return StatementCache.Key.forUpdate(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public void testCheckoutMissThenHit() throws Exception {
+        final PreparedStatement ps = context.mock(PreparedStatement.class);
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(ps));
+            oneOf(ps).clearParameters();
+        }});
+        StatementCache cache = new StatementCache(4);
+
+        assertSame(ps, cache.checkout(conn, key(SQL)));
+        cache.release(ps, true);
+        assertEquals(1, cache.size());
+        assertSame(ps, cache.checkout(conn, key(SQL)));
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.size());
+        context.assertIsSatisfied();
+    }
+
+    public void testCheckedOutStatementIsNotShared() throws Exception {
+        final PreparedStatement first = context.mock(PreparedStatement.class, "first");
+        final PreparedStatement second = context.mock(PreparedStatement.class, "second");
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(first));
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(second));
+        }});
+        StatementCache cache = new StatementCache(4);
+
+        assertSame(first, cache.checkout(conn, key(SQL)));
+        assertSame(second, cache.checkout(conn, key(SQL)));
+        assertEquals(2, cache.getMisses());
+        context.assertIsSatisfied();
+    }
+
+    public void testKeysDistinguishHowStatementsArePrepared() {
+        assertEquals(key(SQL), key(new String(SQL)));
+        assertFalse(key(SQL).equals(StatementCache.Key.forUpdate(SQL, Statement.RETURN_GENERATED_KEYS)));
+        assertFalse(key(SQL).equals(StatementCache.Key.forQuery(SQL, ResultSet.TYPE_FORWARD_ONLY)));
+        assertFalse(StatementCache.Key.forQuery(SQL, ResultSet.TYPE_FORWARD_ONLY).equals(
+                StatementCache.Key.forStreamingQuery(SQL, 100)));
+    }
+
+    public void testReleaseClosesStatementsWhichAreNotReusable() throws Exception {
+        final PreparedStatement ps = context.mock(PreparedStatement.class);
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(ps));
+            oneOf(ps).close();
+        }});
+        StatementCache cache = new StatementCache(4);
+
+        cache.release(cache.checkout(conn, key(SQL)), false);
+        assertEquals(0, cache.size());
+        context.assertIsSatisfied();
+    }
+
+    public void testEvictsLeastRecentlyUsedStatement() throws Exception {
+        final PreparedStatement first = context.mock(PreparedStatement.class, "first");
+        final PreparedStatement second = context.mock(PreparedStatement.class, "second");
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement("SELECT 1", Statement.NO_GENERATED_KEYS); will(returnValue(first));
+            oneOf(conn).prepareStatement("SELECT 2", Statement.NO_GENERATED_KEYS); will(returnValue(second));
+            oneOf(first).clearParameters();
+            oneOf(second).clearParameters();
+            oneOf(first).close();
+        }});
+        StatementCache cache = new StatementCache(1);
+
+        PreparedStatement ps1 = cache.checkout(conn, key("SELECT 1"));
+        PreparedStatement ps2 = cache.checkout(conn, key("SELECT 2"));
+        cache.release(ps1, true);
+        cache.release(ps2, true);
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        context.assertIsSatisfied();
+    }
+
+    public void testZeroSizeDisablesCaching() throws Exception {
+        final PreparedStatement ps = context.mock(PreparedStatement.class);
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(ps));
+            oneOf(ps).close();
+        }});
+        StatementCache cache = new StatementCache(0);
+
+        cache.release(cache.checkout(conn, key(SQL)), true);
+        assertEquals(0, cache.size());
+        context.assertIsSatisfied();
+    }
+
+    public void testClearClosesIdleAndCheckedOutStatements() throws Exception {
+        final PreparedStatement idle = context.mock(PreparedStatement.class, "idle");
+        final PreparedStatement busy = context.mock(PreparedStatement.class, "busy");
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement("SELECT 1", Statement.NO_GENERATED_KEYS); will(returnValue(idle));
+            oneOf(conn).prepareStatement("SELECT 2", Statement.NO_GENERATED_KEYS); will(returnValue(busy));
+            oneOf(idle).clearParameters();
+            oneOf(busy).clearParameters();
+            oneOf(idle).close();
+            oneOf(busy).close();
+        }});
+        StatementCache cache = new StatementCache(4);
+
+        cache.release(cache.checkout(conn, key("SELECT 1")), true);
+        PreparedStatement ps = cache.checkout(conn, key("SELECT 2"));
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        // checked out before the clear, so it is not taken back
+        cache.release(ps, true);
+        assertEquals(0, cache.size());
+        context.assertIsSatisfied();
+    }
+
+    private ResultPlan resultPlan() throws Exception {
+        final ResultSetMetaData metaData = context.mock(ResultSetMetaData.class);
+        context.checking(new Expectations() {{
+            allowing(metaData).getColumnCount(); will(returnValue(0));
+        }});
+        return ResultPlan.describe(null, metaData);
+    }
+
+    public void testResultPlanLivesAsLongAsItsStatement() throws Exception {
+        final PreparedStatement first = context.mock(PreparedStatement.class, "first");
+        final PreparedStatement second = context.mock(PreparedStatement.class, "second");
+        context.checking(new Expectations() {{
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(first));
+            oneOf(conn).prepareStatement(SQL, Statement.NO_GENERATED_KEYS); will(returnValue(second));
+            oneOf(first).clearParameters();
+            oneOf(first).close();
+        }});
+        StatementCache cache = new StatementCache(4);
+        ResultPlan plan = resultPlan();
+
+        cache.putResultPlan(SQL, plan);
+        cache.release(cache.checkout(conn, key(SQL)), true);
+        assertNull(cache.getResultPlan(SQL));
+
+        // executed again on the cached statement
+        cache.putResultPlan(SQL, plan);
+        PreparedStatement ps = cache.checkout(conn, key(SQL));
+        assertSame(plan, cache.getResultPlan(SQL));
+
+        // e.g. a column could not be decoded
+        cache.release(ps, false);
+        assertNull(cache.getResultPlan(SQL));
+
+        cache.putResultPlan(SQL, plan);
+        cache.checkout(conn, key(SQL));
+        assertNull(cache.getResultPlan(SQL));
+        context.assertIsSatisfied();
+    }
+
+    public void testPlansOutliveStatements() throws Exception {
+        StatementCache cache = new StatementCache(0);
+        assertSame(cache.getBindPlan(SQL), cache.getBindPlan(new String(SQL)));
+        assertNull(cache.getResultPlan(SQL));
+    }
+
+}
@@ -0,0 +1,96 @@
+package data_objects.drivers;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class BindPlanTestCase extends TestCase {
+
+    private Mockery context;
+    private PreparedStatement ps;
+    private ParameterMetaData metaData;
+
+    @Override
+    public void setUp() {
+        context = new Mockery();
+        ps = context.mock(PreparedStatement.class);
+        metaData = context.mock(ParameterMetaData.class);
+    }
+
+    public void testDescribesParametersOnce() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(2).of(ps).getParameterMetaData(); will(returnValue(metaData));
+            oneOf(metaData).getParameterCount(); will(returnValue(2));
+            oneOf(metaData).getParameterType(1); will(returnValue(Types.INTEGER));
+            oneOf(metaData).getParameterType(2); will(returnValue(Types.VARCHAR));
+        }});
+        BindPlan plan = new BindPlan();
+
+        assertEquals(2, plan.getParameterCount(ps));
+        assertEquals(2, plan.getParameterCount(ps));
+        assertEquals(Types.INTEGER, plan.getParameterType(ps, 1, Types.OTHER));
+        assertEquals(Types.VARCHAR, plan.getParameterType(ps, 2, Types.OTHER));
+        assertEquals(Types.INTEGER, plan.getParameterType(ps, 1, Types.OTHER));
+        context.assertIsSatisfied();
+    }
+
+    public void testFallsBackForParametersOutOfRange() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(ps).getParameterMetaData(); will(returnValue(metaData));
+            oneOf(metaData).getParameterCount(); will(returnValue(1));
+            oneOf(metaData).getParameterType(1); will(returnValue(Types.DATE));
+        }});
+        BindPlan plan = new BindPlan();
+
+        assertEquals(Types.OTHER, plan.getParameterType(ps, 2, Types.OTHER));
+        assertEquals(Types.OTHER, plan.getParameterType(ps, 0, Types.OTHER));
+        assertEquals(Types.DATE, plan.getParameterType(ps, 1, Types.OTHER));
+        context.assertIsSatisfied();
+    }
+
+    public void testFallsBackForParametersTheDriverCanNotDescribe() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(ps).getParameterMetaData(); will(returnValue(metaData));
+            oneOf(metaData).getParameterCount(); will(returnValue(2));
+            oneOf(metaData).getParameterType(1); will(throwException(new SQLException("unknown")));
+            oneOf(metaData).getParameterType(2); will(returnValue(Types.BIGINT));
+        }});
+        BindPlan plan = new BindPlan();
+
+        assertEquals(Types.VARCHAR, plan.getParameterType(ps, 1, Types.VARCHAR));
+        assertEquals(Types.BIGINT, plan.getParameterType(ps, 2, Types.VARCHAR));
+        context.assertIsSatisfied();
+    }
+
+    public void testDoesNotAskAgainWhenMetaDataIsUnsupported() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(ps).getParameterMetaData(); will(throwException(new SQLException("not supported")));
+        }});
+        BindPlan plan = new BindPlan();
+
+        assertEquals(BindPlan.UNKNOWN_COUNT, plan.getParameterCount(ps));
+        assertEquals(BindPlan.UNKNOWN_COUNT, plan.getParameterCount(ps));
+        assertEquals(Types.TIMESTAMP, plan.getParameterType(ps, 1, Types.TIMESTAMP));
+        context.assertIsSatisfied();
+    }
+
+    public void testDoesNotAskAgainWhenCountIsUnknown() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(ps).getParameterMetaData(); will(returnValue(metaData));
+            oneOf(metaData).getParameterCount(); will(throwException(new SQLException("not supported")));
+        }});
+        BindPlan plan = new BindPlan();
+
+        assertEquals(BindPlan.UNKNOWN_COUNT, plan.getParameterCount(ps));
+        assertEquals(Types.CHAR, plan.getParameterType(ps, 1, Types.CHAR));
+        assertEquals(Types.CHAR, plan.getParameterType(ps, 2, Types.CHAR));
+        context.assertIsSatisfied();
+    }
+
+}
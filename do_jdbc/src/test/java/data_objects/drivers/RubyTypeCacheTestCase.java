@@ -0,0 +1,99 @@
+package data_objects.drivers;
+
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import data_objects.RubyType;
+
+public class RubyTypeCacheTestCase extends TestCase {
+
+    private static class MyAbstractDriverDefinition extends AbstractDriverDefinition {
+        MyAbstractDriverDefinition() {
+            super("sqlite3", "sqlite", "Sqlite3", "org.sqlite.JDBC");
+        }
+
+        public boolean supportsJdbcGeneratedKeys() {
+            return false;
+        }
+
+        public boolean supportsJdbcScrollableResultSets() {
+            return false;
+        }
+    }
+
+    private Ruby runtime;
+    private AbstractDriverDefinition driver;
+
+    @Override
+    public void setUp() {
+        runtime = JavaEmbedUtils.initialize(new LinkedList());
+        driver = new MyAbstractDriverDefinition();
+    }
+
+    @Override
+    public void tearDown() {
+        JavaEmbedUtils.terminate(runtime);
+    }
+
+    public void testMissThenHit() {
+        IRubyObject arg = runtime.newString("widget");
+        RubyTypeCache cache = driver.getTypeCache(runtime);
+        assertNull(cache.get(runtime.getString()));
+
+        assertEquals(RubyType.STRING, driver.inferRubyType(arg));
+        assertEquals(RubyType.STRING, cache.get(runtime.getString()));
+        assertEquals(1, cache.size());
+
+        assertEquals(RubyType.STRING, driver.inferRubyType(runtime.newString("gadget")));
+        assertEquals(1, cache.size());
+    }
+
+    public void testSubclassesOfKnownClasses() {
+        IRubyObject arg = runtime.evalScriptlet(
+                "class TypeCacheWidgetName < String; end; TypeCacheWidgetName.new('widget')");
+
+        assertEquals(RubyType.STRING, driver.inferRubyType(arg));
+        assertEquals(RubyType.STRING, driver.getTypeCache(runtime).get(arg.getType()));
+    }
+
+    public void testAnonymousClassesAreNotCached() {
+        IRubyObject arg = runtime.evalScriptlet("Class.new(String).new('widget')");
+
+        assertEquals(RubyType.STRING, driver.inferRubyType(arg));
+        assertNull(driver.getTypeCache(runtime).get(arg.getType()));
+    }
+
+    public void testSizeIsCapped() {
+        RubyArray args = (RubyArray) runtime.evalScriptlet("(0.." + RubyTypeCache.MAX_SIZE
+                + ").map { |i| Object.const_set(\"TypeCacheWidget#{i}\", Class.new).new }");
+        for (int i = 0; i < args.getLength(); i++) {
+            assertEquals(RubyType.OTHER, driver.inferRubyType(args.eltInternal(i)));
+        }
+
+        RubyTypeCache cache = driver.getTypeCache(runtime);
+        assertEquals(RubyTypeCache.MAX_SIZE, cache.size());
+        RubyClass last = args.eltInternal(args.getLength() - 1).getType();
+        assertNull(cache.get(last));
+    }
+
+    public void testCachePerRuntime() {
+        Ruby other = JavaEmbedUtils.initialize(new LinkedList());
+        RubyTypeCache cache = driver.getTypeCache(other);
+        try {
+            assertSame(driver.getTypeCache(runtime), driver.getTypeCache(runtime));
+            assertNotSame(driver.getTypeCache(runtime), cache);
+        } finally {
+            JavaEmbedUtils.terminate(other);
+        }
+        // dropped when the runtime tore down
+        assertNotSame(cache, driver.getTypeCache(other));
+    }
+
+}
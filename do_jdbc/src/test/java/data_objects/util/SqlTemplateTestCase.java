@@ -0,0 +1,75 @@
+package data_objects.util;
+
+import junit.framework.TestCase;
+
+public class SqlTemplateTestCase extends TestCase {
+
+    private static final int S = SqlTemplate.SCALAR;
+    private static final int R = SqlTemplate.RANGE;
+
+    public void testPlaceholderCount() {
+        assertEquals(0, SqlTemplate.compile("SELECT 1").getPlaceholderCount());
+        assertEquals(2, SqlTemplate.compile("SELECT * FROM t WHERE a = ? AND b = ?").getPlaceholderCount());
+    }
+
+    public void testIgnoresQuotedPlaceholders() {
+        assertEquals(1, SqlTemplate.compile("SELECT '?', \"?\", `?` FROM t WHERE a = ?").getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT 'it''s ?' FROM t WHERE a = ?").getPlaceholderCount());
+        assertEquals(0, SqlTemplate.compile("SELECT 'unterminated ?").getPlaceholderCount());
+    }
+
+    public void testBackslashEscapes() {
+        String sql = "SELECT 'it\\'s ?' FROM t WHERE a = ? AND b = '?'";
+        assertEquals(1, SqlTemplate.compile(sql, true).getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT \"a\\\" ?\" FROM t WHERE a = ?", true).getPlaceholderCount());
+        // without escapes the quote ends at the backslash
+        assertEquals(2, SqlTemplate.compile(sql).getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT 'C:\\' FROM t WHERE a = ?").getPlaceholderCount());
+    }
+
+    public void testEscapeStringLiterals() {
+        assertEquals(1, SqlTemplate.compile("SELECT E'it\\'s ?' FROM t WHERE a = ?").getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT e'\\'?' FROM t WHERE a = ?").getPlaceholderCount());
+        // a string after an identifier ending in E is not an escape string
+        assertEquals(1, SqlTemplate.compile("SELECT DATE'2010-01-01', 'a\\' FROM t WHERE a = ?").getPlaceholderCount());
+    }
+
+        public void testIgnoresCommentedPlaceholders() {
+        assertEquals(1, SqlTemplate.compile("SELECT a -- b = ?\nFROM t WHERE a = ?").getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT /* ? */ a FROM t WHERE a = ?").getPlaceholderCount());
+        assertEquals(1, SqlTemplate.compile("SELECT a - ? FROM t").getPlaceholderCount());
+    }
+
+    public void testIgnoresDollarQuotedPlaceholders() {
+        assertEquals(1, SqlTemplate.compile("SELECT $$?$$, $tag$ ? $tag$ WHERE a = ?").getPlaceholderCount());
+        assertEquals(2, SqlTemplate.compile("SELECT a$b FROM t WHERE a = ? AND b = ?").getPlaceholderCount());
+    }
+
+    public void testExpandScalars() {
+        String sql = "SELECT * FROM t WHERE a = ?";
+        assertSame(sql, SqlTemplate.compile(sql).expand(new int[] { S }));
+    }
+
+    public void testExpandArraysAndRanges() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM t WHERE a IN ? AND b BETWEEN ? AND c = ?");
+        assertEquals("SELECT * FROM t WHERE a IN (?,?,?) AND b BETWEEN ? AND ? AND c = ?",
+                template.expand(new int[] { 3, R, S }));
+        assertEquals("SELECT * FROM t WHERE a IN (?) AND b BETWEEN ? AND c = ?",
+                template.expand(new int[] { 1, S, S }));
+    }
+
+    public void testExpandSkipsQuotedPlaceholders() {
+        SqlTemplate template = SqlTemplate.compile("SELECT '?' FROM t WHERE a IN ?");
+        assertEquals("SELECT '?' FROM t WHERE a IN (?,?)", template.expand(new int[] { 2 }));
+    }
+
+    public void testExpandIgnoresSurplusArities() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM t WHERE a IN ?");
+        assertEquals("SELECT * FROM t WHERE a IN (?,?)", template.expand(new int[] { 2, 2 }));
+    }
+
+    public void testCompileIsCached() {
+        String sql = "SELECT * FROM t WHERE a = ?";
+        assertSame(SqlTemplate.compile(sql), SqlTemplate.compile(new String(sql)));
+    }
+}
@@ -1,11 +1,28 @@
 package do_mysql;
 
+import java.io.IOException;
+
+import org.jruby.Ruby;
+
 import data_objects.drivers.AbstractDataObjectsService;
 import data_objects.drivers.DriverDefinition;
 
 public class DoMysqlService extends AbstractDataObjectsService {
 
-    private final static DriverDefinition driver = new MySqlDriverDefinition();
+    final static DriverDefinition driver = new MySqlDriverDefinition();
+
+    /**
+     *
+     * @param runtime
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public boolean basicLoad(final Ruby runtime) throws IOException {
+        super.basicLoad(runtime);
+        MySqlLoadData.defineLoadDataMethods(runtime, driver);
+        return true;
+    }
 
     /**
      *
@@ -1,11 +1,12 @@
 package do_mysql;
 
-import java.io.IOException;
+import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Map;
 import java.util.Properties;
 
 import org.jruby.Ruby;
@@ -13,6 +14,8 @@ import org.jruby.runtime.builtin.IRubyObject;
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.BindPlan;
+import data_objects.drivers.ColumnDecoder;
 
 import java.sql.DriverManager;
 import java.util.regex.Matcher;
@@ -35,41 +38,38 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
 
     /**
      *
-     * @param runtime
-     * @param rs
-     * @param col
      * @param type
+     * @param jdbcType
      * @return
-     * @throws SQLException
-     * @throws IOException
      */
     @Override
-    public IRubyObject getTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
-        switch (type) {
-        case FIXNUM:
-            switch (rs.getMetaData().getColumnType(col)) {
-            case Types.TINYINT:
-                boolean bool = rs.getBoolean(col);
-                return runtime.newBoolean(bool);
-            }
-        default:
-            return super.getTypecastResultSetValue(runtime, rs, col, type);
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType) {
+        if (type == RubyType.FIXNUM && jdbcType == Types.TINYINT) {
+            return tinyIntDecoder;
         }
+        return super.getColumnDecoder(type, jdbcType);
     }
 
+    private final ColumnDecoder tinyIntDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
+            boolean bool = rs.getBoolean(col);
+            return runtime.newBoolean(bool);
+        }
+    };
+
     /**
      *
      * @param ps
      * @param arg
      * @param idx
+     * @param plan
      * @throws SQLException
      */
     @Override
     public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.inferRubyType(arg)) {
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
+        switch (inferRubyType(arg)) {
         case NIL:
             // XXX ps.getParameterMetaData().getParameterType(idx) produces
             // com.mysql.jdbc.ResultSetMetaData:397:in `getField': java.lang.NullPointerException
@@ -77,7 +77,7 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
             ps.setNull(idx, Types.NULL);
             break;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            super.setPreparedStatementParam(ps, arg, idx, plan);
         }
     }
 
@@ -101,6 +101,50 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
         return true;
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public boolean supportsBatchGeneratedKeys()
+    {
+        return true;
+    }
+
+    /**
+     * Connector/J streams a result set row by row if the fetch size is
+     * Integer.MIN_VALUE. Only with useCursorFetch=true does it use a server
+     * side cursor honoring the actual fetch size.
+     *
+     * @param statement
+     * @param fetchSize
+     * @throws SQLException
+     */
+    @Override
+    public void setStreamingFetchSize(Statement statement, int fetchSize) throws SQLException {
+        java.sql.Connection conn = statement.getConnection();
+        if (conn instanceof com.mysql.jdbc.Connection
+                && ((com.mysql.jdbc.Connection) conn).getUseCursorFetch()) {
+            statement.setFetchSize(fetchSize);
+        } else {
+            statement.setFetchSize(Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Connector/J only accepts several statements in one call with
+     * allowMultiQueries=true.
+     *
+     * @param conn
+     * @return
+     * @throws SQLException
+     */
+    @Override
+    public boolean supportsMultipleStatements(java.sql.Connection conn) throws SQLException {
+        return conn instanceof com.mysql.jdbc.Connection
+                && ((com.mysql.jdbc.Connection) conn).getAllowMultiQueries();
+    }
+
     /**
      *
      * @return
@@ -132,6 +176,39 @@ public class MySqlDriverDefinition extends AbstractDriverDefinition {
         return props;
     }
 
+    /**
+     * Remembers whether the session treats backslashes as escapes, which it
+     * does unless NO_BACKSLASH_ESCAPES is in the sql_mode: either the one of
+     * the default properties, or the server default when the
+     * sessionVariables are given in the URI.
+     *
+     * @param doConn
+     * @param conn
+     * @param query
+     * @throws SQLException
+     */
+    @Override
+    public void afterConnectionCallback(IRubyObject doConn, Connection conn,
+            Map<String, String> query) throws SQLException {
+        String sessionVariables = (query != null) ? query.get("sessionVariables") : null;
+        boolean backslashEscapes = sessionVariables != null
+                && !sessionVariables.toUpperCase().contains("NO_BACKSLASH_ESCAPES");
+        getObjectAdapter().setInstanceVariable(doConn, "@backslash_escapes",
+                doConn.getRuntime().newBoolean(backslashEscapes));
+    }
+
+    /**
+     *
+     * @param doConn
+     * @return
+     */
+    @Override
+    public boolean usesBackslashEscapes(IRubyObject doConn) {
+        IRubyObject backslashEscapes = getObjectAdapter().getInstanceVariable(doConn,
+                "@backslash_escapes");
+        return backslashEscapes != null && backslashEscapes.isTrue();
+    }
+
     /**
      *
      * @param props
@@ -0,0 +1,323 @@
+package do_mysql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
+import org.jruby.util.IOInputStream;
+
+import data_objects.Connection;
+import data_objects.Result;
+import data_objects.drivers.DriverDefinition;
+import data_objects.errors.Errors;
+import data_objects.util.JDBCUtil;
+
+/**
+ * Bulk loading with LOAD DATA LOCAL INFILE, defined as Connection#load_data
+ * on DataObjects::Mysql::Connection.
+ *
+ * The data is streamed to the server through
+ * com.mysql.jdbc.Statement#setLocalInfileInputStream, so no temporary file
+ * is written.
+ *
+ * Not part of the DataObjects API.
+ */
+public final class MySqlLoadData {
+
+    private final static String UTF8_ENCODING = "UTF-8";
+
+    private final static DriverDefinition driver = DoMysqlService.driver;
+
+    private MySqlLoadData() {
+    }
+
+    /**
+     * Defines the bulk load methods on the Connection class of the driver.
+     *
+     * @param runtime
+     * @param driver
+     */
+    static void defineLoadDataMethods(Ruby runtime, DriverDefinition driver) {
+        RubyClass connectionClass = Connection.createConnectionClass(runtime, driver);
+        connectionClass.defineAnnotatedMethods(MySqlLoadData.class);
+    }
+
+    /**
+     * Loads rows into a table with LOAD DATA LOCAL INFILE.
+     *
+     * The data is either an IO (or any object responding to read), whose
+     * contents are sent as they are, or an Enumerable yielding rows: a row
+     * is an Array of values, or a String holding the already encoded row
+     * (including the line terminator). Rows use the default format of LOAD
+     * DATA: tab separated fields, newline terminated lines, with \N for
+     * NULL.
+     *
+     * Local infile loading is enabled for the duration of the load only.
+     *
+     * @param context
+     * @param recv the connection
+     * @param args the table, the columns (an Array of names, or nil for all
+     * columns) and the data
+     * @return a Result with the number of rows loaded as affected_rows, and
+     * the messages of the warnings reported by the server as warnings
+     */
+    @JRubyMethod(required = 3)
+    public static IRubyObject load_data(ThreadContext context, IRubyObject recv,
+            IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        Connection connection = (Connection) recv;
+        String sql = "LOAD DATA LOCAL INFILE 'data_objects' INTO TABLE "
+                + quoteTable(args[0]) + " CHARACTER SET utf8" + quoteColumns(args[1]);
+
+        connection.beforeStatement();
+        java.sql.Connection conn = connection.getInternalConnection();
+        if (!(conn instanceof com.mysql.jdbc.Connection)) {
+            throw Errors.newSqlError(runtime, driver,
+                    "LOAD DATA LOCAL INFILE is not supported by connections of type "
+                    + conn.getClass().getName());
+        }
+        com.mysql.jdbc.Connection mysqlConn = (com.mysql.jdbc.Connection) conn;
+
+        RowInputStream rows = null;
+        InputStream data;
+        IRubyObject source = args[2];
+        if (source.respondsTo("read")) {
+            data = new IOInputStream(source);
+        } else {
+            rows = new RowInputStream(context, source);
+            data = rows;
+        }
+
+        boolean allowLocalInfile = mysqlConn.getAllowLoadLocalInfile();
+        com.mysql.jdbc.Statement statement = null;
+        try {
+            mysqlConn.setAllowLoadLocalInfile(true);
+            statement = (com.mysql.jdbc.Statement) conn.createStatement();
+            statement.setLocalInfileInputStream(data);
+            int count = statement.executeUpdate(sql);
+
+            RubyArray warnings = runtime.newArray();
+            for (SQLWarning w = statement.getWarnings(); w != null; w = w.getNextWarning()) {
+                warnings.append(runtime.newString(w.getMessage()));
+            }
+            IRubyObject result = Result.createResultClass(runtime, driver).callMethod(context, "new",
+                    new IRubyObject[] { recv, runtime.newFixnum(count), runtime.getNil() });
+            driver.getObjectAdapter().setInstanceVariable(result, "@warnings", warnings);
+            return result;
+        } catch (SQLException sqle) {
+            if (rows != null && rows.error != null) {
+                // the driver reports errors reading the data as a failed load
+                throw rows.error;
+            }
+            throw Errors.newSqlError(runtime, driver, sqle, statement);
+        } finally {
+            JDBCUtil.close(statement);
+            mysqlConn.setAllowLoadLocalInfile(allowLocalInfile);
+        }
+    }
+
+    /**
+     *
+     * @param table a table name, optionally qualified by the database
+     * @return
+     */
+    static String quoteTable(IRubyObject table) {
+        String[] parts = table.asJavaString().split("\\.");
+        StringBuilder quoted = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                quoted.append('.');
+            }
+            quoted.append(quoteIdentifier(parts[i]));
+        }
+        return quoted.toString();
+    }
+
+    /**
+     *
+     * @param columns an Array of column names, or nil
+     * @return
+     */
+    static String quoteColumns(IRubyObject columns) {
+        if (columns.isNil()) {
+            return "";
+        }
+        RubyArray names = columns.convertToArray();
+        StringBuilder quoted = new StringBuilder(" (");
+        for (int i = 0; i < names.getLength(); i++) {
+            if (i > 0) {
+                quoted.append(", ");
+            }
+            quoted.append(quoteIdentifier(names.eltInternal(i).asJavaString()));
+        }
+        return quoted.append(')').toString();
+    }
+
+    private static String quoteIdentifier(String name) {
+        if (name.startsWith("`") && name.endsWith("`") && name.length() > 1) {
+            return name;
+        }
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    /**
+     * Encodes the rows of an Enumerable as the driver reads them.
+     *
+     * Arrays are read by index, other Enumerables through an Enumerator.
+     * Ruby errors raised while reading are kept in error, and reported to
+     * the driver as an IOException, which makes it end the load cleanly.
+     */
+    private static final class RowInputStream extends InputStream {
+
+        private final ThreadContext context;
+        private final RubyArray array;
+        private final IRubyObject enumerator;
+        private final StringBuilder line = new StringBuilder();
+        private int index;
+        private byte[] buffer = new byte[0];
+        private int begin;
+        private int end;
+        private boolean done;
+        RaiseException error;
+
+        RowInputStream(ThreadContext context, IRubyObject source) {
+            this.context = context;
+            if (source instanceof RubyArray) {
+                array = (RubyArray) source;
+                enumerator = null;
+            } else {
+                array = null;
+                enumerator = source.callMethod(context, "to_enum");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer[begin++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, end - begin);
+            System.arraycopy(buffer, begin, b, off, count);
+            begin += count;
+            return count;
+        }
+
+        /**
+         *
+         * @return whether there are bytes left to read
+         * @throws IOException
+         */
+        private boolean fill() throws IOException {
+            while (begin == end) {
+                if (done) {
+                    return false;
+                }
+                try {
+                    IRubyObject row = nextRow();
+                    if (row == null) {
+                        done = true;
+                        return false;
+                    }
+                    encode(row);
+                } catch (RaiseException re) {
+                    error = re;
+                    done = true;
+                    throw new IOException(re.getMessage());
+                }
+            }
+            return true;
+        }
+
+        /**
+         *
+         * @return the next row, or null at the end
+         */
+        private IRubyObject nextRow() {
+            if (array != null) {
+                return (index < array.getLength()) ? array.eltInternal(index++) : null;
+            }
+            try {
+                return enumerator.callMethod(context, "next");
+            } catch (RaiseException re) {
+                RubyClass stopIteration = context.getRuntime().getClass("StopIteration");
+                if (stopIteration != null && stopIteration.isInstance(re.getException())) {
+                    return null;
+                }
+                throw re;
+            }
+        }
+
+        private void encode(IRubyObject row) {
+            Ruby runtime = context.getRuntime();
+            if (row instanceof RubyString) {
+                ByteList bytes = ((RubyString) row).getByteList();
+                buffer = bytes.getUnsafeBytes();
+                begin = bytes.getBegin();
+                end = begin + bytes.getRealSize();
+                return;
+            }
+            if (!(row instanceof RubyArray)) {
+                throw runtime.newTypeError("expected an Array or a String for a row, got "
+                        + row.getMetaClass().getName());
+            }
+            RubyArray values = (RubyArray) row;
+            line.setLength(0);
+            for (int i = 0; i < values.getLength(); i++) {
+                if (i > 0) {
+                    line.append('\t');
+                }
+                appendValue(values.eltInternal(i));
+            }
+            line.append('\n');
+            try {
+                buffer = line.toString().getBytes(UTF8_ENCODING);
+            } catch (UnsupportedEncodingException uee) {
+                throw runtime.newRuntimeError(uee.getLocalizedMessage());
+            }
+            begin = 0;
+            end = buffer.length;
+        }
+
+        private void appendValue(IRubyObject value) {
+            if (value.isNil()) {
+                line.append("\\N");
+                return;
+            }
+            String text = value.asString().getUnicodeValue();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                case '\\': line.append("\\\\"); break;
+                case '\t': line.append("\\t"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\0': line.append("\\0"); break;
+                default: line.append(c);
+                }
+            }
+        }
+    }
+
+}
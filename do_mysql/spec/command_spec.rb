@@ -5,5 +5,9 @@ require 'data_objects/spec/shared/command_spec'
 
 describe DataObjects::Mysql::Command do
   it_should_behave_like 'a Command'
+  it_should_behave_like 'a Command with prepare' if JRUBY
+  it_should_behave_like 'a Command with batches' if JRUBY
+  it_should_behave_like 'a Command with futures' if JRUBY
+  it_should_behave_like 'a Command with timeouts' if JRUBY
   it_should_behave_like 'a Command with async'
 end
@@ -3,6 +3,7 @@
 require File.expand_path(File.join(File.dirname(__FILE__), 'spec_helper'))
 require 'data_objects/spec/shared/connection_spec'
 require 'cgi'
+require 'stringio'
 
 describe DataObjects::Mysql::Connection do
 
@@ -20,6 +21,11 @@ describe DataObjects::Mysql::Connection do
   it_should_behave_like 'a Connection with authentication support'
   it_should_behave_like 'a Connection allowing default database'
   it_should_behave_like 'a Connection with JDBC URL support' if JRUBY
+  it_should_behave_like 'a Connection with a statement cache' if JRUBY
+  it_should_behave_like 'a Connection with pipelines' if JRUBY
+  it_should_behave_like 'a Connection with a pool' if JRUBY
+  it_should_behave_like 'a Connection with validation' if JRUBY
+  it_should_behave_like 'a Connection with savepoints' if JRUBY
   it_should_behave_like 'a Connection with SSL support' unless JRUBY
   it_should_behave_like 'a Connection via JDNI' if JRUBY
 
@@ -61,4 +67,49 @@ describe DataObjects::Mysql::Connection do
 
   end
 
+  describe 'load_data' do
+
+    before do
+      setup_test_environment
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @connection.create_command('DELETE FROM users').execute_non_query
+    end
+
+    after do
+      @connection.close
+    end
+
+    def user_names
+      @connection.create_command('SELECT name FROM users ORDER BY id').execute_reader.map { |row| row['name'] }
+    end
+
+    it 'should load rows from an Enumerable' do
+      result = @connection.load_data('users', ['name'], [ ['Bob'], ["Tab\tand\\backslash"], [nil] ])
+      result.affected_rows.should == 3
+      result.warnings.should == []
+      user_names.should == ['Bob', "Tab\tand\\backslash", nil]
+    end
+
+    it 'should load rows from an IO' do
+      result = @connection.load_data('users', ['id', 'name'], StringIO.new("1\tAlice\n2\tCarol\n"))
+      result.affected_rows.should == 2
+      user_names.should == ['Alice', 'Carol']
+    end
+
+    it 'should report warnings' do
+      result = @connection.load_data('users', ['id'], [ ['not a number'] ])
+      result.warnings.should_not be_empty
+    end
+
+    it 'should raise errors of the data source' do
+      rows = Object.new
+      def rows.each
+        yield ['Bob']
+        raise ArgumentError, 'bad row'
+      end
+      lambda { @connection.load_data('users', ['name'], rows) }.should raise_error(ArgumentError)
+      @connection.create_command('SELECT 1').execute_reader.to_a.size.should == 1
+    end
+  end if JRUBY
+
 end
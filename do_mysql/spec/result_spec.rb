@@ -41,3 +41,47 @@ describe DataObjects::Mysql::Result do
 
   end
 end
+
+describe DataObjects::Mysql::Result do
+
+  describe 'insert_ids of a batch' do
+
+    before do
+      setup_test_environment
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @result = @connection.create_command('INSERT INTO users (name) VALUES (?)').
+        execute_batch([['Alice'], ['Bob'], ['Carol']])
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should return the key of every row, in order' do
+      first = @result.insert_ids.first
+      @result.insert_ids.should == [first, first + 1, first + 2]
+    end
+
+  end
+
+  describe 'insert_ids of a multi-row INSERT' do
+
+    before do
+      setup_test_environment
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @result = @connection.create_command('INSERT INTO users (name) VALUES (?), (?)').
+        execute_non_query('Alice', 'Bob')
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should return the key of every row, with the first as insert_id' do
+      @result.insert_ids.should == [@result.insert_id, @result.insert_id + 1]
+      @result.affected_rows.should == 2
+    end
+
+  end
+
+end if JRUBY
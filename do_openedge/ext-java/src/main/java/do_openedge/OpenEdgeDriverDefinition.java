@@ -38,6 +38,15 @@ public class OpenEdgeDriverDefinition extends AbstractDriverDefinition {
         super(URI_SCHEME, JDBC_URI_SCHEME, RUBY_MODULE_NAME, JDBC_DRIVER);
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String getValidationQuery() {
+        return "SELECT 1 FROM SYSPROGRESS.SYSCALCTABLE";
+    }
+
     /**
      *
      * Verified by checking that
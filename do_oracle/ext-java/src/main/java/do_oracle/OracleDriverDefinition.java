@@ -1,9 +1,10 @@
 package do_oracle;
 
-import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.URI;
 
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
@@ -12,18 +13,24 @@ import java.sql.SQLException;
 import java.sql.Types;
 import oracle.jdbc.OraclePreparedStatement;
 import oracle.jdbc.OracleTypes;
+import oracle.sql.ARRAY;
+import oracle.sql.ArrayDescriptor;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.jruby.Ruby;
-import org.jruby.runtime.builtin.IRubyObject;
 import org.jruby.RubyString;
+import org.jruby.runtime.builtin.IRubyObject;
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.BindPlan;
+import data_objects.drivers.ColumnDecoder;
 import data_objects.util.JDBCUtil;
 
 public class OracleDriverDefinition extends AbstractDriverDefinition {
@@ -37,6 +44,21 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
     /**
      *
      */
+    private final static Pattern RETURNING_INTO = Pattern.compile(
+            "^\\s*INSERT.+RETURNING.+INTO\\s+", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The INSERT and the returned expression of an INSERT ... RETURNING ...
+     * INTO statement with a single output parameter
+     */
+    private final static Pattern BATCH_RETURNING_INTO = Pattern.compile(
+            "^\\s*(INSERT.+?)\\s+RETURNING\\s+(.+?)\\s+INTO\\s+(?:\\?|:insert_id)\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final static String NUMBER_LIST = "SYS.ODCINUMBERLIST";
+    private final static String VARCHAR2_LIST = "SYS.ODCIVARCHAR2LIST";
+    private final static int MAX_VARCHAR2_BYTES = 4000;
+
     public OracleDriverDefinition() {
         super(URI_SCHEME, JDBC_URI_SCHEME, RUBY_MODULE_NAME, JDBC_DRIVER);
     }
@@ -80,60 +102,56 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
 
     /**
      *
-     * @param runtime
-     * @param rs
-     * @param col
      * @param type
+     * @param jdbcType
      * @return
-     * @throws SQLException
-     * @throws IOException
      */
     @Override
-    public IRubyObject getTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType) {
         switch (type) {
         case TIME:
-            switch (rs.getMetaData().getColumnType(col)) {
+            switch (jdbcType) {
             case OracleTypes.DATE:
             case OracleTypes.TIMESTAMP:
             case OracleTypes.TIMESTAMPTZ:
             case OracleTypes.TIMESTAMPLTZ:
-                java.sql.Timestamp dt = rs.getTimestamp(col);
-                if (dt == null) {
-                    return runtime.getNil();
-                }
-                return prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(dt));
+                return oracleTimeDecoder;
             default:
-                String str = rs.getString(col);
-                if (str == null) {
-                    return runtime.getNil();
-                }
-                RubyString return_str = newUnicodeString(runtime, str);
-                return_str.setTaint(true);
-                return return_str;
+                return stringDecoder;
             }
         default:
-            return super.getTypecastResultSetValue(runtime, rs, col, type);
+            return super.getColumnDecoder(type, jdbcType);
         }
     }
 
+    private final ColumnDecoder oracleTimeDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
+            java.sql.Timestamp dt = rs.getTimestamp(col);
+            if (dt == null) {
+                return runtime.getNil();
+            }
+            return prepareRubyTimeFromSqlTime(runtime, sqlTimestampToDateTime(dt));
+        }
+    };
+
     /**
      *
      * @param ps
      * @param arg
      * @param idx
+     * @param plan
      * @throws SQLException
      */
     @Override
     public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.inferRubyType(arg)) {
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
+        switch (inferRubyType(arg)) {
         case NIL:
             ps.setNull(idx, Types.NULL);
             break;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            super.setPreparedStatementParam(ps, arg, idx, plan);
         }
     }
 
@@ -148,9 +166,7 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
     @Override
     public boolean registerPreparedStatementReturnParam(String sqlText, PreparedStatement ps, int idx) throws SQLException {
         OraclePreparedStatement ops = (OraclePreparedStatement) ps;
-        Pattern p = Pattern.compile("^\\s*INSERT.+RETURNING.+INTO\\s+", Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(sqlText);
-        if (m.find()) {
+        if (isReturningStatement(sqlText)) {
             ops.registerReturnParameter(idx, Types.BIGINT);
             return true;
         }
@@ -178,6 +194,158 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
         }
     }
 
+    /**
+     *
+     * @param ps
+     * @return
+     * @throws SQLException
+     */
+    @Override
+    public ResultSet getPreparedStatementReturnResultSet(PreparedStatement ps) throws SQLException {
+        return ((OraclePreparedStatement) ps).getReturnResultSet();
+    }
+
+    /**
+     *
+     * @param sqlText
+     * @return
+     */
+    @Override
+    public boolean isReturningStatement(String sqlText) {
+        return RETURNING_INTO.matcher(sqlText).find();
+    }
+
+    /**
+     * Rewrites an INSERT ... RETURNING ... INTO ... statement into an
+     * anonymous PL/SQL block inserting all rows with FORALL, with the values
+     * of each column bound as one SQL collection (SYS.ODCINUMBERLIST or
+     * SYS.ODCIVARCHAR2LIST), and the returned values collected with BULK
+     * COLLECT.
+     *
+     * Only single returned numeric values, and columns of numbers or of
+     * strings of up to 4000 bytes can be bound this way.
+     *
+     * @param conn
+     * @param sqlText
+     * @param rows
+     * @return
+     * @throws SQLException
+     */
+    @Override
+    public PreparedStatement prepareReturningBatch(Connection conn, String sqlText,
+            List<IRubyObject[]> rows) throws SQLException {
+        Matcher m = BATCH_RETURNING_INTO.matcher(sqlText);
+        if (!m.matches() || m.group(2).indexOf(',') >= 0) {
+            return null;
+        }
+
+        // replace the ? placeholders outside of literals with collection elements
+        String insert = m.group(1);
+        StringBuilder body = new StringBuilder();
+        int columnCount = 0;
+        boolean inLiteral = false;
+        for (int i = 0; i < insert.length(); i++) {
+            char c = insert.charAt(i);
+            if (c == '\'') {
+                inLiteral = !inLiteral;
+            }
+            if (c == '?' && !inLiteral) {
+                body.append("do_arg").append(++columnCount).append("(do_i)");
+            } else {
+                body.append(c);
+            }
+        }
+        if (columnCount == 0) {
+            return null;
+        }
+
+        String[] types = new String[columnCount];
+        Object[][] columns = new Object[columnCount][rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            IRubyObject[] args = rows.get(row);
+            if (args.length != columnCount) {
+                return null;
+            }
+            for (int col = 0; col < columnCount; col++) {
+                IRubyObject arg = args[col];
+                String type;
+                switch (inferRubyType(arg)) {
+                case NIL:
+                    continue;
+                case FIXNUM:
+                case BIGNUM:
+                case INTEGER:
+                case FLOAT:
+                case BIG_DECIMAL:
+                    type = NUMBER_LIST;
+                    try {
+                        columns[col][row] = new BigDecimal(arg.toString());
+                    } catch (NumberFormatException nfe) {
+                        // NaN and Infinity
+                        return null;
+                    }
+                    break;
+                case STRING:
+                    type = VARCHAR2_LIST;
+                    if (((RubyString) arg).getByteList().getRealSize() > MAX_VARCHAR2_BYTES) {
+                        return null;
+                    }
+                    columns[col][row] = ((RubyString) arg).getUnicodeValue();
+                    break;
+                default:
+                    return null;
+                }
+                if (types[col] != null && !types[col].equals(type)) {
+                    return null;
+                }
+                types[col] = type;
+            }
+        }
+
+        StringBuilder block = new StringBuilder("DECLARE FUNCTION do_insert(");
+        for (int col = 0; col < columnCount; col++) {
+            if (types[col] == null) {
+                // a column of NULLs
+                types[col] = VARCHAR2_LIST;
+            }
+            block.append(col > 0 ? ", " : "").append("do_arg").append(col + 1)
+                    .append(' ').append(types[col]);
+        }
+        block.append(") RETURN ").append(NUMBER_LIST).append(" IS do_ids ").append(NUMBER_LIST)
+                .append("; BEGIN FORALL do_i IN 1 .. do_arg1.COUNT ").append(body)
+                .append(" RETURNING ").append(m.group(2))
+                .append(" BULK COLLECT INTO do_ids; RETURN do_ids; END; BEGIN ? := do_insert(");
+        for (int col = 0; col < columnCount; col++) {
+            block.append(col > 0 ? ", ?" : "?");
+        }
+        block.append("); END;");
+
+        CallableStatement cs = conn.prepareCall(block.toString());
+        try {
+            cs.registerOutParameter(1, OracleTypes.ARRAY, NUMBER_LIST);
+            for (int col = 0; col < columnCount; col++) {
+                ArrayDescriptor descriptor = ArrayDescriptor.createDescriptor(types[col], conn);
+                cs.setArray(col + 2, new ARRAY(descriptor, conn, columns[col]));
+            }
+            return cs;
+        } catch (SQLException sqle) {
+            JDBCUtil.close(cs);
+            throw sqle;
+        }
+    }
+
+    /**
+     *
+     * @param ps
+     * @return
+     * @throws SQLException
+     */
+    @Override
+    public ResultSet getReturningBatchValues(PreparedStatement ps) throws SQLException {
+        // rows of the element index and the element
+        return ((CallableStatement) ps).getArray(1).getResultSet();
+    }
+
     /**
      *
      * @param sqlText
@@ -190,6 +358,38 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
         return newSqlText;
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String getValidationQuery() {
+        return "SELECT 1 FROM DUAL";
+    }
+
+    /**
+     * A timeout raises ORA-01013 (user requested cancel of current
+     * operation).
+     *
+     * @param sqle
+     * @return
+     */
+    @Override
+    public boolean isQueryTimeout(SQLException sqle) {
+        return sqle.getErrorCode() == 1013 || super.isQueryTimeout(sqle);
+    }
+
+    /**
+     * The driver throws on releaseSavepoint, as Oracle has no RELEASE
+     * SAVEPOINT; savepoints go away at the end of the transaction.
+     *
+     * @return
+     */
+    @Override
+    public boolean supportsReleaseSavepoint() {
+        return false;
+    }
+
     /**
      *
      * @return
@@ -272,16 +472,40 @@ public class OracleDriverDefinition extends AbstractDriverDefinition {
     @Override
     public void afterConnectionCallback(IRubyObject doConn, Connection conn, Map<String, String> query)
             throws SQLException {
-        exec(conn, "alter session set nls_date_format = 'YYYY-MM-DD HH24:MI:SS'");
-        exec(conn, "alter session set nls_timestamp_format = 'YYYY-MM-DD HH24:MI:SS.FF'");
-        exec(conn, "alter session set nls_timestamp_tz_format = 'YYYY-MM-DD HH24:MI:SS.FF TZH:TZM'");
+        List<String> statements = new ArrayList<String>();
+        statements.add("alter session set nls_date_format = 'YYYY-MM-DD HH24:MI:SS'");
+        statements.add("alter session set nls_timestamp_format = 'YYYY-MM-DD HH24:MI:SS.FF'");
+        statements.add("alter session set nls_timestamp_tz_format = 'YYYY-MM-DD HH24:MI:SS.FF TZH:TZM'");
         String time_zone = null;
         if (query != null)
             time_zone = query.get("time_zone");
         if (time_zone == null)
             time_zone = System.getenv("TZ");
         if (time_zone != null)
-            exec(conn, "alter session set time_zone = '"+time_zone+"'");
+            statements.add("alter session set time_zone = '"+time_zone.replace("'", "''")+"'");
+        executeSessionStatements(conn, statements);
+    }
+
+    /**
+     * Runs the statements as one anonymous PL/SQL block, as the driver sends
+     * the statements of a batch one by one.
+     *
+     * @param conn
+     * @param statements
+     * @throws SQLException
+     */
+    @Override
+    protected void executeSessionStatements(Connection conn, List<String> statements)
+            throws SQLException {
+        if (statements.isEmpty()) {
+            return;
+        }
+        StringBuilder block = new StringBuilder("BEGIN\n");
+        for (String statement : statements) {
+            block.append("  EXECUTE IMMEDIATE '").append(statement.replace("'", "''")).append("';\n");
+        }
+        block.append("END;");
+        exec(conn, block.toString());
     }
 
     /**
@@ -8,6 +8,52 @@ describe DataObjects::Oracle::Command do
 
   if JRUBY
     it_should_behave_like 'a Command with async'
+
+    describe 'execute_batch with RETURNING INTO' do
+
+      before do
+        setup_test_environment
+        @connection = DataObjects::Connection.new(CONFIG.uri)
+      end
+
+      after do
+        @connection.close
+      end
+
+      def names_of(ids)
+        reader = @connection.create_command("SELECT name FROM users WHERE id IN ? ORDER BY id").execute_reader(ids)
+        names = reader.to_a.map { |row| row.first }
+        reader.close
+        names
+      end
+
+      it 'should insert all rows in one block and return every key' do
+        result = @connection.create_command("INSERT INTO users (name) VALUES (?) RETURNING id INTO :insert_id").
+          execute_batch([['Alice'], ['Bob'], ['Carol']])
+        first = result.insert_ids.first
+        result.insert_ids.should == [first, first + 1, first + 2]
+        result.insert_id.should == first + 2
+        result.update_counts.should == [1, 1, 1]
+        result.affected_rows.should == 3
+        names_of(result.insert_ids).should == ['Alice', 'Bob', 'Carol']
+      end
+
+      it 'should bind numbers and NULLs' do
+        result = @connection.create_command("INSERT INTO widgets (name, number_sold) VALUES (?, ?) RETURNING id INTO :insert_id").
+          execute_batch([['Widget A', 1], [nil, 2]])
+        result.insert_ids.size.should == 2
+        result.affected_rows.should == 2
+      end
+
+      it 'should run rows it can not bind as collections one by one' do
+        result = @connection.create_command("INSERT INTO users (name, fired_at) VALUES (?, ?) RETURNING id INTO :insert_id").
+          execute_batch([['Alice', Time.now], ['Bob', Time.now]])
+        result.insert_ids.size.should == 2
+        result.update_counts.should == [1, 1]
+        names_of(result.insert_ids).should == ['Alice', 'Bob']
+      end
+
+    end
   else
     describe 'running queries in parallel' do
 
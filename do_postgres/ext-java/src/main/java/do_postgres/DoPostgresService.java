@@ -1,11 +1,28 @@
 package do_postgres;
 
+import java.io.IOException;
+
+import org.jruby.Ruby;
+
 import data_objects.drivers.AbstractDataObjectsService;
 import data_objects.drivers.DriverDefinition;
 
 public class DoPostgresService extends AbstractDataObjectsService {
 
-    private final static DriverDefinition driver = new PostgresDriverDefinition();
+    final static DriverDefinition driver = new PostgresDriverDefinition();
+
+    /**
+     *
+     * @param runtime
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public boolean basicLoad(final Ruby runtime) throws IOException {
+        super.basicLoad(runtime);
+        PostgresCopy.defineCopyMethods(runtime, driver);
+        return true;
+    }
 
     /**
      *
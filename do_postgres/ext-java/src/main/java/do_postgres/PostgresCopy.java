@@ -0,0 +1,466 @@
+package do_postgres;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.sql.SQLException;
+import java.util.regex.Pattern;
+
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyHash;
+import org.jruby.RubyString;
+import org.jruby.anno.JRubyMethod;
+import org.jruby.runtime.Arity;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.BlockCallback;
+import org.jruby.runtime.CallBlock;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOperation;
+import org.postgresql.copy.CopyOut;
+
+import data_objects.Connection;
+import data_objects.drivers.DriverDefinition;
+import data_objects.errors.Errors;
+
+/**
+ * Bulk loading and export through the COPY protocol of PostgreSQL, defined
+ * as Connection#copy_in and Connection#copy_out on
+ * DataObjects::Postgres::Connection.
+ *
+ * Not part of the DataObjects API.
+ */
+public final class PostgresCopy {
+
+    /**
+     * How much data is sent to the server at a time
+     */
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    private final static String UTF8_ENCODING = "UTF-8";
+
+    /**
+     * The sources of copy_out which are queries rather than table names
+     */
+    private final static Pattern QUERY = Pattern.compile(
+            "\\A\\s*(SELECT|WITH|VALUES|TABLE)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final static DriverDefinition driver = DoPostgresService.driver;
+
+    private PostgresCopy() {
+    }
+
+    /**
+     * Defines the COPY methods on the Connection class of the driver.
+     *
+     * @param runtime
+     * @param driver
+     */
+    static void defineCopyMethods(Ruby runtime, DriverDefinition driver) {
+        RubyClass connectionClass = Connection.createConnectionClass(runtime, driver);
+        connectionClass.defineAnnotatedMethods(PostgresCopy.class);
+    }
+
+    /**
+     * Loads rows into a table with COPY ... FROM STDIN.
+     *
+     * The data is either an IO (or any object responding to read), whose
+     * contents are sent as they are, or an Enumerable yielding rows: a row
+     * is an Array of values, encoded in the given format, or a String
+     * holding the already encoded row (including the line terminator). Data
+     * is sent in chunks as it is read, so the whole payload is never held
+     * in memory.
+     *
+     * @param context
+     * @param recv the connection
+     * @param args the table, the columns (an Array of names, or nil for all
+     * columns), the data and an optional Hash of options: :format is :text
+     * (the default), :csv or :binary (from an IO or Strings only)
+     * @return the number of rows loaded
+     */
+    @JRubyMethod(required = 3, optional = 1)
+    public static IRubyObject copy_in(ThreadContext context, IRubyObject recv,
+            IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        Format format = Format.valueOf(runtime, args.length > 3 ? args[3] : runtime.getNil());
+        String sql = "COPY " + quoteTable(args[0]) + quoteColumns(args[1])
+                + " FROM STDIN" + format.getOptions();
+
+        CopyManager copyManager = getCopyManager(runtime, (Connection) recv);
+        CopyIn copyIn = null;
+        try {
+            copyIn = copyManager.copyIn(sql);
+            final CopyInWriter writer = new CopyInWriter(runtime, copyIn, format);
+            IRubyObject source = args[2];
+            if (source.respondsTo("read")) {
+                IRubyObject chunk;
+                IRubyObject size = runtime.newFixnum(CHUNK_SIZE);
+                while (!(chunk = source.callMethod(context, "read", size)).isNil()) {
+                    writer.write(chunk.convertToString());
+                }
+            } else {
+                Block block = CallBlock.newCallClosure(recv, runtime.getObject(),
+                        Arity.ONE_ARGUMENT, new BlockCallback() {
+                            public IRubyObject call(ThreadContext context,
+                                    IRubyObject[] args, Block block) {
+                                writer.writeRow(args.length == 1 ? args[0]
+                                        : RubyArray.newArray(context.getRuntime(), args));
+                                return context.getRuntime().getNil();
+                            }
+                        }, context);
+                source.callMethod(context, "each", IRubyObject.NULL_ARRAY, block);
+            }
+            writer.flush();
+            long rows = copyIn.endCopy();
+            return runtime.newFixnum(rows);
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle);
+        } finally {
+            cancel(copyIn);
+        }
+    }
+
+    /**
+     * Exports a table or the rows of a query with COPY ... TO STDOUT.
+     *
+     * The data is written in chunks to an IO (or any object responding to
+     * write), or to the file at the given path, as it comes from the
+     * server: no Ruby objects are created per row.
+     *
+     * @param context
+     * @param recv the connection
+     * @param args a table name or a query, the IO or path to write to, and
+     * an optional Hash of options: :format is :text (the default), :csv or
+     * :binary
+     * @return the number of rows exported
+     */
+    @JRubyMethod(required = 2, optional = 1)
+    public static IRubyObject copy_out(ThreadContext context, IRubyObject recv,
+            IRubyObject[] args) {
+        Ruby runtime = context.getRuntime();
+        Format format = Format.valueOf(runtime, args.length > 2 ? args[2] : runtime.getNil());
+        String source = args[0].asJavaString();
+        String sql = "COPY " + (QUERY.matcher(source).find() ? "(" + source + ")" : quoteTable(args[0]))
+                + " TO STDOUT" + format.getOptions();
+        IRubyObject target = args[1];
+
+        CopyManager copyManager = getCopyManager(runtime, (Connection) recv);
+        CopyOut copyOut = null;
+        OutputStream file = null;
+        try {
+            if (target instanceof RubyString) {
+                file = new BufferedOutputStream(new FileOutputStream(
+                        resolvePath(runtime, target.asJavaString())), CHUNK_SIZE);
+                return runtime.newFixnum(copyManager.copyOut(sql, file));
+            }
+            if (!target.respondsTo("write")) {
+                throw runtime.newTypeError("expected an IO or a path, got "
+                        + target.getMetaClass().getName());
+            }
+            copyOut = copyManager.copyOut(sql);
+            ByteList chunk = new ByteList(CHUNK_SIZE);
+            byte[] data;
+            while ((data = copyOut.readFromCopy()) != null) {
+                chunk.append(data, 0, data.length);
+                if (chunk.length() >= CHUNK_SIZE) {
+                    target.callMethod(context, "write", RubyString.newString(runtime, chunk));
+                    chunk = new ByteList(CHUNK_SIZE);
+                }
+            }
+            if (chunk.length() > 0) {
+                target.callMethod(context, "write", RubyString.newString(runtime, chunk));
+            }
+            return runtime.newFixnum(copyOut.getHandledRowCount());
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle);
+        } catch (IOException ioe) {
+            throw runtime.newIOErrorFromException(ioe);
+        } finally {
+            cancel(copyOut);
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ioe) {
+                    // an error while copying is the one worth reporting
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param connection
+     * @return
+     */
+    static CopyManager getCopyManager(Ruby runtime, Connection connection) {
+        connection.beforeStatement();
+        java.sql.Connection conn = connection.getInternalConnection();
+        if (!(conn instanceof PGConnection)) {
+            throw Errors.newSqlError(runtime, driver,
+                    "COPY is not supported by connections of type " + conn.getClass().getName());
+        }
+        try {
+            return ((PGConnection) conn).getCopyAPI();
+        } catch (SQLException sqle) {
+            throw Errors.newSqlError(runtime, driver, sqle);
+        }
+    }
+
+    /**
+     * Ends a COPY that was interrupted by an error, leaving the connection
+     * usable.
+     *
+     * @param copy
+     */
+    private static void cancel(CopyOperation copy) {
+        if (copy != null && copy.isActive()) {
+            try {
+                copy.cancelCopy();
+            } catch (SQLException sqle) {
+                // the original error is the one worth reporting
+            }
+        }
+    }
+
+    /**
+     *
+     * @param runtime
+     * @param path
+     * @return the file at path, relative to the current directory of Ruby
+     */
+    private static File resolvePath(Ruby runtime, String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(runtime.getCurrentDirectory(), path);
+    }
+
+    /**
+     *
+     * @param table a table name, optionally qualified by the schema
+     * @return
+     */
+    static String quoteTable(IRubyObject table) {
+        String[] parts = table.asJavaString().split("\\.");
+        StringBuilder quoted = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                quoted.append('.');
+            }
+            quoted.append(quoteIdentifier(parts[i]));
+        }
+        return quoted.toString();
+    }
+
+    /**
+     *
+     * @param columns an Array of column names, or nil
+     * @return
+     */
+    static String quoteColumns(IRubyObject columns) {
+        if (columns.isNil()) {
+            return "";
+        }
+        RubyArray names = columns.convertToArray();
+        StringBuilder quoted = new StringBuilder(" (");
+        for (int i = 0; i < names.getLength(); i++) {
+            if (i > 0) {
+                quoted.append(", ");
+            }
+            quoted.append(quoteIdentifier(names.eltInternal(i).asJavaString()));
+        }
+        return quoted.append(')').toString();
+    }
+
+    private static String quoteIdentifier(String name) {
+        if (name.startsWith("\"") && name.endsWith("\"") && name.length() > 1) {
+            return name;
+        }
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * The data formats of COPY.
+     */
+    static enum Format {
+        TEXT(""), CSV(" WITH CSV"), BINARY(" WITH BINARY");
+
+        private final String options;
+
+        private Format(String options) {
+            this.options = options;
+        }
+
+        String getOptions() {
+            return options;
+        }
+
+        /**
+         *
+         * @param runtime
+         * @param options a Hash with a :format key, or nil
+         * @return
+         */
+        static Format valueOf(Ruby runtime, IRubyObject options) {
+            if (options.isNil()) {
+                return TEXT;
+            }
+            if (!(options instanceof RubyHash)) {
+                throw runtime.newTypeError("expected a Hash of options, got "
+                        + options.getMetaClass().getName());
+            }
+            IRubyObject format = ((RubyHash) options).fastARef(runtime.newSymbol("format"));
+            if (format == null || format.isNil()) {
+                return TEXT;
+            }
+            String name = format.asJavaString();
+            for (Format f : values()) {
+                if (f.name().equalsIgnoreCase(name)) {
+                    return f;
+                }
+            }
+            throw runtime.newArgumentError("Unknown COPY format: " + name
+                    + " (expected :text, :csv or :binary)");
+        }
+    }
+
+    /**
+     * Encodes rows and sends them to the server in chunks of CHUNK_SIZE.
+     */
+    private static final class CopyInWriter {
+
+        private final Ruby runtime;
+        private final CopyIn copyIn;
+        private final Format format;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE);
+        private final StringBuilder line = new StringBuilder();
+
+        CopyInWriter(Ruby runtime, CopyIn copyIn, Format format) {
+            this.runtime = runtime;
+            this.copyIn = copyIn;
+            this.format = format;
+        }
+
+        /**
+         *
+         * @param data data which is already encoded
+         */
+        void write(RubyString data) {
+            ByteList bytes = data.getByteList();
+            buffer.write(bytes.getUnsafeBytes(), bytes.getBegin(), bytes.getRealSize());
+            if (buffer.size() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         *
+         * @param row an Array of values, or an encoded row
+         */
+        void writeRow(IRubyObject row) {
+            if (row instanceof RubyString) {
+                write((RubyString) row);
+                return;
+            }
+            if (!(row instanceof RubyArray)) {
+                throw runtime.newTypeError("expected an Array or a String for a row, got "
+                        + row.getMetaClass().getName());
+            }
+            if (format == Format.BINARY) {
+                throw runtime.newArgumentError(
+                        "rows of the binary COPY format must be encoded Strings");
+            }
+            RubyArray values = (RubyArray) row;
+            line.setLength(0);
+            for (int i = 0; i < values.getLength(); i++) {
+                if (i > 0) {
+                    line.append(format == Format.CSV ? ',' : '\t');
+                }
+                IRubyObject value = values.eltInternal(i);
+                if (format == Format.CSV) {
+                    appendCsv(value);
+                } else {
+                    appendText(value);
+                }
+            }
+            line.append('\n');
+            try {
+                byte[] bytes = line.toString().getBytes(UTF8_ENCODING);
+                buffer.write(bytes, 0, bytes.length);
+            } catch (UnsupportedEncodingException uee) {
+                throw runtime.newRuntimeError(uee.getLocalizedMessage());
+            }
+            if (buffer.size() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (buffer.size() == 0) {
+                return;
+            }
+            try {
+                copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+            } catch (SQLException sqle) {
+                throw Errors.newSqlError(runtime, driver, sqle);
+            }
+            buffer.reset();
+        }
+
+        private void appendText(IRubyObject value) {
+            if (value.isNil()) {
+                line.append("\\N");
+                return;
+            }
+            String text = stringValue(value);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                case '\\': line.append("\\\\"); break;
+                case '\t': line.append("\\t"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                default: line.append(c);
+                }
+            }
+        }
+
+        private void appendCsv(IRubyObject value) {
+            if (value.isNil()) {
+                // an unquoted empty value is NULL
+                return;
+            }
+            String text = stringValue(value);
+            boolean quote = text.length() == 0;
+            for (int i = 0; i < text.length() && !quote; i++) {
+                char c = text.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (quote) {
+                line.append('"').append(text.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(text);
+            }
+        }
+
+        private String stringValue(IRubyObject value) {
+            if (value instanceof RubyString) {
+                return ((RubyString) value).getUnicodeValue();
+            }
+            return value.asString().getUnicodeValue();
+        }
+    }
+
+}
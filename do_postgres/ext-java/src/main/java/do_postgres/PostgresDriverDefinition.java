@@ -6,15 +6,18 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.jruby.RubyBoolean;
 import org.jruby.RubyString;
 import org.jruby.runtime.builtin.IRubyObject;
 
-import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.BindPlan;
 import data_objects.util.JDBCUtil;
 import java.util.Properties;
 
@@ -48,6 +51,30 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
         return true;
     }
 
+    /**
+     * The PostgreSQL driver only uses a cursor (and honors the fetch size)
+     * for forward only result sets with autocommit turned off.
+     *
+     * @return
+     */
+    @Override
+    public boolean requiresTransactionForStreaming() {
+        return true;
+    }
+
+    /**
+     * The PostgreSQL driver sends semicolon separated statements given to
+     * Statement#execute in one round trip and returns one result per
+     * statement.
+     *
+     * @param conn
+     * @return
+     */
+    @Override
+    public boolean supportsMultipleStatements(java.sql.Connection conn) {
+        return true;
+    }
+
     /**
      *
      * @return
@@ -70,15 +97,16 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
      * @param ps
      * @param arg
      * @param idx
+     * @param plan
      * @throws SQLException
      */
     @Override
     public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
         int jdbcType;
-        switch (RubyType.inferRubyType(arg)) {
+        switch (inferRubyType(arg)) {
         case STRING:
-            jdbcType = ps.getParameterMetaData().getParameterType(idx);
+            jdbcType = plan.getParameterType(ps, idx, Types.VARCHAR);
             switch (jdbcType) {
             case Types.INTEGER:
                 // conversion for '.execute_reader("2")'
@@ -89,7 +117,7 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
             }
             break;
         case BYTE_ARRAY:
-            jdbcType = ps.getParameterMetaData().getParameterType(idx);
+            jdbcType = plan.getParameterType(ps, idx, Types.BINARY);
             switch (jdbcType) {
             case Types.BINARY:
                 ps.setBytes(idx, ((RubyString) arg).getBytes());
@@ -101,11 +129,13 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
             }
             break;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            super.setPreparedStatementParam(ps, arg, idx, plan);
         }
     }
 
     /**
+     * Sets up the session in a single round trip, plus one on the first
+     * connection to a server to find out about standard_conforming_strings.
      *
      * @param doConn
      * @param conn
@@ -115,10 +145,74 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
     @Override
     public void afterConnectionCallback(IRubyObject doConn,
             Connection conn, Map<String, String> query) throws SQLException {
-        checkStandardConformingStrings(doConn, conn);
-        setSearchPath(conn, query);
+        String server = conn.getMetaData().getURL() + " " + conn.getMetaData().getUserName();
+        StandardConformingStrings stdStrings = standardConformingStrings.get(server);
+        if (stdStrings == null) {
+            stdStrings = checkStandardConformingStrings(conn);
+            if (stdStrings != null) {
+                standardConformingStrings.put(server, stdStrings);
+            } else {
+                // the probe failed for another reason; try to turn it on,
+                // which falls back below if the server refuses
+                stdStrings = StandardConformingStrings.SETTABLE;
+            }
+        }
+
+        List<String> statements = new ArrayList<String>();
+        if (stdStrings == StandardConformingStrings.SETTABLE) {
+            statements.add("SET standard_conforming_strings = on");
+        }
+        String searchPath = searchPath(query);
+        if (searchPath != null) {
+            statements.add(searchPath);
+        }
+        boolean stdStringsOn = stdStrings != StandardConformingStrings.UNSUPPORTED;
+        try {
+            executeSessionStatements(conn, statements);
+        } catch (SQLException e) {
+            // run them one by one, so that one failing does not undo the others
+            for (String statement : statements) {
+                if (!executeIgnoringErrors(conn, statement) && statement.startsWith("SET standard_conforming_strings")) {
+                    stdStringsOn = false;
+                }
+            }
+        }
+
+        getObjectAdapter().setInstanceVariable(doConn, "@standard_conforming_strings",
+            RubyBoolean.newBoolean(doConn.getRuntime(), stdStringsOn));
     }
 
+    /**
+     * Without standard_conforming_strings, backslashes are escapes in all
+     * string literals.
+     *
+     * @param doConn
+     * @return
+     */
+    @Override
+    public boolean usesBackslashEscapes(IRubyObject doConn) {
+        return !getObjectAdapter().getInstanceVariable(doConn, "@standard_conforming_strings").isTrue();
+    }
+
+    /**
+     * What a server makes of standard_conforming_strings
+     */
+    private enum StandardConformingStrings {
+        /** on by default */
+        ON,
+        /** off by default, to be turned on for each session */
+        SETTABLE,
+        /** an old server that doesn't support standard_conforming_strings */
+        UNSUPPORTED
+    }
+
+    /**
+     * standard_conforming_strings by server URL and user, so that only the
+     * first connection has to ask for it
+     */
+    private final Map<String, StandardConformingStrings> standardConformingStrings =
+            new ConcurrentHashMap<String, StandardConformingStrings>();
+
     private final static Pattern validValue = Pattern.compile("^[a-zA-Z][a-zA-Z0-9-]*(,[a-zA-Z][a-zA-Z0-9-]*)*$");
 
     /**
@@ -137,23 +231,39 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
     }
 
     /**
-     * Sets the search_path for the given connection based on
+     * Builds the command setting the search_path for a connection based on
      * the search_path query parameter.
      *
-     * @param conn Connection to set search_path for.
      * @param query Map containing all query parameters.
+     * @return the SET command, or null if there is no (valid) search_path
      */
-    private void setSearchPath(Connection conn, Map<String, String> query) throws SQLException {
+    private String searchPath(Map<String, String> query) {
         final String search_path = "search_path";
         if (query == null || !query.containsKey(search_path))
-            return;
+            return null;
 
-        PreparedStatement st = null;
         try {
-            st = conn.prepareStatement("SET search_path = " + escapeValue(query.get(search_path)));
-            st.executeUpdate();
+            return "SET search_path = " + escapeValue(query.get(search_path));
         } catch (SQLException e) {
             // Ignore.
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param conn
+     * @param sql
+     * @return whether the statement succeeded
+     */
+    private boolean executeIgnoringErrors(Connection conn, String sql) {
+        Statement st = null;
+        try {
+            st = conn.createStatement();
+            st.execute(sql);
+            return true;
+        } catch (SQLException e) {
+            return false;
         } finally {
             JDBCUtil.close(st);
         }
@@ -161,39 +271,29 @@ public class PostgresDriverDefinition extends AbstractDriverDefinition {
 
     /**
      *
-     * @param doConn
      * @param conn
-     * @throws SQLException
+     * @return what the server makes of standard_conforming_strings, or null
+     * if asking failed for other reasons than an unknown setting
      */
-    private void checkStandardConformingStrings(IRubyObject doConn, Connection conn) throws SQLException {
+    private StandardConformingStrings checkStandardConformingStrings(Connection conn) {
         Statement st = null;
-        boolean standardConformingStrings = false;
         try {
             st = conn.createStatement();
             ResultSet rs = st.executeQuery("SHOW standard_conforming_strings");
-            if (rs.next()) {
-                standardConformingStrings = rs.getString(1).equals("on");
+            if (rs.next() && rs.getString(1).equals("on")) {
+                return StandardConformingStrings.ON;
             }
+            return StandardConformingStrings.SETTABLE;
         } catch (SQLException e) {
-            // Ignore. It must be an old server that doesn't support standard_conforming_strings
+            // 42704 (undefined_object): an old server that doesn't support
+            // standard_conforming_strings; anything else may be transient
+            if ("42704".equals(e.getSQLState())) {
+                return StandardConformingStrings.UNSUPPORTED;
+            }
+            return null;
         } finally {
             JDBCUtil.close(st);
         }
-
-        if(!standardConformingStrings) {
-            try {
-                st = conn.createStatement();
-                st.execute("SET standard_conforming_strings = on");
-                standardConformingStrings = true;
-            } catch (SQLException e) {
-
-            } finally {
-                JDBCUtil.close(st);
-            }
-        }
-
-        getObjectAdapter().setInstanceVariable(doConn, "@standard_conforming_strings",
-            RubyBoolean.newBoolean(doConn.getRuntime(), standardConformingStrings));
     }
 
     /**
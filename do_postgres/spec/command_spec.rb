@@ -5,6 +5,10 @@ require 'data_objects/spec/shared/command_spec'
 
 describe DataObjects::Postgres::Command do
   it_should_behave_like 'a Command'
+  it_should_behave_like 'a Command with prepare' if JRUBY
+  it_should_behave_like 'a Command with batches' if JRUBY
+  it_should_behave_like 'a Command with futures' if JRUBY
+  it_should_behave_like 'a Command with timeouts' if JRUBY
   it_should_behave_like 'a Command with async'
 
   describe 'query with RETURNING while not returning result' do
@@ -42,4 +46,20 @@ describe DataObjects::Postgres::Command do
       reader.close
     end
   end
+
+  describe 'query running longer than its timeout' do
+    before do
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @command    = @connection.create_command("SELECT pg_sleep(5)")
+      @command.timeout = 1
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should raise a QueryCancelledError' do
+      expect { @command.execute_reader.close }.to raise_error(DataObjects::QueryCancelledError)
+    end
+  end if JRUBY
 end
@@ -2,6 +2,8 @@
 
 require File.expand_path(File.join(File.dirname(__FILE__), 'spec_helper'))
 require 'data_objects/spec/shared/connection_spec'
+require 'stringio'
+require 'tmpdir'
 
 describe DataObjects::Postgres::Connection do
 
@@ -18,6 +20,141 @@ describe DataObjects::Postgres::Connection do
   it_should_behave_like 'a Connection with authentication support'
   it_should_behave_like 'a Connection allowing default database' unless JRUBY
   it_should_behave_like 'a Connection with JDBC URL support' if JRUBY
+  it_should_behave_like 'a Connection with a statement cache' if JRUBY
+  it_should_behave_like 'a Connection with pipelines' if JRUBY
+  it_should_behave_like 'a Connection with a pool' if JRUBY
+  it_should_behave_like 'a Connection with validation' if JRUBY
+  it_should_behave_like 'a Connection with savepoints' if JRUBY
+
+  describe 'session setup' do
+
+    def show(connection, setting)
+      reader = connection.create_command("SHOW #{setting}").execute_reader
+      reader.next!
+      value = reader.values.first
+      reader.close
+      value
+    end
+
+    it 'should turn on standard_conforming_strings for every connection' do
+      2.times do
+        connection = DataObjects::Connection.new(CONFIG.uri)
+        begin
+          connection.instance_variable_get(:@standard_conforming_strings).should be_true
+          show(connection, 'standard_conforming_strings').should == 'on'
+        ensure
+          connection.close
+        end
+      end
+    end
+
+    it 'should not treat backslashes in literals as escapes' do
+      connection = DataObjects::Connection.new(CONFIG.uri)
+      begin
+        reader = connection.create_command("SELECT 'a\\' || ?").execute_reader('x')
+        reader.next!
+        reader.values.first.should == "a\\x"
+        reader.close
+      ensure
+        connection.close
+      end
+    end
+
+    it 'should set the search_path given in the URI' do
+      connection = DataObjects::Connection.new(uri_with_options('search_path=public'))
+      begin
+        show(connection, 'search_path').should == 'public'
+        show(connection, 'standard_conforming_strings').should == 'on'
+      ensure
+        connection.close
+      end
+    end
+
+  end if JRUBY
+
+  describe 'execute_pipeline' do
+
+    before do
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+    end
+
+    after do
+      @connection.close
+    end
+
+    def values_of(results)
+      results.map do |reader|
+        reader.next!
+        value = reader.values.first
+        reader.close
+        value
+      end
+    end
+
+    it 'should send statements without bind values in one round trip' do
+      # the statements of one simple query share an implicit transaction
+      first, second = values_of(@connection.execute_pipeline([
+        "SELECT txid_current()",
+        "SELECT txid_current()"
+      ]))
+      second.should == first
+    end
+
+    it 'should send statements with bind values on their own' do
+      first, second = values_of(@connection.execute_pipeline([
+        "SELECT txid_current()",
+        ["SELECT txid_current() + ?", 0]
+      ]))
+      second.should_not == first
+    end
+
+    it 'should return one result per grouped statement' do
+      name    = "Pipeline #{rand(100000)}"
+      results = @connection.execute_pipeline([
+        "INSERT INTO users (name) VALUES ('#{name}'), ('#{name}')",
+        "SELECT COUNT(*) FROM users WHERE name = '#{name}'",
+        "DELETE FROM users WHERE name = '#{name}'"
+      ])
+      results[0].affected_rows.should == 2
+      values_of([results[1]]).should == [2]
+      results[2].affected_rows.should == 2
+    end
+
+  end if JRUBY
+
+  describe 'losing the connection' do
+
+    before do
+      @connection = DataObjects::Connection.new(uri_with_options('validation_interval=0'))
+      @admin      = DataObjects::Connection.new(CONFIG.uri)
+    end
+
+    after do
+      @connection.close
+      @admin.close
+    end
+
+    def backend_pid(connection)
+      reader = connection.create_command("SELECT pg_backend_pid()").execute_reader
+      reader.next!
+      pid = reader.values.first
+      reader.close
+      pid
+    end
+
+    it 'should reconnect before the next command and count it' do
+      pid    = backend_pid(@connection)
+      before = @connection.connection_stats
+      @admin.create_command("SELECT pg_terminate_backend(?)").execute_reader(pid).close
+
+      backend_pid(@connection).should_not == pid
+      after = @connection.connection_stats
+      (after[:validation_failures] - before[:validation_failures]).should == 1
+      (after[:reconnects] - before[:reconnects]).should == 1
+      after[:reconnect_failures].should == before[:reconnect_failures]
+    end
+
+  end if JRUBY
 
   describe 'byte array quoting' do
 
@@ -47,4 +184,78 @@ describe DataObjects::Postgres::Connection do
       ["'a'", "'\\x61'"].should include @connection.quote_byte_array("a")
     end
   end
+
+  describe 'copy_in' do
+
+    before do
+      setup_test_environment
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @connection.create_command('DELETE FROM users').execute_non_query
+    end
+
+    after do
+      @connection.close
+    end
+
+    def user_names
+      @connection.create_command('SELECT name FROM users ORDER BY id').execute_reader.map { |row| row['name'] }
+    end
+
+    it 'should load rows from an Enumerable' do
+      rows = [ ['Bob'], ["Tab\tand\\backslash"], [nil] ]
+      @connection.copy_in('users', ['name'], rows).should == 3
+      user_names.should == ['Bob', "Tab\tand\\backslash", nil]
+    end
+
+    it 'should load rows from an IO' do
+      io = StringIO.new("Alice,1\n\"Comma, Inc.\",2\n")
+      @connection.copy_in('users', ['name', 'id'], io, :format => :csv).should == 2
+      user_names.should == ['Alice', 'Comma, Inc.']
+    end
+
+    it 'should raise an error for an unknown format' do
+      lambda { @connection.copy_in('users', nil, [], :format => :xml) }.should raise_error(ArgumentError)
+    end
+
+    it 'should leave the connection usable after a failed COPY' do
+      lambda { @connection.copy_in('users', ['id'], [['not a number']]) }.should raise_error(DataObjects::SQLError)
+      user_names.should == []
+    end
+  end if JRUBY
+
+  describe 'copy_out' do
+
+    before do
+      setup_test_environment
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @connection.create_command('DELETE FROM users').execute_non_query
+      @connection.copy_in('users', ['id', 'name'], [ [1, 'Alice'], [2, 'Comma, Inc.'], [3, nil] ])
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should write a table to an IO' do
+      io = StringIO.new
+      @connection.copy_out('users', io).should == 3
+      io.string.split("\n").map { |line| line.split("\t")[0, 2] }.should == [ ['1', 'Alice'], ['2', 'Comma, Inc.'], ['3', '\\N'] ]
+    end
+
+    it 'should write the rows of a query in CSV' do
+      io = StringIO.new
+      @connection.copy_out('SELECT id, name FROM users ORDER BY id', io, :format => :csv).should == 3
+      io.string.should == "1,Alice\n2,\"Comma, Inc.\"\n3,\n"
+    end
+
+    it 'should write to a file path' do
+      path = File.join(Dir.tmpdir, "do_postgres_copy_out_#{$$}.csv")
+      begin
+        @connection.copy_out('SELECT name FROM users WHERE id = 1', path, :format => :csv).should == 1
+        File.read(path).should == "Alice\n"
+      ensure
+        File.delete(path) if File.exist?(path)
+      end
+    end
+  end if JRUBY
 end
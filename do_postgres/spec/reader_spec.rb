@@ -5,4 +5,9 @@ require 'data_objects/spec/shared/reader_spec'
 
 describe DataObjects::Postgres::Reader do
   it_should_behave_like 'a Reader'
+  it_should_behave_like 'a Reader with streaming' if JRUBY
+  it_should_behave_like 'a Reader with batches' if JRUBY
+  it_should_behave_like 'a Reader with rows' if JRUBY
+  it_should_behave_like 'a Reader with columns' if JRUBY
+  it_should_behave_like 'a Reader with lazy rows' if JRUBY
 end
@@ -83,4 +83,46 @@ describe DataObjects::Postgres::Result do
 
   end
 
+  describe 'insert_ids when using RETURNING with several rows' do
+
+    before do
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @result     = @connection.create_command("INSERT INTO users (name) VALUES (?), (?) RETURNING id").execute_non_query("monkey", "gorilla")
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should return the key of every row, in order' do
+      @result.insert_ids.should == [1, 2]
+    end
+
+    it 'should return the first key as insert_id' do
+      @result.insert_id.should == 1
+    end
+
+    it 'should count one affected row per returned key' do
+      @result.affected_rows.should == 2
+    end
+
+  end if JRUBY
+
+  describe 'insert_ids without RETURNING' do
+
+    before do
+      @connection = DataObjects::Connection.new(CONFIG.uri)
+      @result     = @connection.create_command("INSERT INTO users (name) VALUES (?)").execute_non_query("monkey")
+    end
+
+    after do
+      @connection.close
+    end
+
+    it 'should be empty' do
+      @result.insert_ids.should == []
+    end
+
+  end if JRUBY
+
 end
@@ -1,7 +1,6 @@
 package do_sqlite3;
 
 import java.lang.reflect.Field;
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
@@ -23,6 +22,8 @@ import org.jruby.util.ByteList;
 
 import data_objects.RubyType;
 import data_objects.drivers.AbstractDriverDefinition;
+import data_objects.drivers.BindPlan;
+import data_objects.drivers.ColumnDecoder;
 
 public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
 
@@ -87,46 +88,80 @@ public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
 
     /**
      *
-     * @param runtime
-     * @param rs
-     * @param col
      * @param type
+     * @param jdbcType
      * @return
-     * @throws SQLException
-     * @throws IOException
      */
     @Override
-    public IRubyObject getTypecastResultSetValue(Ruby runtime,
-            ResultSet rs, int col, RubyType type) throws SQLException,
-            IOException {
+    public ColumnDecoder getColumnDecoder(RubyType type, int jdbcType) {
         switch (type) {
         case DATE:
+            return sqliteDateDecoder;
+        case DATE_TIME:
+            return sqliteDateTimeDecoder;
+        case TIME:
+            return sqliteTimeDecoder;
+        case FIXNUM:
+        case INTEGER:
+        case BIGNUM:
+            // the column type reported by jdbc-sqlite3 is the storage class
+            // of the value in the current row, so it is checked row by row
+            return sqliteIntegerDecoder;
+        case FLOAT:
+            return sqliteFloatDecoder;
+        case BIG_DECIMAL:
+            return sqliteBigDecimalDecoder;
+        case BYTE_ARRAY:
+            return sqliteByteArrayDecoder;
+        case TRUE_CLASS:
+            return sqliteBooleanDecoder;
+        default:
+            return super.getColumnDecoder(type, jdbcType);
+        }
+    }
+
+    private final ColumnDecoder sqliteDateDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             String date = rs.getString(col);
             if (date == null) {
                 return runtime.getNil();
             }
             return prepareRubyDateFromSqlDate(runtime, toDate(date));
-        case DATE_TIME:
+        }
+    };
+
+    private final ColumnDecoder sqliteDateTimeDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             String dt = rs.getString(col);
             if (dt == null) {
                 return runtime.getNil();
             }
             return prepareRubyDateTimeFromSqlTimestamp(runtime, toTimestamp(dt));
-        case TIME:
+        }
+    };
+
+    private final ColumnDecoder sqliteTimeDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             String time = rs.getString(col);
             if (time == null) {
                 return runtime.getNil();
             }
             return prepareRubyTimeFromSqlTime(runtime, toTimestamp(time));
-        case FIXNUM:
-        case INTEGER:
-        case BIGNUM:
+        }
+    };
+
+    private final ColumnDecoder sqliteIntegerDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             try {
-                // jdbc-sqlite3 returns 0 for getLong if the column is of
+                // jdbc-sqlite3 returns 0 for getLong if the value is of
                 // a float or double type. This means we have to handle this
                 // case separately here.
-                if(rs.getMetaData().getColumnType(col) == Types.FLOAT ||
-                   rs.getMetaData().getColumnType(col) == Types.DOUBLE) {
+                int jdbcType = rs.getMetaData().getColumnType(col);
+                if (jdbcType == Types.FLOAT || jdbcType == Types.DOUBLE) {
                     double dbl = rs.getDouble(col);
                     return RubyBignum.bignorm(runtime, (new BigDecimal(dbl)).toBigInteger());
                 }
@@ -146,48 +181,67 @@ public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
                 // will return either Fixnum or Bignum
                 return RubyBignum.bignorm(runtime, (new BigDecimal(ivalue)).toBigInteger());
             }
-        case FLOAT:
+        }
+    };
+
+    private final ColumnDecoder sqliteFloatDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             String fvalue = rs.getString(col);
             if (fvalue == null) {
                 return runtime.getNil();
             }
             return new RubyFloat(runtime, new BigDecimal(fvalue).doubleValue());
-        case BIG_DECIMAL:
+        }
+    };
+
+    private final ColumnDecoder sqliteBigDecimalDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             String dvalue = rs.getString(col);
             if (dvalue == null) {
                 return runtime.getNil();
             }
             return runtime.getKernel().callMethod("BigDecimal",
                     runtime.newString(dvalue));
-        case BYTE_ARRAY:
+        }
+    };
+
+    private final ColumnDecoder sqliteByteArrayDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             ByteList bytes = new ByteList(rs.getBytes(col));
             if (rs.wasNull() || bytes.length() == 0) {
                 return runtime.getNil();
             }
             return API.callMethod(runtime.fastGetModule("Extlib").fastGetClass(
                     "ByteArray"), "new", runtime.newString(bytes));
-        case TRUE_CLASS:
+        }
+    };
+
+    private final ColumnDecoder sqliteBooleanDecoder = new ColumnDecoder() {
+        public IRubyObject decode(Ruby runtime, ResultSet rs, int col)
+                throws SQLException {
             final String tvalue = rs.getString(col);
             if (tvalue == null) {
                 return runtime.getNil();
             }
             return runtime.newBoolean("t".equals(tvalue));
-        default:
-            return super.getTypecastResultSetValue(runtime, rs, col, type);
         }
-    }
+    };
 
     /**
      *
      * @param ps
      * @param arg
      * @param idx
+     * @param plan
      * @throws SQLException
      */
     @Override
     public void setPreparedStatementParam(PreparedStatement ps,
-            IRubyObject arg, int idx) throws SQLException {
-        switch (RubyType.inferRubyType(arg)) {
+            IRubyObject arg, int idx, BindPlan plan) throws SQLException {
+        switch (inferRubyType(arg)) {
         case BIG_DECIMAL:
             ps.setString(idx, ((BigDecimal) arg.toJava(Object.class)).toPlainString());
             break;
@@ -210,7 +264,7 @@ public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
             ps.setString(idx, date);
             break;
         default:
-            super.setPreparedStatementParam(ps, arg, idx);
+            super.setPreparedStatementParam(ps, arg, idx, plan);
         }
     }
 
@@ -241,6 +295,17 @@ public class Sqlite3DriverDefinition extends AbstractDriverDefinition {
         return false;
     }
 
+    /**
+     * SQLite refuses to drop a table while prepared statements referring to
+     * it are still open, so statements are not kept around for reuse.
+     *
+     * @return
+     */
+    @Override
+    public int getDefaultStatementCacheSize() {
+        return 0;
+    }
+
     /**
      *
      * @param sql
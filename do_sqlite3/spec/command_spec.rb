@@ -5,4 +5,7 @@ require 'data_objects/spec/shared/command_spec'
 
 describe DataObjects::Sqlite3::Command do
   it_should_behave_like 'a Command'
+  it_should_behave_like 'a Command with prepare' if JRUBY
+  it_should_behave_like 'a Command with batches' if JRUBY
+  it_should_behave_like 'a Command with futures' if JRUBY
 end
@@ -17,6 +17,11 @@ describe DataObjects::Sqlite3::Connection do
   it_should_behave_like 'a Connection'
   it_should_behave_like 'a Connection via JDNI' if JRUBY
   it_should_behave_like 'a Connection with JDBC URL support' if JRUBY
+  it_should_behave_like 'a Connection with a statement cache' if JRUBY
+  it_should_behave_like 'a Connection with pipelines' if JRUBY
+  it_should_behave_like 'a Connection with a pool' if JRUBY
+  it_should_behave_like 'a Connection with validation' if JRUBY
+  it_should_behave_like 'a Connection with savepoints' if JRUBY
 
   unless JRUBY
 
@@ -51,6 +51,16 @@ public class SqlServerDriverDefinition extends AbstractDriverDefinition {
         return true;
     }
 
+    /**
+     *
+     * @param conn
+     * @return
+     */
+    @Override
+    public boolean supportsMultipleStatements(java.sql.Connection conn) {
+        return true;
+    }
+
     /**
      *
      * @return